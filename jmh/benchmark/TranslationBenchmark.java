@@ -0,0 +1,141 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
+import org.daisy.dotify.api.translator.Translatable;
+import org.daisy.dotify.api.translator.TranslationException;
+import org.daisy.dotify.api.translator.TranslatorConfigurationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the translation of a fixed corpus. One operation translates the
+ * entire corpus, see {@link TranslationBenchmarks} for the conversion into
+ * characters per second and bytes allocated per character.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranslationBenchmark {
+	static final String CORPUS = "corpus.txt";
+	static final String SHAPE_LINES = "lines";
+	static final String SHAPE_PARAGRAPHS = "paragraphs";
+	private static final int LINE_WIDTH = 40;
+
+	/**
+	 * The translator specification, as locale|mode. The values are supplied by
+	 * {@link TranslationBenchmarks}.
+	 */
+	@Param({"sv-SE|uncontracted"})
+	public String spec;
+
+	/**
+	 * The shape of the input segments, short lines or long paragraphs.
+	 */
+	@Param({SHAPE_LINES, SHAPE_PARAGRAPHS})
+	public String shape;
+
+	private BrailleTranslator translator;
+	private List<String> segments;
+
+	@Setup(Level.Trial)
+	public void setup() throws TranslatorConfigurationException, IOException {
+		int i = spec.indexOf('|');
+		translator = BrailleTranslatorFactoryMaker.newInstance().newTranslator(spec.substring(0, i), spec.substring(i+1));
+		segments = loadSegments(shape);
+	}
+
+	@Benchmark
+	public void translate(Blackhole bh) throws TranslationException {
+		for (String s : segments) {
+			bh.consume(translator.translate(Translatable.text(s).build()).getTranslatedRemainder());
+		}
+	}
+
+	/**
+	 * Loads the corpus in the specified shape. Paragraphs are separated by
+	 * empty lines in the corpus. In the lines shape, the paragraphs are wrapped
+	 * into short lines.
+	 * @param shape the shape
+	 * @return the segments
+	 * @throws IOException if the corpus cannot be read
+	 */
+	static List<String> loadSegments(String shape) throws IOException {
+		List<String> paragraphs = new ArrayList<>();
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(TranslationBenchmark.class.getResourceAsStream(CORPUS), StandardCharsets.UTF_8))) {
+			StringBuilder sb = new StringBuilder();
+			String line;
+			while ((line = r.readLine())!=null) {
+				if (line.trim().isEmpty()) {
+					if (sb.length()>0) {
+						paragraphs.add(sb.toString());
+						sb = new StringBuilder();
+					}
+				} else {
+					if (sb.length()>0) {
+						sb.append(' ');
+					}
+					sb.append(line.trim());
+				}
+			}
+			if (sb.length()>0) {
+				paragraphs.add(sb.toString());
+			}
+		}
+		if (SHAPE_PARAGRAPHS.equals(shape)) {
+			return paragraphs;
+		}
+		List<String> lines = new ArrayList<>();
+		for (String p : paragraphs) {
+			StringBuilder sb = new StringBuilder();
+			for (String w : p.split(" ")) {
+				if (sb.length()>0 && sb.length()+1+w.length()>LINE_WIDTH) {
+					lines.add(sb.toString());
+					sb = new StringBuilder();
+				}
+				if (sb.length()>0) {
+					sb.append(' ');
+				}
+				sb.append(w);
+			}
+			lines.add(sb.toString());
+		}
+		return lines;
+	}
+
+	/**
+	 * Counts the characters in the corpus in the specified shape.
+	 * @param shape the shape
+	 * @return the number of characters
+	 * @throws IOException if the corpus cannot be read
+	 */
+	static long countCharacters(String shape) throws IOException {
+		long ret = 0;
+		for (String s : loadSegments(shape)) {
+			ret += s.length();
+		}
+		return ret;
+	}
+}
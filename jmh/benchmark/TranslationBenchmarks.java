@@ -0,0 +1,63 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
+import org.daisy.dotify.api.translator.TranslatorType;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link TranslationBenchmark} for every translator specification,
+ * except bypass and pre-translated, and prints the throughput in characters
+ * per second and the allocation per character.
+ *
+ * Additional JMH options can be supplied on the command line, for example
+ * <code>-p spec=sv-SE|uncontracted</code> to run a single specification.
+ */
+public class TranslationBenchmarks {
+	private static final String ALLOCATION_KEY = "\u00b7gc.alloc.rate.norm";
+
+	public static void main(String[] args) throws RunnerException, IOException, CommandLineOptionException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(cmd)
+			.include(TranslationBenchmark.class.getName())
+			.addProfiler(GCProfiler.class);
+		if (!cmd.getParameter("spec").hasValue()) {
+			Collection<String> specs = BrailleTranslatorFactoryMaker.newInstance().listSpecifications().stream()
+				.filter(v->!v.getMode().equals(TranslatorType.BYPASS.toString()) && !v.getMode().equals(TranslatorType.PRE_TRANSLATED.toString()))
+				.map(v->v.getLocale() + "|" + v.getMode())
+				.distinct()
+				.sorted()
+				.collect(Collectors.toList());
+			builder.param("spec", specs.toArray(new String[specs.size()]));
+		}
+		Options opts = builder.build();
+		Collection<RunResult> results = new Runner(opts).run();
+
+		long lineChars = TranslationBenchmark.countCharacters(TranslationBenchmark.SHAPE_LINES);
+		long paragraphChars = TranslationBenchmark.countCharacters(TranslationBenchmark.SHAPE_PARAGRAPHS);
+		System.out.println();
+		System.out.println(String.format("%-40s %-12s %16s %16s", "Specification", "Shape", "chars/s", "bytes/char"));
+		for (RunResult r : results) {
+			String spec = r.getParams().getParam("spec");
+			String shape = r.getParams().getParam("shape");
+			long chars = TranslationBenchmark.SHAPE_PARAGRAPHS.equals(shape) ? paragraphChars : lineChars;
+			double opsPerSecond = r.getPrimaryResult().getScore();
+			Result<?> alloc = r.getSecondaryResults().get(ALLOCATION_KEY);
+			System.out.println(String.format("%-40s %-12s %16.0f %16s",
+					spec, shape, opsPerSecond*chars, alloc!=null?String.format("%.1f", alloc.getScore()/chars):"n/a"));
+		}
+	}
+
+}
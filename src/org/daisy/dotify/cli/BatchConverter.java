@@ -0,0 +1,235 @@
+package org.daisy.dotify.cli;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.daisy.streamline.api.tasks.InternalTaskException;
+
+/**
+ * <p>Provides a batch converter that partitions the jobs into groups
+ * with the same locale, preset, output format and input format
+ * (see {@link BatchJob#getGroupKey()}).</p>
+ *
+ * <p>Each group is pinned to a single worker, so that the state associated with
+ * the group (translators, hyphenators, task systems and JIT profiles) stays warm
+ * in that worker. When a worker has completed its own groups, it takes jobs from
+ * the end of the largest remaining group of another worker, so that the workload
+ * is rebalanced at the end of the batch.</p>
+ */
+class BatchConverter {
+	private static final Logger logger = Logger.getLogger(BatchConverter.class.getCanonicalName());
+	private final int threads;
+	private final JobRunner runner;
+	private final ResourceMonitor monitor;
+	private final Map<String, Deque<BatchJob>> groups;
+	private int size;
+
+	/**
+	 * Provides a method for running a single job.
+	 */
+	@FunctionalInterface
+	interface JobRunner {
+		/**
+		 * Runs a job.
+		 * @param job the job
+		 * @param cache the task system cache of the current worker
+		 * @throws InternalTaskException if there is a problem with running the task system
+		 * @throws IOException if there is an i/o error
+		 */
+		void run(BatchJob job, TaskSystemCache cache) throws InternalTaskException, IOException;
+	}
+
+	/**
+	 * Creates a new batch converter.
+	 * @param threads the maximum number of workers
+	 * @param runner the job runner
+	 */
+	BatchConverter(int threads, JobRunner runner) {
+		this(threads, new ResourceMonitor(0, 0), runner);
+	}
+
+	/**
+	 * Creates a new batch converter.
+	 * @param threads the maximum number of workers
+	 * @param monitor the resource monitor used to measure and limit each job
+	 * @param runner the job runner
+	 */
+	BatchConverter(int threads, ResourceMonitor monitor, JobRunner runner) {
+		if (threads<1) {
+			throw new IllegalArgumentException("Number of threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+		this.runner = runner;
+		this.monitor = monitor;
+		this.groups = new LinkedHashMap<>();
+		this.size = 0;
+	}
+
+	/**
+	 * Adds a job to this batch.
+	 * @param job the job
+	 */
+	void add(BatchJob job) {
+		groups.computeIfAbsent(job.getGroupKey(), k->new ConcurrentLinkedDeque<>()).add(job);
+		size++;
+	}
+
+	/**
+	 * Runs the batch.
+	 * @return returns a summary of the batch
+	 */
+	BatchSummary run() {
+		int workers = Math.max(1, Math.min(threads, size));
+		BatchSummary summary = new BatchSummary(workers);
+		List<List<Deque<BatchJob>>> assigned = assignGroups(workers);
+		List<Deque<BatchJob>> all = new ArrayList<>(groups.values());
+		summary.start();
+		if (workers==1) {
+			new Worker(assigned.get(0), all, summary).run();
+		} else {
+			AtomicInteger threadIndex = new AtomicInteger(1);
+			ExecutorService es = Executors.newFixedThreadPool(workers, r->{
+				Thread t = new Thread(r, "dotify-batch-" + threadIndex.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			});
+			try {
+				// create all workers before starting any of them, so that they start at the same time
+				List<Worker> ws = new ArrayList<>();
+				for (List<Deque<BatchJob>> own : assigned) {
+					ws.add(new Worker(own, all, summary));
+				}
+				List<Future<?>> futures = new ArrayList<>();
+				for (Worker w : ws) {
+					futures.add(es.submit(w));
+				}
+				for (Future<?> f : futures) {
+					try {
+						f.get();
+					} catch (ExecutionException e) {
+						logger.log(Level.SEVERE, "Batch worker failed.", e);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			} finally {
+				es.shutdownNow();
+			}
+		}
+		summary.end();
+		monitor.close();
+		return summary;
+	}
+
+	/**
+	 * Assigns the groups to workers, the largest group first, to the worker
+	 * with the least amount of jobs so far.
+	 * @param workers the number of workers
+	 * @return a list of groups for each worker
+	 */
+	List<List<Deque<BatchJob>>> assignGroups(int workers) {
+		List<List<Deque<BatchJob>>> ret = new ArrayList<>();
+		int[] load = new int[workers];
+		for (int i=0; i<workers; i++) {
+			ret.add(new ArrayList<>());
+		}
+		List<Deque<BatchJob>> sorted = new ArrayList<>(groups.values());
+		sorted.sort((o1, o2)->Integer.compare(o2.size(), o1.size()));
+		for (Deque<BatchJob> g : sorted) {
+			int min = 0;
+			for (int i=1; i<workers; i++) {
+				if (load[i]<load[min]) {
+					min = i;
+				}
+			}
+			ret.get(min).add(g);
+			load[min] += g.size();
+		}
+		return ret;
+	}
+
+	private class Worker implements Runnable {
+		private final List<Deque<BatchJob>> own;
+		private final List<Deque<BatchJob>> all;
+		private final BatchSummary summary;
+		private final TaskSystemCache cache;
+
+		private Worker(List<Deque<BatchJob>> own, List<Deque<BatchJob>> all, BatchSummary summary) {
+			this.own = own;
+			this.all = all;
+			this.summary = summary;
+			this.cache = new TaskSystemCache();
+		}
+
+		@Override
+		public void run() {
+			BatchJob job;
+			while ((job = next())!=null) {
+				long start = System.nanoTime();
+				ResourceMonitor.Measurement m = monitor.begin();
+				Exception failure = null;
+				try {
+					runner.run(job, cache);
+				} catch (InternalTaskException e) {
+					logger.log(Level.WARNING, "Failed to process " + job.getInput(), e);
+					failure = e;
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Failed to read " + job.getInput(), e);
+					failure = e;
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Failed to process " + job.getInput(), e);
+					failure = e;
+				}
+				ResourceMonitor.Usage usage = m.end();
+				if (m.getExceeded()!=null) {
+					failure = new ResourceMonitor.LimitExceededException(m.getExceeded());
+					// don't leave a partial result behind
+					job.getOutput().delete();
+				}
+				summary.add(new BatchSummary.Entry(job, System.nanoTime()-start, usage, failure));
+			}
+		}
+
+		private BatchJob next() {
+			for (Deque<BatchJob> g : own) {
+				BatchJob job = g.pollFirst();
+				if (job!=null) {
+					return job;
+				}
+			}
+			// Own groups are done, help out with the largest remaining group
+			while (true) {
+				Deque<BatchJob> largest = null;
+				int max = 0;
+				for (Deque<BatchJob> g : all) {
+					int s = g.size();
+					if (s>max) {
+						max = s;
+						largest = g;
+					}
+				}
+				if (largest==null) {
+					return null;
+				}
+				BatchJob job = largest.pollLast();
+				if (job!=null) {
+					return job;
+				}
+			}
+		}
+	}
+
+}
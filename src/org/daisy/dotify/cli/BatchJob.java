@@ -0,0 +1,72 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provides a single conversion in a batch.
+ */
+class BatchJob {
+	private static final String PRESET_KEY = "preset";
+	private final File input;
+	private final File output;
+	private final String locale;
+	private final HashMap<String, String> params;
+	private final String groupKey;
+
+	/**
+	 * Creates a new batch job.
+	 * @param input the input file
+	 * @param output the output file
+	 * @param locale the locale
+	 * @param params the conversion parameters
+	 */
+	BatchJob(File input, File output, String locale, Map<String, String> params) {
+		this.input = input;
+		this.output = output;
+		this.locale = locale;
+		this.params = new HashMap<>(params);
+		this.groupKey = "locale=" + locale
+				+ ", preset=" + params.getOrDefault(PRESET_KEY, "")
+				+ ", " + SystemKeys.OUTPUT_FORMAT.getKey() + "=" + params.getOrDefault(SystemKeys.OUTPUT_FORMAT.getKey(), "")
+				+ ", input=" + getExtension(input);
+	}
+
+	private static String getExtension(File f) {
+		int indx = f.getName().lastIndexOf('.');
+		return indx>-1?f.getName().substring(indx+1).toLowerCase():"";
+	}
+
+	File getInput() {
+		return input;
+	}
+
+	File getOutput() {
+		return output;
+	}
+
+	String getLocale() {
+		return locale;
+	}
+
+	/**
+	 * Gets a copy of the parameters for this job. A new map
+	 * is returned on each call, since the conversion may modify it.
+	 * @return the parameters
+	 */
+	HashMap<String, String> getParams() {
+		return new HashMap<>(params);
+	}
+
+	/**
+	 * Gets the group key for this job. Jobs with the same locale, preset,
+	 * output format and input file extension share the same key and can
+	 * therefore reuse the same translators, hyphenators and task systems.
+	 * @return the group key
+	 */
+	String getGroupKey() {
+		return groupKey;
+	}
+
+}
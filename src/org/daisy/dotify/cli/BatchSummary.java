@@ -0,0 +1,170 @@
+package org.daisy.dotify.cli;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides a summary of a batch conversion. Results can be added
+ * concurrently by several workers.
+ */
+class BatchSummary {
+	private static final int TOP_COUNT = 5;
+	private static final long MB = 1024*1024;
+	private final List<Entry> entries;
+	private final int workers;
+	private ValidationPolicy validation;
+	private long startTime;
+	private long endTime;
+	private long gcCount;
+	private long gcMillis;
+
+	/**
+	 * Provides the result of a single job.
+	 */
+	static class Entry {
+		private final BatchJob job;
+		private final long nanos;
+		private final ResourceMonitor.Usage usage;
+		private final Exception failure;
+
+		Entry(BatchJob job, long nanos, ResourceMonitor.Usage usage, Exception failure) {
+			this.job = job;
+			this.nanos = nanos;
+			this.usage = usage;
+			this.failure = failure;
+		}
+
+		BatchJob getJob() {
+			return job;
+		}
+
+		long getNanos() {
+			return nanos;
+		}
+
+		ResourceMonitor.Usage getUsage() {
+			return usage;
+		}
+
+		boolean isSuccessful() {
+			return failure==null;
+		}
+
+		Exception getFailure() {
+			return failure;
+		}
+	}
+
+	/**
+	 * Creates a new summary.
+	 * @param workers the number of workers used in the batch
+	 */
+	BatchSummary(int workers) {
+		this.entries = Collections.synchronizedList(new ArrayList<>());
+		this.workers = workers;
+	}
+
+	void start() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+		gcCount = ResourceMonitor.gcCount();
+		gcMillis = ResourceMonitor.gcMillis();
+		startTime = System.nanoTime();
+	}
+
+	void end() {
+		endTime = System.nanoTime();
+		gcCount = ResourceMonitor.gcCount()-gcCount;
+		gcMillis = ResourceMonitor.gcMillis()-gcMillis;
+	}
+
+	void setValidationPolicy(ValidationPolicy validation) {
+		this.validation = validation;
+	}
+
+	void add(Entry e) {
+		entries.add(e);
+	}
+
+	List<Entry> getEntries() {
+		synchronized (entries) {
+			return new ArrayList<>(entries);
+		}
+	}
+
+	/**
+	 * Prints this summary.
+	 * @param ps the print stream to print to
+	 */
+	void print(PrintStream ps) {
+		List<Entry> all = getEntries();
+		Map<String, List<Entry>> groups = new LinkedHashMap<>();
+		List<Entry> failed = new ArrayList<>();
+		for (Entry e : all) {
+			groups.computeIfAbsent(e.getJob().getGroupKey(), k->new ArrayList<>()).add(e);
+			if (!e.isSuccessful()) {
+				failed.add(e);
+			}
+		}
+		ps.println("Batch summary");
+		ps.println("\tWorkers: " + workers);
+		ps.println("\tDocuments: " + all.size() + " (" + failed.size() + " failed)");
+		ps.println(String.format("\tTotal time: %.2f s", (endTime-startTime)/1e9));
+		ps.println(String.format("\tGarbage collection: %d collections, %.2f s", gcCount, gcMillis/1e3));
+		ps.println(String.format("\tPeak heap usage: %d MB (max %d MB)", peakHeap()/MB, Runtime.getRuntime().maxMemory()/MB));
+		if (validation!=null) {
+			validation.print(ps);
+		}
+		for (Map.Entry<String, List<Entry>> g : groups.entrySet()) {
+			long nanos = 0;
+			long cpu = 0;
+			long alloc = 0;
+			int failures = 0;
+			for (Entry e : g.getValue()) {
+				nanos += e.getNanos();
+				cpu += Math.max(0, e.getUsage().getCpuNanos());
+				alloc += Math.max(0, e.getUsage().getAllocatedBytes());
+				if (!e.isSuccessful()) {
+					failures++;
+				}
+			}
+			int n = g.getValue().size();
+			ps.println(String.format("\tGroup [%s]: %d documents, %d failed, %.2f s/document, %.2f s CPU/document, %d MB allocated/document",
+					g.getKey(), n, failures, nanos/1e9/n, cpu/1e9/n, alloc/MB/n));
+		}
+		if (!all.isEmpty()) {
+			ps.println("Most resource intensive documents (CPU time, allocated, GC during conversion):");
+			all.sort(Comparator.comparingLong((Entry e)->e.getUsage().getCpuNanos()).reversed());
+			for (Entry e : all.subList(0, Math.min(TOP_COUNT, all.size()))) {
+				ResourceMonitor.Usage u = e.getUsage();
+				ps.println(String.format("\t%s: %.2f s, %d MB, %d collections (%.2f s)",
+						e.getJob().getInput(), u.getCpuNanos()/1e9, u.getAllocatedBytes()/MB, u.getGcCount(), u.getGcMillis()/1e3));
+			}
+		}
+		if (!failed.isEmpty()) {
+			ps.println("Failed documents:");
+			for (Entry e : failed) {
+				ps.println("\t" + e.getJob().getInput() + ": " + e.getFailure().getMessage());
+			}
+		}
+	}
+
+	private static long peakHeap() {
+		long ret = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType()==MemoryType.HEAP && pool.getPeakUsage()!=null) {
+				ret += pool.getPeakUsage().getUsed();
+			}
+		}
+		return ret;
+	}
+}
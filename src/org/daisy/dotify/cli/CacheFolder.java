@@ -0,0 +1,31 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+
+/**
+ * Provides the location of the files that the persistent caches store
+ * between runs, such as {@link ValidationCache}, {@link PEFIndexCache} and
+ * {@link PrintServiceCache}. Each cache uses its own file or folder in this folder.
+ */
+final class CacheFolder {
+
+	private CacheFolder() {}
+
+	/**
+	 * Gets the default cache folder of the current user, following the conventions
+	 * of the operating system.
+	 * @return the folder
+	 */
+	static File getDefault() {
+		String os = System.getProperty("os.name", "").toLowerCase();
+		String localAppData = System.getenv("LOCALAPPDATA");
+		if (os.startsWith("windows") && localAppData!=null) {
+			return new File(new File(localAppData, "Dotify"), "cache");
+		} else if (os.startsWith("mac")) {
+			return new File(new File(System.getProperty("user.home"), "Library/Caches"), "Dotify");
+		}
+		String xdg = System.getenv("XDG_CACHE_HOME");
+		return new File(xdg!=null && !"".equals(xdg) ? new File(xdg) : new File(System.getProperty("user.home"), ".cache"), "dotify");
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.print.PrintException;
+
+import org.daisy.dotify.api.embosser.Device;
+
+/**
+ * <p>Provides a device that writes each transmitted file to a folder, like
+ * {@link org.daisy.braille.utils.pef.FileDevice}, but copies the file with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ * This lets the operating system copy the data without passing it through the
+ * heap, which keeps the memory use flat for large jobs.</p>
+ *
+ * <p>The number of bytes and the time spent transmitting are recorded, so that
+ * the throughput can be reported.</p>
+ */
+class ChannelFileDevice implements Device {
+	static final int DEFAULT_CHUNK_SIZE = 8*1024*1024;
+	private final File dir;
+	private final String prefix;
+	private final String suffix;
+	private final long chunkSize;
+	private int count;
+	private long bytes;
+	private long nanos;
+
+	/**
+	 * Creates a new device with file names like the default file names of FileDevice.
+	 * @param dir the output folder
+	 */
+	ChannelFileDevice(File dir) {
+		this(dir, "job_", ".prn", DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a new device.
+	 * @param dir the output folder
+	 * @param prefix the file name prefix
+	 * @param suffix the file name suffix
+	 * @param chunkSize the maximum number of bytes to transfer in one call
+	 */
+	ChannelFileDevice(File dir, String prefix, String suffix, int chunkSize) {
+		if (!dir.isDirectory()) {
+			throw new IllegalArgumentException("Not a directory: " + dir);
+		}
+		this.dir = dir;
+		this.prefix = prefix;
+		this.suffix = suffix;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.count = 0;
+		this.bytes = 0;
+		this.nanos = 0;
+	}
+
+	@Override
+	public synchronized void transmit(File file) throws PrintException {
+		count++;
+		File target = new File(dir, prefix + count + suffix);
+		long start = System.nanoTime();
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = in.size();
+			long pos = 0;
+			while (pos<size) {
+				long n = in.transferTo(pos, Math.min(chunkSize, size-pos), out);
+				if (n<=0) {
+					throw new IOException("Unexpected end of file: " + file);
+				}
+				pos += n;
+			}
+			bytes += size;
+		} catch (IOException e) {
+			throw new PrintException(e);
+		} finally {
+			nanos += System.nanoTime()-start;
+		}
+	}
+
+	/**
+	 * Gets the total number of bytes transmitted.
+	 * @return the number of bytes
+	 */
+	synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets the total time spent transmitting, in nanoseconds.
+	 * @return the time
+	 */
+	synchronized long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * Gets a description of the amount of data transmitted and the throughput.
+	 * @return the description
+	 */
+	synchronized String getThroughput() {
+		double mb = bytes/(1024d*1024d);
+		double seconds = nanos/1e9;
+		return String.format("%.1f MB in %.2f s (%.1f MB/s)", mb, seconds, seconds>0?mb/seconds:0);
+	}
+
+}
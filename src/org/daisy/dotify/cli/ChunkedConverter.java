@@ -0,0 +1,415 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.daisy.braille.utils.pef.PEFBook;
+import org.daisy.braille.utils.pef.PEFFileMerger;
+import org.daisy.dotify.common.io.FileIO;
+import org.daisy.dotify.common.text.FilterLocale;
+import org.daisy.streamline.api.tasks.InternalTaskException;
+import org.daisy.streamline.api.validity.Validator;
+import org.daisy.streamline.api.validity.ValidatorFactoryMaker;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>Provides parallel conversion of a single large XML document into PEF.
+ * The input is split into chunks at the boundaries of a structural
+ * element (see {@link XMLChunker}), the chunks are converted in parallel and
+ * the volumes of the resulting PEF-files are merged into a single file.</p>
+ *
+ * <p>Each chunk is first converted into OBFL. Since each chunk is formatted separately,
+ * each chunk starts in a new volume. To continue the page and volume numbering
+ * across chunks, the chunks are formatted in two passes:</p>
+ * <ol>
+ * <li>The body of each chunk, without volume content, is formatted to count the
+ * pages of each sequence. From this, the page number that each chunk starts at is
+ * computed, and the number of volumes in each chunk is estimated.</li>
+ * <li>Each chunk is formatted with its initial page number, volume offset and the
+ * total number of volumes, see {@link OBFLChunk}. All chunks use the volume templates
+ * of the first chunk. If the number of volumes in a chunk
+ * differs from the estimate, the chunks that are affected are formatted again.</li>
+ * </ol>
+ * <p>The result is the same as when the whole document is formatted with a volume
+ * break at the start of each chunk, except for content that depends on other chunks,
+ * such as a table of contents for the whole document.</p>
+ */
+class ChunkedConverter {
+	private static final Logger logger = Logger.getLogger(ChunkedConverter.class.getCanonicalName());
+	private static final String PEF_MEDIA_TYPE = "application/x-pef+xml";
+	private static final String PEF_NS = "http://www.daisy.org/ns/2008/pef";
+	private static final int MAX_FORMATTING_ROUNDS = 3;
+	private final int chunks;
+	private final int threads;
+	private final String splitElement;
+
+	/**
+	 * Creates a new chunked converter.
+	 * @param chunks the maximum number of chunks
+	 * @param threads the number of threads
+	 * @param splitElement the local name of the element to split at
+	 */
+	ChunkedConverter(int chunks, int threads, String splitElement) {
+		this.chunks = chunks;
+		this.threads = threads;
+		this.splitElement = splitElement;
+	}
+
+	/**
+	 * Converts the input. If the input cannot be split, it is converted in one piece.
+	 * @param input the input file
+	 * @param output the output file
+	 * @param context the language/region context
+	 * @param params additional parameters
+	 * @throws IOException if there is an i/o error
+	 * @throws InternalTaskException if there is a problem with running the task system
+	 */
+	void run(File input, File output, FilterLocale context, Map<String, String> params) throws IOException, InternalTaskException {
+		File tmp = FileIO.createTempDir();
+		try {
+			String ext = input.getName().substring(input.getName().lastIndexOf('.')+1);
+			List<File> parts;
+			try {
+				parts = new XMLChunker(splitElement).split(input, chunks, i->new File(tmp, String.format("chunk-%03d.%s", i+1, ext)));
+			} catch (IOException e) {
+				logger.warning("Cannot split " + input + ", converting as a whole: " + e.getMessage());
+				parts = new ArrayList<>();
+			}
+			if (parts.isEmpty()) {
+				logger.info("Less than two '" + splitElement + "' elements found, converting as a whole.");
+				Convert.run(input, output, context, params);
+				return;
+			}
+			logger.info("Converting " + parts.size() + " chunks using " + Math.min(threads, parts.size()) + " threads.");
+			AtomicInteger threadIndex = new AtomicInteger(1);
+			ExecutorService es = Executors.newFixedThreadPool(Math.min(threads, parts.size()), r->{
+				Thread t = new Thread(r, "dotify-chunk-" + threadIndex.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			});
+			try {
+				List<File> results = convertParts(es, parts, tmp, context, params);
+				reconcile(results);
+				merge(results, output);
+			} finally {
+				es.shutdownNow();
+			}
+		} finally {
+			FileIO.deleteRecursive(tmp);
+		}
+	}
+
+	private List<File> convertParts(ExecutorService es, List<File> parts, File tmp, FilterLocale context, Map<String, String> params) throws IOException, InternalTaskException {
+		ThreadLocal<TaskSystemCache> caches = ThreadLocal.withInitial(TaskSystemCache::new);
+		Map<String, String> toObfl = new HashMap<>(params);
+		toObfl.put(SystemKeys.OUTPUT_FORMAT.getKey(), SystemKeys.OBFL_FORMAT.getKey());
+		Map<String, String> toPef = new HashMap<>(params);
+		toPef.put(SystemKeys.OUTPUT_FORMAT.getKey(), SystemKeys.PEF_FORMAT.getKey());
+		int n = parts.size();
+		List<File> obfl = new ArrayList<>();
+		List<File> layouts = new ArrayList<>();
+		List<File> results = new ArrayList<>();
+		for (File part : parts) {
+			obfl.add(new File(tmp, part.getName() + ".obfl"));
+			layouts.add(new File(tmp, part.getName() + ".layout.pef"));
+			results.add(new File(tmp, part.getName() + ".pef"));
+		}
+		invokeAll(es, n, i->Convert.run(parts.get(i), obfl.get(i), context, new HashMap<>(toObfl), caches.get()));
+		List<OBFLChunk> docs = new ArrayList<>();
+		for (int i=0; i<n; i++) {
+			docs.add(OBFLChunk.load(obfl.get(i)));
+			if (docs.get(i).hasVolumeTransition()) {
+				logger.warning("Chunk " + (i+1) + " has a volume transition, page numbers may not be continued correctly.");
+			}
+		}
+
+		// format the body of each chunk to count its pages
+		invokeAll(es, n, i->{
+			File f = new File(tmp, parts.get(i).getName() + ".layout.obfl");
+			docs.get(i).writeLayout(f);
+			Convert.run(f, layouts.get(i), context, new HashMap<>(toPef), caches.get());
+		});
+		List<Layout> counted = new ArrayList<>();
+		int[] volumes = new int[n];
+		for (int i=0; i<n; i++) {
+			counted.add(Layout.read(layouts.get(i)));
+			volumes[i] = counted.get(i).estimateVolumes(docs.get(i).getSheetsInVolumeMax());
+		}
+		Integer[] initial = initialPageNumbers(docs, counted);
+
+		// format each chunk with continued numbering, again if the number of volumes changes
+		String[] formatted = new String[n];
+		for (int round=1; ; round++) {
+			int[] offsets = new int[n];
+			int total = 0;
+			for (int i=0; i<n; i++) {
+				offsets[i] = total;
+				total += volumes[i];
+			}
+			List<Integer> changed = new ArrayList<>();
+			String[] planned = new String[n];
+			for (int i=0; i<n; i++) {
+				planned[i] = initial[i] + "/" + offsets[i] + "/" + total;
+				if (!planned[i].equals(formatted[i])) {
+					changed.add(i);
+				}
+			}
+			final int t = total;
+			invokeAll(es, changed.size(), j->{
+				int i = changed.get(j);
+				File f = new File(tmp, parts.get(i).getName() + ".final.obfl");
+				docs.get(i).write(f, initial[i], offsets[i], t, docs.get(0));
+				Convert.run(f, results.get(i), context, new HashMap<>(toPef), caches.get());
+			});
+			for (int i : changed) {
+				formatted[i] = planned[i];
+			}
+			boolean done = true;
+			for (int i=0; i<n; i++) {
+				int actual = Layout.read(results.get(i)).getVolumes();
+				if (actual!=volumes[i]) {
+					logger.fine(String.format("Chunk %d has %d volumes, expected %d.", i+1, actual, volumes[i]));
+					volumes[i] = actual;
+					done = false;
+				}
+			}
+			if (done) {
+				break;
+			} else if (round==MAX_FORMATTING_ROUNDS) {
+				logger.warning("The number of volumes did not settle, volume numbers may be incorrect.");
+				break;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Computes the initial page number of the first sequence in each chunk. The first sequence
+	 * continues the page numbering of the previous chunk if it has the same layout master as the
+	 * last sequence of the previous chunk, or if it doesn't have an initial page number.
+	 * @param docs the chunks
+	 * @param counted the body pages of the chunks
+	 * @return the initial page number of each chunk, or null if it should not be changed
+	 */
+	static Integer[] initialPageNumbers(List<OBFLChunk> docs, List<Layout> counted) {
+		Integer[] ret = new Integer[docs.size()];
+		int offset = 0;
+		String lastMaster = null;
+		for (int i=0; i<docs.size(); i++) {
+			OBFLChunk doc = docs.get(i);
+			if (doc.getSequenceCount()==0) {
+				continue;
+			}
+			Integer first = doc.getInitialPageNumber(0);
+			if (i>0 && (first==null || doc.getMaster(0).equals(lastMaster))) {
+				first = offset+1;
+				ret[i] = first;
+			}
+			offset = counted.get(i).getPageOffset(doc, first, offset);
+			lastMaster = doc.getMaster(doc.getSequenceCount()-1);
+		}
+		return ret;
+	}
+
+	/**
+	 * Provides the number of pages in each section of a PEF-file.
+	 */
+	static class Layout {
+		private final List<Integer> pages = new ArrayList<>();
+		private final List<Boolean> duplex = new ArrayList<>();
+		private final List<Integer> sheets = new ArrayList<>();
+
+		/**
+		 * Reads the layout of a PEF-file.
+		 * @param f the file
+		 * @return the layout
+		 * @throws IOException if the file cannot be read
+		 */
+		static Layout read(File f) throws IOException {
+			Layout ret = new Layout();
+			XMLInputFactory inFactory = XMLInputFactory.newInstance();
+			inFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			try (InputStream is = new FileInputStream(f)) {
+				XMLStreamReader reader = inFactory.createXMLStreamReader(is);
+				boolean volumeDuplex = false;
+				while (reader.hasNext()) {
+					if (reader.next()==XMLStreamConstants.START_ELEMENT && PEF_NS.equals(reader.getNamespaceURI())) {
+						String name = reader.getLocalName();
+						if ("volume".equals(name)) {
+							volumeDuplex = "true".equals(reader.getAttributeValue(null, "duplex"));
+							ret.sheets.add(0);
+						} else if ("section".equals(name)) {
+							String d = reader.getAttributeValue(null, "duplex");
+							ret.duplex.add(d!=null ? "true".equals(d) : volumeDuplex);
+							ret.pages.add(0);
+						} else if ("page".equals(name) && !ret.pages.isEmpty()) {
+							int i = ret.pages.size()-1;
+							ret.pages.set(i, ret.pages.get(i)+1);
+							if (!ret.duplex.get(i) || ret.pages.get(i)%2==1) {
+								ret.sheets.set(ret.sheets.size()-1, ret.sheets.get(ret.sheets.size()-1)+1);
+							}
+						}
+					}
+				}
+				reader.close();
+			} catch (XMLStreamException e) {
+				throw new IOException("Failed to read " + f, e);
+			}
+			return ret;
+		}
+
+		/**
+		 * Gets the number of volumes.
+		 * @return the number of volumes
+		 */
+		int getVolumes() {
+			return sheets.size();
+		}
+
+		/**
+		 * Estimates the number of volumes needed for the sheets of each volume in this layout.
+		 * @param sheetsInVolumeMax the maximum number of sheets in a volume
+		 * @return the estimated number of volumes
+		 */
+		int estimateVolumes(int sheetsInVolumeMax) {
+			int ret = 0;
+			for (int s : sheets) {
+				ret += Math.max(1, (s+sheetsInVolumeMax-1)/sheetsInVolumeMax);
+			}
+			return ret;
+		}
+
+		/**
+		 * Computes the page offset after the sequences of a chunk, in the same way as the formatter does, that
+		 * is, the page number of the last page, where the number of pages in each sequence is rounded up to an
+		 * even number if duplex.
+		 * @param doc the chunk, where each sequence corresponds to a section of this layout
+		 * @param first the initial page number of the first sequence, or null
+		 * @param offset the page offset before the chunk
+		 * @return the page offset after the chunk
+		 */
+		int getPageOffset(OBFLChunk doc, Integer first, int offset) {
+			if (pages.size()!=doc.getSequenceCount()) {
+				logger.warning("The number of sections doesn't match the number of sequences, page numbers may not be continued correctly.");
+				offset = first!=null ? first-1 : offset;
+				for (int i=0; i<pages.size(); i++) {
+					offset += size(i);
+				}
+				return offset;
+			}
+			for (int i=0; i<pages.size(); i++) {
+				if (doc.hasPageNumberCounter(i)) {
+					continue;
+				}
+				Integer initial = i==0 ? first : doc.getInitialPageNumber(i);
+				offset = (initial!=null ? initial-1 : offset) + size(i);
+			}
+			return offset;
+		}
+
+		private int size(int i) {
+			return pages.get(i) + (duplex.get(i) && pages.get(i)%2==1 ? 1 : 0);
+		}
+	}
+
+	@FunctionalInterface
+	private interface ChunkTask {
+		void run(int index) throws IOException, InternalTaskException;
+	}
+
+	private static void invokeAll(ExecutorService es, int count, ChunkTask task) throws IOException, InternalTaskException {
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i=0; i<count; i++) {
+			int index = i;
+			futures.add(es.submit(()->{
+				task.run(index);
+				return null;
+			}));
+		}
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while converting chunks", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof InternalTaskException) {
+					throw (InternalTaskException)cause;
+				} else if (cause instanceof IOException) {
+					throw (IOException)cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException)cause;
+				}
+				throw new RuntimeException(cause);
+			}
+		}
+	}
+
+	/**
+	 * Verifies that the chunks can be merged and reports the volume and page offset of each chunk.
+	 * @param results the converted chunks
+	 * @throws IOException if a chunk cannot be read or if the chunks are not compatible
+	 */
+	private void reconcile(List<File> results) throws IOException {
+		PEFBook first = null;
+		int volumes = 0;
+		int pages = 0;
+		for (int i=0; i<results.size(); i++) {
+			PEFBook book;
+			try {
+				book = PEFBook.load(results.get(i).toURI());
+			} catch (XPathExpressionException | ParserConfigurationException | SAXException e) {
+				throw new IOException("Failed to read chunk " + (i+1), e);
+			}
+			if (first==null) {
+				first = book;
+			} else if (book.getMaxWidth()!=first.getMaxWidth() || book.getMaxHeight()!=first.getMaxHeight()) {
+				throw new IOException(String.format("Chunk %d has dimensions %dx%d, expected %dx%d",
+						i+1, book.getMaxWidth(), book.getMaxHeight(), first.getMaxWidth(), first.getMaxHeight()));
+			}
+			logger.info(String.format("Chunk %d: volumes %d-%d, pages %d-%d", i+1, volumes+1, volumes+book.getVolumes(), pages+1, pages+book.getPages()));
+			volumes += book.getVolumes();
+			pages += book.getPages();
+		}
+		logger.info("Result has " + volumes + " volumes and " + pages + " pages.");
+	}
+
+	private void merge(List<File> results, File output) throws IOException {
+		String identifier;
+		try {
+			identifier = PEFBook.load(results.get(0).toURI()).getMetadata("identifier").iterator().next();
+		} catch (XPathExpressionException | ParserConfigurationException | SAXException | RuntimeException e) {
+			identifier = output.getName();
+		}
+		Validator validator = ValidatorFactoryMaker.newInstance().newValidator(PEF_MEDIA_TYPE);
+		PEFFileMerger merger = new PEFFileMerger(url->validator==null || validator.validate(url).isValid());
+		try (OutputStream os = new FileOutputStream(output)) {
+			if (!merger.merge(results.toArray(new File[results.size()]), os, identifier)) {
+				throw new IOException("Failed to merge chunks into " + output);
+			}
+		}
+	}
+
+}
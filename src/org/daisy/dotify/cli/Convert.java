@@ -79,6 +79,14 @@ public class Convert implements CommandDetails {
 	private static final String CONFIG_KEY = "configs";
 	private static final String WATCH_KEY = "watch";
 	private static final String META_KEY = "meta";
+	private static final String THREADS_KEY = "threads";
+	private static final String CHUNKS_KEY = "chunks";
+	private static final String CHUNK_ELEMENT_KEY = "chunkElement";
+	private static final String DEFAULT_CHUNK_ELEMENT = "level1";
+	private static final String VALIDATION_KEY = "validation";
+	private static final String VALIDATION_SAMPLE_KEY = "validationSample";
+	private static final String MAX_CPU_TIME_KEY = "maxCpuTime";
+	private static final String MAX_ALLOCATION_KEY = "maxAllocation";
 	
 	private static final int DEFAULT_POLL_TIME = 5000;
 	private static final int MIN_POLL_TIME = 250;
@@ -88,6 +96,10 @@ public class Convert implements CommandDetails {
 	private final SwitchMap switches;
 	private final BrailleUtilsInfo brailleInfo;
 	private final CommandParser parser;
+	private ChunkedConverter chunked;
+	private ValidationPolicy validation;
+	// the expanded table identifier used for writing brl, or null
+	private String brlTable;
 
 	public Convert() {
 		this.brailleInfo = new BrailleUtilsInfo();
@@ -100,6 +112,7 @@ public class Convert implements CommandDetails {
 				.addSwitch(new SwitchArgument('c', CONFIG_KEY, META_KEY, CONFIG_KEY, "Lists known configurations."))
 				.build();
 		this.parser = CommandParser.create(this);
+		this.validation = ValidationPolicy.parse(null, null);
 	}
 
 	/**
@@ -158,11 +171,35 @@ public class Convert implements CommandDetails {
 		//props.put(SystemKeys.TEMP_FILES_DIRECTORY.getKey(), TEMP_DIR);
 
 		props.putAll(result.getOptional());
+		String threadsStr = props.remove(THREADS_KEY);
+		int chunks = OptionValues.parsePositiveInt(CHUNKS_KEY, props.remove(CHUNKS_KEY), 1);
+		String chunkElement = props.remove(CHUNK_ELEMENT_KEY);
+		int maxCpuTime = OptionValues.parsePositiveInt(MAX_CPU_TIME_KEY, props.remove(MAX_CPU_TIME_KEY), 0);
+		int maxAllocation = OptionValues.parsePositiveInt(MAX_ALLOCATION_KEY, props.remove(MAX_ALLOCATION_KEY), 0);
+		try {
+			m.validation = ValidationPolicy.parse(props.remove(VALIDATION_KEY), props.remove(VALIDATION_SAMPLE_KEY));
+		} catch (IllegalArgumentException e) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+		}
+		if (props.containsKey(PEFConverterFacade.KEY_TABLE)) {
+			// expand the table once, since brl is written on the validation threads in async mode
+			HashMap<String, String> t = new HashMap<String, String>();
+			t.put(PEFConverterFacade.KEY_TABLE, props.get(PEFConverterFacade.KEY_TABLE));
+			try {
+				m.brailleInfo.getShortFormResolver().expandShortForm(t, PEFConverterFacade.KEY_TABLE);
+			} catch (IllegalArgumentException e) {
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+			}
+			m.brlTable = t.get(PEFConverterFacade.KEY_TABLE);
+		}
 		
 		if (input.isDirectory() && output.isDirectory()) {
 			if (result.getOptional().get(WATCH_KEY)!=null) {
 				logger.warning("'" + WATCH_KEY + "' is not implemented for batch mode.");
 			}
+			if (chunks>1) {
+				logger.warning("'" + CHUNKS_KEY + "' is not implemented for batch mode.");
+			}
 			if ("true".equals(props.get(SystemKeys.WRITE_TEMP_FILES.getKey()))) {
 				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Cannot write debug files in batch mode.");
 			}
@@ -178,30 +215,48 @@ public class Convert implements CommandDetails {
 			} else {
 				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Unknown output format.");
 			}
-			//Experimental parallelization code in comment.
-			//ExecutorService es = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 			final String ext = format;
+			int threads = OptionValues.parsePositiveInt(THREADS_KEY, threadsStr, 1);
+			if (threads>1 && !TranslatorGuard.isThreadSafe(BrailleTranslatorFactoryMaker.newInstance(), context)) {
+				logger.warning("The braille translators for " + context + " cannot be used by several threads at the same time. Using one thread.");
+				threads = 1;
+			}
+			ResourceMonitor monitor = new ResourceMonitor(maxCpuTime*1000000000L, maxAllocation*1024L*1024L);
+			BatchConverter batch = new BatchConverter(threads, monitor, (job, cache)->
+				m.runDotify(job.getInput(), job.getOutput(), job.getLocale(), job.getParams(), cache)
+			);
 			for (final File f : input.listFiles()) {
-				//es.execute(new Runnable() {
-					//public void run() {
-						try {
-					m.runDotify(f, new File(output, f.getName() + "." + ext), context, props);
-						} catch (InternalTaskException e) {
-							logger.log(Level.WARNING, "Failed to process " + f, e);
-						} catch (IOException e) {
-							logger.log(Level.WARNING, "Failed to read " + f, e);
-						}
-					//}});
+				batch.add(new BatchJob(f, new File(output, f.getName() + "." + ext), context, props));
 			}
-			//es.shutdown();
-			//try {
-			//	es.awaitTermination(600, TimeUnit.SECONDS);
-			//} catch (InterruptedException e) {
-			//	e.printStackTrace();
-			//}
+			BatchSummary summary = batch.run();
+			m.validation.await();
+			summary.setValidationPolicy(m.validation);
+			summary.print(System.out);
 		} else if (input.isDirectory()) { 
 			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("If input is a directory, output must be an existing directory too.");
 		} else {
+			if (maxCpuTime>0 || maxAllocation>0) {
+				logger.warning("'" + MAX_CPU_TIME_KEY + "' and '" + MAX_ALLOCATION_KEY + "' are only implemented for batch mode.");
+			}
+			if (chunks>1) {
+				String format = props.get(SystemKeys.OUTPUT_FORMAT.getKey());
+				boolean isPefOutput;
+				if (format==null || "".equals(format)) {
+					isPefOutput = output.getName().toLowerCase().endsWith(".pef");
+				} else {
+					isPefOutput = format.equals(SystemKeys.PEF_FORMAT.getKey());
+				}
+				if (!isPefOutput) {
+					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("'" + CHUNKS_KEY + "' requires PEF output.");
+				}
+				int threads = OptionValues.parsePositiveInt(THREADS_KEY, threadsStr, chunks);
+				if (threads>1 && !TranslatorGuard.isThreadSafe(BrailleTranslatorFactoryMaker.newInstance(), context)) {
+					logger.warning("The braille translators for " + context + " cannot be used by several threads at the same time. Using one thread.");
+					threads = 1;
+				}
+				m.chunked = new ChunkedConverter(chunks, threads,
+						chunkElement==null || "".equals(chunkElement) ? DEFAULT_CHUNK_ELEMENT : chunkElement);
+			}
 			String pollWaitStr = result.getOptional().get(WATCH_KEY);
 			if (pollWaitStr!=null) {
 				int pollWait = DEFAULT_POLL_TIME;
@@ -212,13 +267,15 @@ public class Convert implements CommandDetails {
 				}
 				logger.fine("Poll time is " + pollWait);
 				long modified = 0;
+				TaskSystemCache cache = new TaskSystemCache();
 				while (input.exists()) {
 					if (modified<input.lastModified()) {
 						modified = input.lastModified();
 						try {
 							//delete the output so that it is not there if something goes wrong
 							output.delete();
-							m.runDotify(input, output, context, props);
+							m.runDotify(input, output, context, props, cache);
+							m.validation.await();
 						} catch (Exception e) { 
 							logger.log(Level.SEVERE, "A severe error occurred.", e);
 						}
@@ -230,53 +287,60 @@ public class Convert implements CommandDetails {
 					}
 				}
 			} else {
-				m.runDotify(input, output, context, props);
+				m.runDotify(input, output, context, props, new TaskSystemCache());
+				m.validation.await();
 			}
 		}
 	}
 	
-	private void runDotify(File input, File output, String context, HashMap<String, String> props) throws InternalTaskException, IOException {
+	private void runDotify(File input, File output, String context, HashMap<String, String> props, TaskSystemCache cache) throws InternalTaskException, IOException {
 		if (!input.exists()) {
 			ExitCode.MISSING_RESOURCE.exitSystem("Cannot find input file: " + input);
 		}
-		run(input, output, FilterLocale.parse(context), props);
+		if (chunked!=null) {
+			chunked.run(input, output, FilterLocale.parse(context), props);
+		} else {
+			run(input, output, FilterLocale.parse(context), props, cache);
+		}
 		if (output.exists()) {
 			AnnotatedFile ao = IdentityProvider.newInstance().identify(output);
 			String mediaType = ao.getMediaType();
 			ValidatorFactoryMaker validatorFactory = ValidatorFactoryMaker.newInstance();
-			Validator validator;
-			if (mediaType!=null && (validator = validatorFactory.newValidator(mediaType))!=null) {
-				logger.info(String.format("Validating output using %s", validator.getClass().getName()));
-				if (!validator.validate(output.toURI().toURL()).isValid()) {
-					logger.warning("Validation failed: " + output);
-				} else {
-					logger.info("Output is valid.");
-					if (mediaType.equals("application/x-pef+xml") && props.containsKey(PEFConverterFacade.KEY_TABLE)) {
-						// create brl
-						HashMap<String, String> p = new HashMap<String, String>();
-						p.put(PEFConverterFacade.KEY_TABLE, props.get(PEFConverterFacade.KEY_TABLE));
-						try {
-							brailleInfo.getShortFormResolver().expandShortForm(p, PEFConverterFacade.KEY_TABLE);
-						} catch (IllegalArgumentException e) {
-							ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
-						}
-						File f = new File(output.getParentFile(), output.getName() + ".brl");
-						logger.info("Writing brl to " + f.getAbsolutePath());
-						try (FileOutputStream os = new FileOutputStream(f)) {
-							new PEFConverterFacade(EmbosserCatalog.newInstance()).parsePefFile(output, os, null, p);
-						} catch (ParserConfigurationException e) {
-							logger.log(Level.FINE, "Parse error when converting to brl", e);
-						} catch (SAXException e) {
-							logger.log(Level.FINE, "SAX error when converting to brl", e);
-						} catch (UnsupportedWidthException e) {
-							logger.log(Level.FINE, "Width error when converting to brl", e);
-						} catch (NumberFormatException e) {
-							logger.log(Level.FINE, "Number format error when converting to brl", e);
-						} catch (EmbosserFactoryException e) {
-							logger.log(Level.FINE, "Embosser error when converting to brl", e);
-						}
+			Validator validator = mediaType!=null?validatorFactory.newValidator(mediaType):null;
+			if (validator!=null) {
+				validation.validate(output, ()->{
+					logger.info(String.format("Validating output using %s", validator.getClass().getName()));
+					boolean valid = validator.validate(output.toURI().toURL()).isValid();
+					if (valid) {
+						logger.info("Output is valid.");
 					}
-				}
+					return valid;
+				}, ()->writeBrl(output, mediaType));
+			}
+		}
+	}
+
+	private void writeBrl(File output, String mediaType) {
+		if (mediaType.equals("application/x-pef+xml") && brlTable!=null) {
+			// create brl
+			HashMap<String, String> p = new HashMap<String, String>();
+			p.put(PEFConverterFacade.KEY_TABLE, brlTable);
+			File f = new File(output.getParentFile(), output.getName() + ".brl");
+			logger.info("Writing brl to " + f.getAbsolutePath());
+			try (FileOutputStream os = new FileOutputStream(f)) {
+				new PEFConverterFacade(EmbosserCatalog.newInstance()).parsePefFile(output, os, null, p);
+			} catch (ParserConfigurationException e) {
+				logger.log(Level.FINE, "Parse error when converting to brl", e);
+			} catch (SAXException e) {
+				logger.log(Level.FINE, "SAX error when converting to brl", e);
+			} catch (UnsupportedWidthException e) {
+				logger.log(Level.FINE, "Width error when converting to brl", e);
+			} catch (NumberFormatException e) {
+				logger.log(Level.FINE, "Number format error when converting to brl", e);
+			} catch (EmbosserFactoryException e) {
+				logger.log(Level.FINE, "Embosser error when converting to brl", e);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Failed to write brl to " + f, e);
 			}
 		}
 	}
@@ -337,6 +401,20 @@ public class Convert implements CommandDetails {
 				optionalArgs.add(new OptionalArgument(SystemKeys.WRITE_TEMP_FILES.getKey(), "Writes temp files", vals, "false"));
 			}
 			optionalArgs.add(new OptionalArgument(SystemKeys.TEMP_FILES_DIRECTORY.getKey(), "Path to temp files directory", DefaultTempFileWriter.TEMP_DIR));
+			optionalArgs.add(new OptionalArgument(THREADS_KEY, "Number of worker threads to use in batch mode. Documents with the same locale, preset and formats are processed by the same worker. Locales translated with liblouis, such as en-US, always use one thread.", "1"));
+			optionalArgs.add(new OptionalArgument(CHUNKS_KEY, "Splits a large input document into at most this number of chunks and formats them in parallel. Each chunk starts a new volume. Requires XML input and PEF output.", "1"));
+			optionalArgs.add(new OptionalArgument(CHUNK_ELEMENT_KEY, "The local name of the element to split at when using " + CHUNKS_KEY, DEFAULT_CHUNK_ELEMENT));
+			{
+				ArrayList<Definition> vals = new ArrayList<Definition>();
+				vals.add(new Definition("full", "validates every output before continuing"));
+				vals.add(new Definition("async", "validates every output in the background and reports the result afterwards"));
+				vals.add(new Definition("sampled", "validates a sample of the outputs, see " + VALIDATION_SAMPLE_KEY));
+				vals.add(new Definition("off", "does not validate the output"));
+				optionalArgs.add(new OptionalArgument(VALIDATION_KEY, "Output validation policy", vals, "full"));
+			}
+			optionalArgs.add(new OptionalArgument(VALIDATION_SAMPLE_KEY, "The sample to validate when the validation policy is sampled, either every n:th file (for example 10) or a random percentage of the files (for example 25%)", "10"));
+			optionalArgs.add(new OptionalArgument(MAX_CPU_TIME_KEY, "The maximum CPU time, in seconds, for converting a single document in batch mode. Documents exceeding the limit run to completion, but are reported as failed and their output is removed.", "[unlimited]"));
+			optionalArgs.add(new OptionalArgument(MAX_ALLOCATION_KEY, "The maximum number of megabytes allocated when converting a single document in batch mode. Documents exceeding the limit run to completion, but are reported as failed and their output is removed.", "[unlimited]"));
 			optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_TABLE, "If specified, an ASCII-braille file (.brl) is generated in addition to the PEF-file using the specified braille code table", brailleInfo.getDefinitionList(), ""));
 		}
 		return optionalArgs;
@@ -370,6 +448,20 @@ public class Convert implements CommandDetails {
 	 * @throws InternalTaskException if there is a problem with running the task system
 	 */
 	public static void run(File inputFile, File output, FilterLocale context, Map<String, String> params) throws IOException, InternalTaskException {
+		run(inputFile, output, context, params, new TaskSystemCache());
+	}
+
+	/**
+	 * Runs Dotify with the supplied parameters, reusing task systems from the supplied cache.
+	 * @param inputFile the input file
+	 * @param output the output file
+	 * @param context the language/region context
+	 * @param params additional parameters
+	 * @param cache the task system cache
+	 * @throws IOException if there is an i/o error
+	 * @throws InternalTaskException if there is a problem with running the task system
+	 */
+	static void run(File inputFile, File output, FilterLocale context, Map<String, String> params, TaskSystemCache cache) throws IOException, InternalTaskException {
 		boolean writeTempFiles = "true".equals(params.get(SystemKeys.WRITE_TEMP_FILES.getKey()));
 		boolean keepTempFilesOnSuccess = !("false".equals(params.get(SystemKeys.KEEP_TEMP_FILES_ON_SUCCESS.getKey())));
 		
@@ -378,7 +470,7 @@ public class Convert implements CommandDetails {
 			params.remove("cols");
 		}
 		
-		TaskSystemFactoryMaker specs = TaskSystemFactoryMaker.newInstance();
+		TaskSystemFactoryMaker specs = cache.getFactoryMaker();
 
 		HashMap<String, String> map = new HashMap<String, String>();
 		map.putAll(params);
@@ -457,7 +549,7 @@ public class Convert implements CommandDetails {
 		boolean shouldPrintOptions = "true".equalsIgnoreCase(map.getOrDefault(SystemKeys.LIST_OPTIONS.getKey(), "false"));
 		// Run tasks
 		try {
-			TaskSystem ts = TaskSystemFactoryMaker.newInstance().newTaskSystem(inputFormat, outputformat, context.toString());
+			TaskSystem ts = cache.get(inputFormat, outputformat, context.toString());
 			try {
 				logger.info("About to run with parameters " + rp);
 				CompiledTaskSystem tl = ts.compile(rp);
@@ -30,6 +30,7 @@ import org.daisy.streamline.cli.SwitchMap;
  */
 public class DotifyCLI implements CommandDetails {
 	public static final String EMBOSS = "emboss";
+	public static final String EMBOSS_SPOOLER = "emboss-spooler";
 	public static final String TEXT2PEF = "text2pef";
 	public static final String PEF2TEXT = "pef2text";
 	public static final String VALIDATE = "validate";
@@ -44,6 +45,8 @@ public class DotifyCLI implements CommandDetails {
 	public static final String INSPECT = "inspect";
 	public static final String CONVERT = "convert";
 	public static final String TRANSLATE = "translate";
+	public static final String TRANSLATE_SERVER = "translate-server";
+	public static final String TRANSLATE_BENCH = "translate-bench";
 	
 	protected static final String META_KEY = "meta";
 	private static final String VERSION_KEY = "version";
@@ -69,6 +72,7 @@ public class DotifyCLI implements CommandDetails {
 		// Main commands
 		putCommand(CONVERT, "formats and translates a document into braille", Convert.class);
 		putCommand(EMBOSS, "embosses a PEF-file", EmbossPEF.class);
+		putCommand(EMBOSS_SPOOLER, "embosses PEF-files from a persistent queue", EmbossSpooler.class);
 		putCommand(VALIDATE, "validates a file", ValidateCLI.class);
 		putCommand(INSPECT, "lists metadata about a PEF-file", PEFInfo.class);
 		putCommand(FIND, "finds PEF-files based on file metadata", FindPEF.class);
@@ -81,6 +85,8 @@ public class DotifyCLI implements CommandDetails {
 
 		//Interactive commands
 		putCommand(TRANSLATE, "translates text on system in to braille on system out", TranslateCLI.class);
+		putCommand(TRANSLATE_SERVER, "provides braille translation as an HTTP service", TranslationServer.class);
+		putCommand(TRANSLATE_BENCH, "compares translations with reference braille and measures the throughput", TranslateBench.class);
 		commands.put("eval", EvaluateCLI.class);
 
 		//Diagnostics commands
@@ -0,0 +1,102 @@
+package org.daisy.dotify.cli;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.daisy.dotify.api.embosser.Embosser;
+import org.daisy.dotify.api.embosser.EmbosserCatalog;
+import org.daisy.dotify.api.factory.FactoryProperties;
+import org.daisy.dotify.api.paper.PaperCatalog;
+import org.daisy.dotify.api.table.TableCatalog;
+
+/**
+ * Provides the embosser, table and paper catalogs used when embossing. The
+ * catalogs are created once and the filtered lists for an embosser are
+ * remembered, so that they aren't looked up again for every job.
+ */
+class EmbossCatalogs {
+	private static EmbossCatalogs instance;
+	private EmbosserCatalog embossers;
+	private TableCatalog tables;
+	private PaperCatalog papers;
+	private List<FactoryProperties> embosserList;
+	private final Map<String, List<FactoryProperties>> tableLists;
+	private final Map<String, List<FactoryProperties>> paperLists;
+
+	private EmbossCatalogs() {
+		this.tableLists = new HashMap<>();
+		this.paperLists = new HashMap<>();
+	}
+
+	/**
+	 * Gets the shared instance.
+	 * @return the instance
+	 */
+	static synchronized EmbossCatalogs getInstance() {
+		if (instance==null) {
+			instance = new EmbossCatalogs();
+		}
+		return instance;
+	}
+
+	synchronized EmbosserCatalog getEmbosserCatalog() {
+		if (embossers==null) {
+			embossers = EmbosserCatalog.newInstance();
+		}
+		return embossers;
+	}
+
+	synchronized TableCatalog getTableCatalog() {
+		if (tables==null) {
+			tables = TableCatalog.newInstance();
+		}
+		return tables;
+	}
+
+	synchronized PaperCatalog getPaperCatalog() {
+		if (papers==null) {
+			papers = PaperCatalog.newInstance();
+		}
+		return papers;
+	}
+
+	/**
+	 * Lists the embossers, sorted for display.
+	 * @return the embossers
+	 */
+	synchronized List<FactoryProperties> listEmbossers() {
+		if (embosserList==null) {
+			List<FactoryProperties> sorted = new ArrayList<>(getEmbosserCatalog().listEmbossers());
+			Collections.sort(sorted, FactoryProperties.newComparatorBuilder().build());
+			embosserList = Collections.unmodifiableList(sorted);
+		}
+		return embosserList;
+	}
+
+	/**
+	 * Lists the tables supported by an embosser.
+	 * @param emb the embosser
+	 * @return the tables
+	 */
+	synchronized List<FactoryProperties> listTables(Embosser emb) {
+		return tableLists.computeIfAbsent(emb.getIdentifier(),
+				k -> Collections.unmodifiableList(new ArrayList<>(getTableCatalog().list(emb.getTableFilter()))));
+	}
+
+	/**
+	 * Lists the papers supported by an embosser in the default orientation, sorted for display.
+	 * @param emb the embosser
+	 * @return the papers
+	 */
+	synchronized List<FactoryProperties> listPapers(Embosser emb) {
+		return paperLists.computeIfAbsent(emb.getIdentifier(), k -> {
+			List<FactoryProperties> sorted = new ArrayList<>(getPaperCatalog().list(p -> emb.supportsPaper(p)));
+			Collections.sort(sorted, FactoryProperties.newComparatorBuilder().build());
+			return Collections.unmodifiableList(sorted);
+		});
+	}
+
+}
@@ -0,0 +1,234 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.daisy.dotify.api.embosser.Device;
+import org.daisy.dotify.api.embosser.Embosser;
+import org.daisy.dotify.api.embosser.EmbosserFeatures;
+import org.daisy.dotify.api.paper.Length;
+import org.daisy.dotify.api.paper.PageFormat;
+import org.daisy.dotify.api.paper.Paper;
+import org.daisy.dotify.api.paper.RollPaperFormat;
+import org.daisy.dotify.api.paper.SheetPaperFormat;
+import org.daisy.dotify.api.paper.SheetPaperFormat.Orientation;
+import org.daisy.dotify.api.paper.TractorPaperFormat;
+
+/**
+ * <p>Provides an emboss job in a spooler queue. A job is stored as a properties
+ * file in the queue folder, and is saved every time its state changes so that
+ * the queue survives a restart of the spooler.</p>
+ *
+ * <p>A job is sent either to a named printer device or, for testing and
+ * pre-rendering, to a folder using a {@link ChannelFileDevice}.</p>
+ */
+class EmbossJob {
+	static final String SUFFIX = ".job";
+	static final String KEY_SOURCE = "source";
+	static final String KEY_DEVICE = "device";
+	static final String KEY_DIR = "dir";
+	static final String KEY_EMBOSSER = "embosser";
+	static final String KEY_TABLE = "table";
+	static final String KEY_PAPER = "paper";
+	static final String KEY_ORIENTATION = "orientation";
+	static final String KEY_CUT_LENGTH = "cutLength";
+	static final String KEY_MAGAZINE = "magazine";
+	static final String KEY_RANGE = "range";
+	static final String KEY_COPIES = "copies";
+	private static final String KEY_STATE = "state";
+	private static final String KEY_MESSAGE = "message";
+	private final File file;
+	private final Properties props;
+
+	/**
+	 * The job states.
+	 */
+	enum State {
+		QUEUED,
+		RENDERING,
+		READY,
+		TRANSMITTING,
+		DONE,
+		FAILED,
+		CANCELLED;
+
+		boolean isFinal() {
+			return this==DONE || this==FAILED || this==CANCELLED;
+		}
+	}
+
+	private EmbossJob(File file, Properties props) {
+		this.file = file;
+		this.props = props;
+	}
+
+	/**
+	 * Creates a new job in the specified folder. The job is queued and saved.
+	 * @param folder the jobs folder
+	 * @param props the job properties
+	 * @return the new job
+	 * @throws IOException if the job cannot be saved
+	 */
+	static EmbossJob create(File folder, Properties props) throws IOException {
+		File f;
+		do {
+			f = new File(folder, System.currentTimeMillis() + SUFFIX);
+		} while (!f.createNewFile());
+		EmbossJob ret = new EmbossJob(f, props);
+		ret.setState(State.QUEUED, "");
+		return ret;
+	}
+
+	/**
+	 * Loads a job.
+	 * @param f the job file
+	 * @return the job
+	 * @throws IOException if the job cannot be read
+	 */
+	static EmbossJob load(File f) throws IOException {
+		Properties props = new Properties();
+		try (InputStream is = new FileInputStream(f)) {
+			props.load(is);
+		}
+		return new EmbossJob(f, props);
+	}
+
+	String getId() {
+		return file.getName().substring(0, file.getName().length()-SUFFIX.length());
+	}
+
+	String get(String key) {
+		return props.getProperty(key);
+	}
+
+	State getState() {
+		try {
+			return State.valueOf(props.getProperty(KEY_STATE, State.QUEUED.name()));
+		} catch (IllegalArgumentException e) {
+			return State.FAILED;
+		}
+	}
+
+	String getMessage() {
+		return props.getProperty(KEY_MESSAGE, "");
+	}
+
+	/**
+	 * Sets the state of this job and saves it.
+	 * @param state the new state
+	 * @param message a message
+	 * @throws IOException if the job cannot be saved
+	 */
+	synchronized void setState(State state, String message) throws IOException {
+		props.setProperty(KEY_STATE, state.name());
+		props.setProperty(KEY_MESSAGE, message!=null?message:"");
+		// write to a temporary file first, so that readers never see a partial job
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (OutputStream os = new FileOutputStream(tmp)) {
+			props.store(os, null);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Gets a key identifying the device of this job. Jobs with the same key are
+	 * sent to the device one at a time.
+	 * @return the device key
+	 */
+	String getDeviceKey() {
+		String dir = get(KEY_DIR);
+		return dir!=null && !"".equals(dir) ? "dir:" + new File(dir).getAbsolutePath() : get(KEY_DEVICE);
+	}
+
+	/**
+	 * Creates the device for this job.
+	 * @return a new device
+	 */
+	Device newDevice() {
+		String dir = get(KEY_DIR);
+		if (dir!=null && !"".equals(dir)) {
+			return new ChannelFileDevice(new File(dir), getId() + "_", ".prn", ChannelFileDevice.DEFAULT_CHUNK_SIZE);
+		} else {
+			return PrintServiceCache.newDevice(get(KEY_DEVICE));
+		}
+	}
+
+	/**
+	 * Gets the number of copies.
+	 * @return the number of copies
+	 */
+	int getCopies() {
+		try {
+			return Math.max(1, Integer.parseInt(props.getProperty(KEY_COPIES, "1")));
+		} catch (NumberFormatException e) {
+			return 1;
+		}
+	}
+
+	/**
+	 * Creates an embosser configured for this job. If the embosser supports
+	 * copies, the number of copies is set on the embosser.
+	 * @return the embosser
+	 * @throws IllegalArgumentException if the configuration isn't supported
+	 */
+	Embosser newEmbosser() {
+		EmbossCatalogs catalogs = EmbossCatalogs.getInstance();
+		Embosser ret = catalogs.getEmbosserCatalog().get(get(KEY_EMBOSSER));
+		if (ret==null) {
+			throw new IllegalArgumentException("Unknown embosser: " + get(KEY_EMBOSSER));
+		}
+		Paper paper = catalogs.getPaperCatalog().get(get(KEY_PAPER));
+		if (paper==null) {
+			throw new IllegalArgumentException("Unknown paper: " + get(KEY_PAPER));
+		}
+		PageFormat pf;
+		switch (paper.getType()) {
+			case ROLL:
+				pf = new RollPaperFormat(paper.asRollPaper(), Length.newMillimeterValue(Double.parseDouble(get(KEY_CUT_LENGTH))));
+				break;
+			case SHEET:
+				pf = new SheetPaperFormat(paper.asSheetPaper(), "reversed".equalsIgnoreCase(get(KEY_ORIENTATION))?Orientation.REVERSED:Orientation.DEFAULT);
+				break;
+			case TRACTOR: default:
+				pf = new TractorPaperFormat(paper.asTractorPaper());
+		}
+		if (!ret.supportsPageFormat(pf)) {
+			throw new IllegalArgumentException("The paper is not supported by the embosser: " + paper.getDisplayName());
+		}
+		ret.setFeature(EmbosserFeatures.PAGE_FORMAT, pf);
+		if ("true".equals(get(KEY_MAGAZINE))) {
+			ret.setFeature(EmbosserFeatures.SADDLE_STITCH, true);
+		}
+		String table = get(KEY_TABLE);
+		if (table!=null && !"".equals(table)) {
+			ret.setFeature(EmbosserFeatures.TABLE, catalogs.getTableCatalog().get(table));
+		}
+		return ret;
+	}
+
+	/**
+	 * Sets the number of copies on the embosser, if supported.
+	 * @param embosser the embosser
+	 * @return the number of times the rendered job must be transmitted
+	 */
+	int applyCopies(Embosser embosser) {
+		int copies = getCopies();
+		if (copies>1) {
+			try {
+				embosser.setFeature(EmbosserFeatures.NUMBER_OF_COPIES, copies);
+				return 1;
+			} catch (IllegalArgumentException e) {
+				// send multiple times instead
+			}
+		}
+		return copies;
+	}
+
+}
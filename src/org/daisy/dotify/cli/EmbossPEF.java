@@ -17,17 +17,19 @@
  */
 package org.daisy.dotify.cli;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.prefs.BackingStoreException;
 
-import javax.print.PrintService;
+import javax.print.PrintException;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.daisy.dotify.api.embosser.Device;
@@ -43,17 +45,13 @@ import org.daisy.dotify.api.paper.Length;
 import org.daisy.dotify.api.paper.PageFormat;
 import org.daisy.dotify.api.paper.Paper;
 import org.daisy.dotify.api.paper.PaperCatalog;
-import org.daisy.dotify.api.paper.PaperFilter;
 import org.daisy.dotify.api.paper.RollPaperFormat;
 import org.daisy.dotify.api.paper.SheetPaperFormat;
 import org.daisy.dotify.api.paper.SheetPaperFormat.Orientation;
 import org.daisy.dotify.api.paper.TractorPaperFormat;
 import org.daisy.dotify.api.table.Table;
 import org.daisy.dotify.api.table.TableCatalog;
-import org.daisy.braille.utils.pef.FileDevice;
-import org.daisy.braille.utils.pef.PEFConverterFacade;
 import org.daisy.braille.utils.pef.PEFHandler;
-import org.daisy.braille.utils.pef.PrinterDevice;
 import org.daisy.braille.utils.pef.Range;
 import org.daisy.braille.utils.pef.UnsupportedWidthException;
 import org.daisy.streamline.cli.Argument;
@@ -86,6 +84,14 @@ class EmbossPEF implements CommandDetails {
 	public static final String KEY_RANGE = "range";
 	public static final String KEY_COPIES = "copies";
 	public static final String KEY_DIR = "dir";
+	public static final String KEY_VOLUMES = "volumes";
+	public static final String KEY_THREADS = "threads";
+	public static final String KEY_CHUNK_SIZE = "chunkSize";
+	public static final String KEY_DEVICES = "devices";
+	public static final String KEY_REPORT = "report";
+	public static final String KEY_SPEED = "speed";
+	public static final String KEY_SPEED_PROFILE = "speedProfile";
+	public static final String KEY_ESTIMATE = "estimate";
 
 	private final List<Argument> reqArgs;
 	private final List<OptionalArgument> optionalArgs;
@@ -110,9 +116,17 @@ class EmbossPEF implements CommandDetails {
 		optionalArgs.add(new OptionalArgument(KEY_RANGE, "Emboss a range of pages", "1-"));
 		optionalArgs.add(new OptionalArgument(KEY_COPIES, "Set copies", "1"));
 		optionalArgs.add(new OptionalArgument(KEY_DIR, "Send the embosser data to a folder instead of the specified device.", ""));
+		optionalArgs.add(new OptionalArgument(KEY_CHUNK_SIZE, "The maximum number of kilobytes to copy at a time when sending the embosser data to a folder", "" + ChannelFileDevice.DEFAULT_CHUNK_SIZE/1024));
+		optionalArgs.add(new OptionalArgument(KEY_THREADS, "Number of volumes to render at the same time, when using the volumes switch", "" + Runtime.getRuntime().availableProcessors()));
+		optionalArgs.add(new OptionalArgument(KEY_REPORT, "Write timings and an estimate to this file, as properties", ""));
+		optionalArgs.add(new OptionalArgument(KEY_SPEED, "The embosser speed in sheets per hour, used for the estimate", ""));
+		optionalArgs.add(new OptionalArgument(KEY_SPEED_PROFILE, "A properties file with the speed in sheets per hour of each embosser identifier, used for the estimate", ""));
+		optionalArgs.add(new OptionalArgument(KEY_DEVICES, "A comma separated list of devices to distribute the volumes between, instead of the stored device. Use " + FanOutEmbosser.DIR_PREFIX + "<folder> to send to a folder.", ""));
 		this.switches = new SwitchMap.Builder()
 				.addSwitch(new SwitchArgument("clear", "settings", "clear", "To clear settings"))
 				.addSwitch(new SwitchArgument("setup", "settings", "setup", "To change setup"))
+				.addSwitch(new SwitchArgument(KEY_VOLUMES, KEY_VOLUMES, "true", "To render each volume into a separate file in parallel, with a manifest. Requires the dir option."))
+				.addSwitch(new SwitchArgument(KEY_ESTIMATE, KEY_ESTIMATE, "true", "To print an estimate of the time needed to emboss the file, without embossing it."))
 				.build();
 		this.parser = CommandParser.create(this);
 	}
@@ -120,18 +134,22 @@ class EmbossPEF implements CommandDetails {
 	protected void readSetup(boolean verify) {
 		// Check setup
 		InputHelper input = new InputHelper();
-		ArrayList<String> str = new ArrayList<>();
-		for (PrintService ps : PrinterDevice.getDevices()) {
-			str.add(ps.getName());
+		EmbossCatalogs catalogs = EmbossCatalogs.getInstance();
+		// a stored setting is used as is, the print services are only listed when needed
+		deviceName = verify ? null : input.getKey(DEVICE_NAME);
+		if (deviceName==null) {
+			List<String> str = PrintServiceCache.newInstance().getDeviceNames(verify);
+			deviceName = input.select(DEVICE_NAME, str.toArray(new String[0]), "device", verify);
 		}
-		deviceName = input.select(DEVICE_NAME, str.toArray(new String[0]), "device", verify); 
 		System.out.println("Using device: " + deviceName);
 		
-		EmbosserCatalog ec = EmbosserCatalog.newInstance();
-		ArrayList<FactoryProperties> sorted = new ArrayList<FactoryProperties>(ec.listEmbossers());
-		Collections.sort(sorted, FactoryProperties.newComparatorBuilder().build());
-		String embosserType = input.select(EMBOSSER_TYPE, sorted, "embosser", verify);
-		type = ec.get(embosserType);
+		EmbosserCatalog ec = catalogs.getEmbosserCatalog();
+		String embosserType = verify ? null : input.getKey(EMBOSSER_TYPE);
+		type = embosserType!=null ? ec.get(embosserType) : null;
+		if (type==null) {
+			embosserType = input.select(EMBOSSER_TYPE, catalogs.listEmbossers(), "embosser", verify);
+			type = ec.get(embosserType);
+		}
 		System.out.println("Embosser: " + type.getDisplayName());
 		
 		if (getEmbosser().supportsPrintMode(EmbosserProperties.PrintMode.REGULAR) && getEmbosser().supportsPrintMode(EmbosserProperties.PrintMode.MAGAZINE)) {
@@ -145,10 +163,10 @@ class EmbossPEF implements CommandDetails {
 			System.out.println("Print mode: " + printMode);
 		}
 
-		TableCatalog tablef = TableCatalog.newInstance();
-		Collection<FactoryProperties> supportedTables = tablef.list(type.getTableFilter());
+		TableCatalog tablef = catalogs.getTableCatalog();
+		List<FactoryProperties> supportedTables = catalogs.listTables(type);
 		if (supportedTables.size()>1) {
-			String tableType = input.select(TABLE_TYPE, new ArrayList<FactoryProperties>(supportedTables), "table", verify);
+			String tableType = input.select(TABLE_TYPE, supportedTables, "table", verify);
 			table = tablef.get(tableType);
 			System.out.println("Table: " + table.getDisplayName());
 		} else {
@@ -157,10 +175,8 @@ class EmbossPEF implements CommandDetails {
 
 		boolean ok = false;
 		do {
-			PaperCatalog pc = PaperCatalog.newInstance();
-			sorted = new ArrayList<FactoryProperties>(pc.list(new EmbosserPaperFilter(type)));
-			Collections.sort(sorted, FactoryProperties.newComparatorBuilder().build());
-			String paperSize = input.select(PAPER_SIZE, sorted, "paper", verify);
+			PaperCatalog pc = catalogs.getPaperCatalog();
+			String paperSize = input.select(PAPER_SIZE, catalogs.listPapers(type), "paper", verify);
 			paper = pc.get(paperSize);
 			
 			switch (paper.getType()) {
@@ -250,21 +266,39 @@ class EmbossPEF implements CommandDetails {
 		}
 		
 		Device device = null;
+		File embossFolder = null;
+		boolean volumes = "true".equals(p.get(KEY_VOLUMES));
+		boolean estimate = "true".equals(p.get(KEY_ESTIMATE));
 		String basePathStr = parserResult.getOptional().get(KEY_DIR);
+		String devicesStr = p.get(KEY_DEVICES);
+		List<String> fanOut = devicesStr!=null && !"".equals(devicesStr) ? Arrays.asList(devicesStr.trim().split("\\s*,\\s*")) : null;
+		if (fanOut!=null && (volumes || (basePathStr!=null && !"".equals(basePathStr)))) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("The " + KEY_DEVICES + " option cannot be combined with " + KEY_DIR + " or " + KEY_VOLUMES + ".");
+		}
 		if (basePathStr!=null && !"".equals(basePathStr)) {
 			File basePath = new File(basePathStr);
 			if (basePath.isDirectory()) {
-				File embossFolder = null;
 				do {
 					embossFolder = new File(basePath, System.currentTimeMillis()+"");
 				} while (embossFolder.exists());
 				embossFolder.mkdir();
-				device = new FileDevice(embossFolder);
+				int chunkSize = ChannelFileDevice.DEFAULT_CHUNK_SIZE;
+				String chunkSizeStr = p.get(KEY_CHUNK_SIZE);
+				if (chunkSizeStr!=null && !"".equals(chunkSizeStr)) {
+					try {
+						chunkSize = Math.max(1, Integer.parseInt(chunkSizeStr))*1024;
+					} catch (NumberFormatException e) {
+						System.out.println("Ignoring argument -"+ KEY_CHUNK_SIZE +"=" + chunkSizeStr);
+					}
+				}
+				device = new ChannelFileDevice(embossFolder, "job_", ".prn", chunkSize);
 			} else {
 				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(basePathStr + " does not exist or is not a directory.");
 			}
-		} else {
-			device = new PrinterDevice(ui.getDeviceName(), true);
+		} else if (volumes) {
+			ExitCode.MISSING_ARGUMENT.exitSystem("The " + KEY_VOLUMES + " switch requires the " + KEY_DIR + " option.");
+		} else if (fanOut==null && !estimate) {
+			device = PrintServiceCache.newDevice(ui.getDeviceName());
 		}
 
 		PageFormat pf = ui.getPageFormat();
@@ -280,6 +314,7 @@ class EmbossPEF implements CommandDetails {
 				copies = 1;
 			}
 		}
+		int requestedCopies = copies;
 		try {
 			ui.getEmbosser().setFeature(EmbosserFeatures.NUMBER_OF_COPIES, copies);
 			//setting copies to 1 to avoid sending multiple requests below since 
@@ -302,21 +337,114 @@ class EmbossPEF implements CommandDetails {
 			if (!ok) {
 				ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem("Validation failed, exiting...");
 			}
-			for (int i=0; i<copies; i++) {
-				EmbosserWriter embosserObj = ui.getEmbosser().newEmbosserWriter(device);
-				PEFHandler.Builder builder = new PEFHandler.Builder(embosserObj);
-				String range = p.get(KEY_RANGE);
-				if (range!=null && range!="") {
-					builder.range(Range.parseRange(range));
+			String range = p.get(KEY_RANGE);
+			String reportStr = p.get(KEY_REPORT);
+			EmbossReport report = null;
+			if (estimate || (reportStr!=null && !"".equals(reportStr))) {
+				report = new EmbossReport(input, ui.getEmbosser().getIdentifier(), requestedCopies);
+				String profile = p.get(KEY_SPEED_PROFILE);
+				try {
+					report.setSpeed(p.get(KEY_SPEED), profile!=null && !"".equals(profile)?new File(profile):null);
+				} catch (NumberFormatException e) {
+					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+				}
+				report.estimate(VolumeRenderer.listVolumes(input, range!=null && !"".equals(range)?Range.parseRange(range):new Range(1), input.getAbsoluteFile().getParentFile()));
+				report.printEstimate(System.out);
+				if (estimate) {
+					if (reportStr!=null && !"".equals(reportStr)) {
+						report.write(new File(reportStr));
+					}
+					ExitCode.OK.exitSystem();
+				}
+				report.start();
+			}
+			boolean done = true;
+			if (fanOut!=null) {
+				List<FanOutEmbosser.Target> targets = new FanOutEmbosser(ui.getEmbosser(), fanOut, report)
+						.emboss(input, range!=null && !"".equals(range)?Range.parseRange(range):new Range(1), copies, System.out);
+				System.out.println();
+				FanOutEmbosser.writeCollationSheet(System.out, input, copies, targets);
+				done = FanOutEmbosser.isDone(targets);
+			} else if (volumes) {
+				int threads = Runtime.getRuntime().availableProcessors();
+				String threadsStr = p.get(KEY_THREADS);
+				if (threadsStr!=null && !"".equals(threadsStr)) {
+					try {
+						threads = Math.max(1, Integer.parseInt(threadsStr));
+					} catch (NumberFormatException e) {
+						System.out.println("Ignoring argument -"+ KEY_THREADS +"=" + threadsStr);
+					}
+				}
+				List<VolumeRenderer.Volume> rendered = new VolumeRenderer(ui.getEmbosser(), threads)
+						.render(input, range!=null && !"".equals(range)?Range.parseRange(range):new Range(1), embossFolder);
+				try (PrintStream ps = new PrintStream(new File(embossFolder, VolumeRenderer.MANIFEST), "UTF-8")) {
+					ui.listCurrentSettings(ps);
+					VolumeRenderer.writeManifest(ps, input, copies, rendered);
+				}
+				if (report!=null) {
+					for (VolumeRenderer.Volume v : rendered) {
+						report.add(null, v, 0);
+					}
+				}
+				System.out.println("Rendered " + rendered.size() + " volume(s) to " + embossFolder);
+			} else {
+				// render the embosser data once and transmit it for every copy
+				File spool = File.createTempFile("emboss", ".tmp");
+				try {
+					long start = System.nanoTime();
+					int pages;
+					try (OutputStream os = new BufferedOutputStream(new FileOutputStream(spool))) {
+						pages = emboss(ui.getEmbosser().newEmbosserWriter(os), input, range);
+					}
+					long rendered = System.nanoTime();
+					for (int i=0; i<copies; i++) {
+						device.transmit(spool);
+					}
+					if (report!=null) {
+						report.add("document", embossFolder!=null?embossFolder.getPath():ui.getDeviceName(),
+								pages, rendered-start, spool.length(), copies, System.nanoTime()-rendered);
+					}
+				} finally {
+					if (!spool.delete()) {
+						spool.deleteOnExit();
+					}
+				}
+			}
+			if (device instanceof ChannelFileDevice && !volumes && report==null) {
+				System.out.println("Transmitted " + ((ChannelFileDevice)device).getThroughput());
+			}
+			if (report!=null) {
+				report.end();
+				report.printSummary(System.out);
+				if (reportStr!=null && !"".equals(reportStr)) {
+					report.write(new File(reportStr));
 				}
-				PEFHandler ph = builder.build();
-				new PEFConverterFacade(EmbosserCatalog.newInstance()).parsePefFile(input, ph);
 			}
-		} catch (IOException | ParserConfigurationException | SAXException | UnsupportedWidthException e) {
+			if (!done) {
+				ExitCode.INTERNAL_ERROR.exitSystem("Some volumes were not embossed.");
+			}
+		} catch (IOException | ParserConfigurationException | SAXException | UnsupportedWidthException | PrintException e) {
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * Renders a PEF-file with the specified embosser writer.
+	 * @param embosserObj the embosser writer
+	 * @param input the PEF-file
+	 * @param range the range of pages to render, or null to render all pages
+	 * @return the number of pages rendered
+	 * @throws ParserConfigurationException if the parser cannot be created
+	 * @throws SAXException if the file cannot be parsed
+	 * @throws IOException if an i/o error occurs
+	 * @throws UnsupportedWidthException if the embosser doesn't support the page width
+	 */
+	static int emboss(EmbosserWriter embosserObj, File input, String range) throws ParserConfigurationException, SAXException, IOException, UnsupportedWidthException {
+		Range r = range!=null && !"".equals(range) ? Range.parseRange(range) : null;
+		PEFHandler ph = new PEFHandler.Builder(embosserObj).range(r).build();
+		return new RangedPEFReader(r).parse(input, ph);
+	}
+	
 	public void listCurrentSettings(PrintStream ps) {
 		ps.println("Current settings:");
 		ps.println("\tDevice: " + deviceName);
@@ -346,21 +474,6 @@ class EmbossPEF implements CommandDetails {
 		ps.println();
 	}
 	
-	// Accepts papers that are supported by the embosser in the default orientation
-	private class EmbosserPaperFilter implements PaperFilter {
-			private final Embosser emb;
-
-			public EmbosserPaperFilter(Embosser emb) {
-				this.emb = emb;
-			}
-			
-			@Override
-			public boolean accept(Paper object) {
-				return emb.supportsPaper(object);
-			}
-
-	}
-
 	@Override
 	public String getName() {
 		return DotifyCLI.EMBOSS;
@@ -0,0 +1,260 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.daisy.braille.utils.pef.Range;
+
+/**
+ * <p>Provides timings and an estimate for an emboss job. The estimate is based
+ * on the number of sheets and the speed of the embosser, in sheets per hour.
+ * The speed is either given for the job, or read from a speed profile, which is
+ * a properties file with embosser identifiers as keys and the speed as values.
+ * The key {@value #DEFAULT_KEY} can be used for all other embossers.</p>
+ *
+ * <p>The report is written as a properties file, so that it can be read by
+ * other tools. Times are in seconds.</p>
+ */
+class EmbossReport {
+	static final double DEFAULT_SPEED = 300;
+	static final String DEFAULT_KEY = "default";
+	private final File input;
+	private final String embosser;
+	private final int copies;
+	private final List<Entry> entries;
+	private double speed;
+	private String speedSource;
+	private int estimatedPages;
+	private int estimatedSheets;
+	private long startTime;
+	private long endTime;
+
+	/**
+	 * A rendered part of the job.
+	 */
+	private static class Entry {
+		private final String name;
+		private final String device;
+		private final int pages;
+		private final long renderNanos;
+		private final long bytes;
+		private final long transmitted;
+		private final long transmitNanos;
+
+		private Entry(String name, String device, int pages, long renderNanos, long bytes, long transmitted, long transmitNanos) {
+			this.name = name;
+			this.device = device;
+			this.pages = pages;
+			this.renderNanos = renderNanos;
+			this.bytes = bytes;
+			this.transmitted = transmitted;
+			this.transmitNanos = transmitNanos;
+		}
+	}
+
+	/**
+	 * Creates a new report.
+	 * @param input the PEF-file
+	 * @param embosser the embosser identifier
+	 * @param copies the number of copies
+	 */
+	EmbossReport(File input, String embosser, int copies) {
+		this.input = input;
+		this.embosser = embosser;
+		this.copies = copies;
+		this.entries = new ArrayList<>();
+		this.speed = DEFAULT_SPEED;
+		this.speedSource = DEFAULT_KEY;
+	}
+
+	/**
+	 * Sets the speed of the embosser. If a speed is given, it is used. Otherwise,
+	 * the speed is read from the profile, if any.
+	 * @param value the speed in sheets per hour, or null
+	 * @param profile the speed profile, or null
+	 * @throws IOException if the profile cannot be read
+	 * @throws NumberFormatException if a speed isn't a number
+	 */
+	void setSpeed(String value, File profile) throws IOException {
+		if (value!=null && !"".equals(value)) {
+			speed = Double.parseDouble(value);
+			speedSource = "option";
+		} else if (profile!=null) {
+			Properties p = new Properties();
+			try (InputStream is = new FileInputStream(profile)) {
+				p.load(is);
+			}
+			String s = p.getProperty(embosser);
+			if (s!=null) {
+				speed = Double.parseDouble(s.trim());
+				speedSource = "profile";
+			} else if ((s = p.getProperty(DEFAULT_KEY))!=null) {
+				speed = Double.parseDouble(s.trim());
+				speedSource = "profile default";
+			}
+		}
+		if (speed<=0) {
+			throw new NumberFormatException("Speed must be positive: " + speed);
+		}
+	}
+
+	/**
+	 * Estimates the job from the volumes that will be embossed. Page numbers
+	 * count the sides of the sheets, also for single sided pages, so that sheet
+	 * n has pages 2n-1 and 2n. A range may start or end on the back of a sheet.
+	 * @param volumes the volumes
+	 */
+	void estimate(List<VolumeRenderer.Volume> volumes) {
+		estimatedPages = 0;
+		estimatedSheets = 0;
+		for (VolumeRenderer.Volume v : volumes) {
+			Range r = v.getPages();
+			estimatedPages += v.getPageCount();
+			estimatedSheets += (r.getTo()+1)/2 - (r.getFrom()-1)/2;
+		}
+	}
+
+	/**
+	 * Gets the estimated time to emboss the job.
+	 * @return the time in seconds
+	 */
+	double getEstimatedSeconds() {
+		return estimatedSheets*copies*3600/speed;
+	}
+
+	void start() {
+		startTime = System.nanoTime();
+	}
+
+	void end() {
+		endTime = System.nanoTime();
+	}
+
+	/**
+	 * Adds a rendered volume. This must be called while the file of the volume exists.
+	 * @param device the device, or null if the volume wasn't transmitted
+	 * @param v the volume
+	 * @param transmissions the number of times the volume was transmitted
+	 */
+	synchronized void add(String device, VolumeRenderer.Volume v, int transmissions) {
+		long bytes = v.getFile().length();
+		entries.add(new Entry("volume." + v.getVolume(), device, v.getRenderedPages(), v.getRenderNanos(), bytes, bytes*transmissions, v.getTransmitNanos()));
+	}
+
+	/**
+	 * Adds a rendered part of the job.
+	 * @param name the name of the part
+	 * @param device the device, or null if the part wasn't transmitted
+	 * @param pages the number of pages rendered
+	 * @param renderNanos the time spent rendering
+	 * @param bytes the size of the embosser data
+	 * @param transmissions the number of times the embosser data was transmitted
+	 * @param transmitNanos the time spent transmitting
+	 */
+	synchronized void add(String name, String device, int pages, long renderNanos, long bytes, int transmissions, long transmitNanos) {
+		entries.add(new Entry(name, device, pages, renderNanos, bytes, bytes*transmissions, transmitNanos));
+	}
+
+	/**
+	 * Prints the estimate.
+	 * @param ps the print stream
+	 */
+	void printEstimate(PrintStream ps) {
+		ps.println(String.format("Estimate: %d page(s), %d sheet(s), %d cop%s, %.0f sheets/hour (%s): %s",
+				estimatedPages, estimatedSheets, copies, copies==1?"y":"ies", speed, speedSource, formatTime(getEstimatedSeconds())));
+	}
+
+	/**
+	 * Prints the throughput.
+	 * @param ps the print stream
+	 */
+	synchronized void printSummary(PrintStream ps) {
+		Totals t = new Totals();
+		ps.println(String.format("Rendered %d page(s) in %.2f s (%.1f pages/s)", t.pages, t.renderNanos/1e9, perSecond(t.pages, t.renderNanos)));
+		if (t.transmitted>0) {
+			ps.println(String.format("Transmitted %d bytes in %.2f s (%.1f KB/s)", t.transmitted, t.transmitNanos/1e9, perSecond(t.transmitted, t.transmitNanos)/1024));
+		}
+		ps.println(String.format("Total time: %s", formatTime((endTime-startTime)/1e9)));
+	}
+
+	/**
+	 * Writes this report as a properties file.
+	 * @param f the file
+	 * @throws IOException if the file cannot be written
+	 */
+	synchronized void write(File f) throws IOException {
+		Totals t = new Totals();
+		Properties p = new Properties();
+		p.setProperty("source", input.getAbsolutePath());
+		p.setProperty("embosser", embosser);
+		p.setProperty("copies", String.valueOf(copies));
+		p.setProperty("estimate.pages", String.valueOf(estimatedPages));
+		p.setProperty("estimate.sheets", String.valueOf(estimatedSheets));
+		p.setProperty("estimate.speed", String.valueOf(speed));
+		p.setProperty("estimate.speedSource", speedSource);
+		p.setProperty("estimate.seconds", format(getEstimatedSeconds()));
+		p.setProperty("parts", String.valueOf(entries.size()));
+		for (Entry e : entries) {
+			if (e.device!=null) {
+				p.setProperty(e.name + ".device", e.device);
+			}
+			p.setProperty(e.name + ".pages", String.valueOf(e.pages));
+			p.setProperty(e.name + ".render.seconds", format(e.renderNanos/1e9));
+			p.setProperty(e.name + ".bytes", String.valueOf(e.bytes));
+			p.setProperty(e.name + ".transmit.bytes", String.valueOf(e.transmitted));
+			p.setProperty(e.name + ".transmit.seconds", format(e.transmitNanos/1e9));
+		}
+		p.setProperty("render.pages", String.valueOf(t.pages));
+		p.setProperty("render.seconds", format(t.renderNanos/1e9));
+		p.setProperty("render.pagesPerSecond", format(perSecond(t.pages, t.renderNanos)));
+		p.setProperty("render.bytes", String.valueOf(t.bytes));
+		p.setProperty("transmit.bytes", String.valueOf(t.transmitted));
+		p.setProperty("transmit.seconds", format(t.transmitNanos/1e9));
+		p.setProperty("transmit.bytesPerSecond", format(perSecond(t.transmitted, t.transmitNanos)));
+		p.setProperty("elapsed.seconds", format((endTime-startTime)/1e9));
+		try (OutputStream os = new FileOutputStream(f)) {
+			p.store(os, "Emboss report");
+		}
+	}
+
+	private class Totals {
+		private int pages = 0;
+		private long renderNanos = 0;
+		private long bytes = 0;
+		private long transmitted = 0;
+		private long transmitNanos = 0;
+
+		private Totals() {
+			for (Entry e : entries) {
+				pages += e.pages;
+				renderNanos += e.renderNanos;
+				bytes += e.bytes;
+				transmitted += e.transmitted;
+				transmitNanos += e.transmitNanos;
+			}
+		}
+	}
+
+	private static double perSecond(long count, long nanos) {
+		return nanos>0 ? count/(nanos/1e9) : 0;
+	}
+
+	private static String format(double d) {
+		return String.format(Locale.ROOT, "%.3f", d);
+	}
+
+	private static String formatTime(double seconds) {
+		long s = Math.round(seconds);
+		return String.format("%d:%02d:%02d", s/3600, (s/60)%60, s%60);
+	}
+
+}
@@ -0,0 +1,482 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.print.PrintException;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.daisy.braille.utils.pef.UnsupportedWidthException;
+import org.daisy.dotify.api.embosser.Device;
+import org.daisy.dotify.api.embosser.Embosser;
+import org.daisy.streamline.cli.Argument;
+import org.daisy.streamline.cli.CommandDetails;
+import org.daisy.streamline.cli.CommandParser;
+import org.daisy.streamline.cli.CommandParserResult;
+import org.daisy.streamline.cli.ExitCode;
+import org.daisy.streamline.cli.OptionalArgument;
+import org.daisy.streamline.cli.SwitchArgument;
+import org.daisy.streamline.cli.SwitchMap;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>Provides an emboss spooler with a persistent job queue. Not for public use.
+ * This class is a package class. Use DotifyCLI</p>
+ *
+ * <p>Jobs are added to a queue folder with the <code>add</code> action, and
+ * are embossed by a spooler started with the <code>start</code> action. The
+ * spooler feeds each device from its own pair of threads: one renders the
+ * next job for the device while the other transmits the current one.</p>
+ *
+ * <p>Job settings that aren't given when a job is added are taken from the
+ * settings of the emboss command.</p>
+ */
+class EmbossSpooler implements CommandDetails {
+	private static final Logger logger = Logger.getLogger(EmbossSpooler.class.getCanonicalName());
+	private static final String ACTION_START = "start";
+	private static final String ACTION_ADD = "add";
+	private static final String ACTION_STATUS = "status";
+	private static final String ACTION_CANCEL = "cancel";
+	private static final String JOBS_FOLDER = "jobs";
+	private static final String SPOOL_FOLDER = "spool";
+	private static final String LOCK_FILE = "spooler.lock";
+	private static final String CANCEL_SUFFIX = ".cancel";
+	private static final long POLL_INTERVAL = 1000;
+	private static final String META_KEY = "meta";
+	private static final String HELP_KEY = "help";
+	private final List<Argument> reqArgs;
+	private final List<OptionalArgument> optionalArgs;
+	private final SwitchMap switches;
+	private final CommandParser parser;
+	private final Set<String> claimed;
+	private File jobs;
+	private File spool;
+	private int lineIndex = 1;
+
+	public EmbossSpooler() {
+		this.reqArgs = new ArrayList<>();
+		reqArgs.add(new Argument("action", "One of: start, add <path to PEF-file>, status, cancel <job id>"));
+		reqArgs.add(new Argument("queue_dir", "Path to the queue folder"));
+		this.optionalArgs = new ArrayList<>();
+		optionalArgs.add(new OptionalArgument(EmbossJob.KEY_DEVICE, "The device to send the job to", "[emboss setting]"));
+		optionalArgs.add(new OptionalArgument(EmbossJob.KEY_DIR, "Send the embosser data of the job to a folder instead of a device", ""));
+		optionalArgs.add(new OptionalArgument(EmbossJob.KEY_EMBOSSER, "The embosser identifier", "[emboss setting]"));
+		optionalArgs.add(new OptionalArgument(EmbossJob.KEY_TABLE, "The table identifier, if required by the embosser", "[emboss setting]"));
+		optionalArgs.add(new OptionalArgument(EmbossJob.KEY_PAPER, "The paper identifier", "[emboss setting]"));
+		optionalArgs.add(new OptionalArgument(EmbossJob.KEY_ORIENTATION, "The sheet paper orientation, default or reversed", "[emboss setting]"));
+		optionalArgs.add(new OptionalArgument(EmbossJob.KEY_CUT_LENGTH, "The cut length of roll paper, in mm", "[emboss setting]"));
+		optionalArgs.add(new OptionalArgument(EmbossJob.KEY_RANGE, "Emboss a range of pages", "1-"));
+		optionalArgs.add(new OptionalArgument(EmbossJob.KEY_COPIES, "Set copies", "1"));
+		this.switches = new SwitchMap.Builder()
+				.addSwitch(new SwitchArgument('h', HELP_KEY, META_KEY, HELP_KEY, "Help text."))
+				.addSwitch(new SwitchArgument(EmbossJob.KEY_MAGAZINE, EmbossJob.KEY_MAGAZINE, "true", "To emboss the job in magazine mode, if supported by the embosser"))
+				.build();
+		this.parser = CommandParser.create(this);
+		this.claimed = ConcurrentHashMap.newKeySet();
+	}
+
+	public static void main(String[] args) throws IOException {
+		EmbossSpooler ui = new EmbossSpooler();
+		CommandParserResult result = ui.parser.parse(args);
+		List<String> req = result.getRequired();
+		if (HELP_KEY.equals(result.getOptional().get(META_KEY))) {
+			ui.parser.displayHelp(System.out);
+			ExitCode.OK.exitSystem();
+		} else if (req.size()<2) {
+			System.out.println("Expected at least two arguments: action queue_dir [options ...]");
+			System.out.println();
+			ui.parser.displayHelp(System.out);
+			ExitCode.MISSING_ARGUMENT.exitSystem();
+		}
+		File queue = new File(req.get(1));
+		if (!ui.setQueue(queue)) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Cannot use queue folder: " + queue);
+		}
+		switch (req.get(0)) {
+			case ACTION_START:
+				ui.start(new File(queue, LOCK_FILE));
+				break;
+			case ACTION_ADD:
+				if (req.size()<3) {
+					ExitCode.MISSING_ARGUMENT.exitSystem("Expected a path to a PEF-file.");
+				}
+				ui.add(new File(req.get(2)), result.getOptional());
+				break;
+			case ACTION_STATUS:
+				ui.status();
+				break;
+			case ACTION_CANCEL:
+				if (req.size()<3) {
+					ExitCode.MISSING_ARGUMENT.exitSystem("Expected a job id.");
+				}
+				ui.cancel(req.get(2));
+				break;
+			default:
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Unknown action: " + req.get(0));
+		}
+	}
+
+	/**
+	 * Sets the queue folder, creating it if needed.
+	 * @param queue the queue folder
+	 * @return true if the folder can be used, false otherwise
+	 */
+	boolean setQueue(File queue) {
+		jobs = new File(queue, JOBS_FOLDER);
+		spool = new File(queue, SPOOL_FOLDER);
+		jobs.mkdirs();
+		spool.mkdirs();
+		return jobs.isDirectory() && spool.isDirectory();
+	}
+
+	/**
+	 * Gets the jobs folder of the queue.
+	 * @return the folder
+	 */
+	File getJobsFolder() {
+		return jobs;
+	}
+
+	private void add(File input, Map<String, String> opts) throws IOException {
+		if (!input.isFile()) {
+			ExitCode.MISSING_RESOURCE.exitSystem("Cannot find input file: " + input);
+		}
+		if (!new ValidatorFacade().validate(input, System.out)) {
+			ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem("Validation failed, exiting...");
+		}
+		InputHelper settings = new InputHelper(EmbossPEF.class);
+		Properties props = new Properties();
+		props.setProperty(EmbossJob.KEY_SOURCE, input.getAbsolutePath());
+		String dir = opts.get(EmbossJob.KEY_DIR);
+		if (dir!=null && !"".equals(dir)) {
+			props.setProperty(EmbossJob.KEY_DIR, new File(dir).getAbsolutePath());
+		} else {
+			put(props, EmbossJob.KEY_DEVICE, opts, settings.getKey(EmbossPEF.DEVICE_NAME));
+		}
+		put(props, EmbossJob.KEY_EMBOSSER, opts, settings.getKey(EmbossPEF.EMBOSSER_TYPE));
+		put(props, EmbossJob.KEY_TABLE, opts, settings.getKey(EmbossPEF.TABLE_TYPE));
+		put(props, EmbossJob.KEY_PAPER, opts, settings.getKey(EmbossPEF.PAPER_SIZE));
+		put(props, EmbossJob.KEY_ORIENTATION, opts, "false".equals(settings.getKey(EmbossPEF.ORIENTATION))?"reversed":"default");
+		put(props, EmbossJob.KEY_CUT_LENGTH, opts, settings.getKey(EmbossPEF.CUT_LENGTH));
+		put(props, EmbossJob.KEY_MAGAZINE, opts, null);
+		put(props, EmbossJob.KEY_RANGE, opts, null);
+		put(props, EmbossJob.KEY_COPIES, opts, null);
+		for (String key : Arrays.asList(EmbossJob.KEY_EMBOSSER, EmbossJob.KEY_PAPER, props.containsKey(EmbossJob.KEY_DIR)?EmbossJob.KEY_DIR:EmbossJob.KEY_DEVICE)) {
+			if (!props.containsKey(key)) {
+				ExitCode.MISSING_ARGUMENT.exitSystem("No " + key + " given, and no " + key + " in the emboss settings.");
+			}
+		}
+		EmbossJob job = EmbossJob.create(jobs, props);
+		try {
+			// check the configuration before the job reaches the spooler
+			job.newEmbosser();
+		} catch (RuntimeException e) {
+			job.setState(EmbossJob.State.FAILED, e.getMessage());
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Unsupported emboss settings: " + e.getMessage());
+		}
+		System.out.println("Added job " + job.getId());
+	}
+
+	private static void put(Properties props, String key, Map<String, String> opts, String def) {
+		String value = opts.get(key);
+		if (value==null || "".equals(value)) {
+			value = def;
+		}
+		if (value!=null && !"".equals(value)) {
+			props.setProperty(key, value);
+		}
+	}
+
+	private void status() throws IOException {
+		List<EmbossJob> list = listJobs();
+		if (list.isEmpty()) {
+			System.out.println("The queue is empty.");
+			return;
+		}
+		System.out.println(String.format("%-15s %-20s %-6s %-30s %s", "Job", "State", "Copies", "Device", "File"));
+		for (EmbossJob job : list) {
+			String state = job.getState().toString().toLowerCase();
+			if (!job.getState().isFinal() && cancelFile(job.getId()).exists()) {
+				state += " (cancelling)";
+			}
+			System.out.println(String.format("%-15s %-20s %-6d %-30s %s%s", job.getId(), state, job.getCopies(), job.getDeviceKey(),
+					new File(job.get(EmbossJob.KEY_SOURCE)).getName(), "".equals(job.getMessage())?"":" (" + job.getMessage() + ")"));
+		}
+	}
+
+	void cancel(String id) throws IOException {
+		File f = new File(jobs, id + EmbossJob.SUFFIX);
+		if (!f.isFile()) {
+			ExitCode.MISSING_RESOURCE.exitSystem("No such job: " + id);
+		}
+		EmbossJob job = EmbossJob.load(f);
+		if (job.getState().isFinal()) {
+			System.out.println("Job " + id + " is already " + job.getState().toString().toLowerCase());
+		} else {
+			// the spooler checks for this file before rendering and before each copy
+			cancelFile(id).createNewFile();
+			System.out.println("Cancelling job " + id);
+		}
+	}
+
+	private File cancelFile(String id) {
+		return new File(jobs, id + CANCEL_SUFFIX);
+	}
+
+	List<EmbossJob> listJobs() throws IOException {
+		File[] files = jobs.listFiles(f->f.getName().endsWith(EmbossJob.SUFFIX));
+		List<EmbossJob> ret = new ArrayList<>();
+		if (files!=null) {
+			Arrays.sort(files);
+			for (File f : files) {
+				ret.add(EmbossJob.load(f));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Runs the spooler until the current thread is interrupted.
+	 * @param lockFile the file to lock, so that only one spooler uses the queue
+	 * @throws IOException if an i/o error occurs
+	 */
+	void start(File lockFile) throws IOException {
+		try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			FileLock lock = lockChannel.tryLock()) {
+			if (lock==null) {
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Another spooler is using this queue.");
+			}
+			// jobs that were in progress when the spooler stopped are started over
+			for (EmbossJob job : listJobs()) {
+				if (!job.getState().isFinal() && job.getState()!=EmbossJob.State.QUEUED) {
+					job.setState(EmbossJob.State.QUEUED, "Restarted");
+				}
+			}
+			for (File f : spool.listFiles()) {
+				f.delete();
+			}
+			System.out.println("Spooler started.");
+			Map<String, DeviceLine> lines = new HashMap<>();
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					for (EmbossJob job : listJobs()) {
+						if (job.getState()==EmbossJob.State.QUEUED && claimed.add(job.getId())) {
+							String key = job.getDeviceKey();
+							lines.computeIfAbsent(key, k->new DeviceLine(k)).pending.add(job);
+						}
+					}
+					try {
+						Thread.sleep(POLL_INTERVAL);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			} finally {
+				for (DeviceLine l : lines.values()) {
+					l.stop();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Renders a job into a spool file.
+	 * @param job the job
+	 * @return the rendered job, or null if the job was cancelled
+	 * @throws IOException if an i/o error occurs
+	 * @throws ParserConfigurationException if a parser cannot be created
+	 * @throws SAXException if the PEF-file cannot be parsed
+	 * @throws UnsupportedWidthException if the page width isn't supported by the embosser
+	 */
+	Rendered render(EmbossJob job) throws IOException, ParserConfigurationException, SAXException, UnsupportedWidthException {
+		if (isCancelled(job)) {
+			return null;
+		}
+		File f = new File(spool, job.getId() + ".prn");
+		job.setState(EmbossJob.State.RENDERING, "");
+		Embosser embosser = job.newEmbosser();
+		int transmissions = job.applyCopies(embosser);
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(f))) {
+			EmbossPEF.emboss(embosser.newEmbosserWriter(os), new File(job.get(EmbossJob.KEY_SOURCE)), job.get(EmbossJob.KEY_RANGE));
+		}
+		job.setState(EmbossJob.State.READY, "");
+		return new Rendered(job, f, transmissions);
+	}
+
+	/**
+	 * Transmits a rendered job to a device. The job is checked for cancellation
+	 * before each copy.
+	 * @param r the rendered job
+	 * @param device the device
+	 * @throws IOException if the job cannot be saved
+	 * @throws PrintException if the job cannot be transmitted
+	 */
+	void transmit(Rendered r, Device device) throws IOException, PrintException {
+		for (int i=0; i<r.transmissions; i++) {
+			if (isCancelled(r.job)) {
+				break;
+			}
+			r.job.setState(EmbossJob.State.TRANSMITTING, (i+1) + " of " + r.transmissions);
+			device.transmit(r.file);
+		}
+		if (r.job.getState()!=EmbossJob.State.CANCELLED) {
+			r.job.setState(EmbossJob.State.DONE, device instanceof ChannelFileDevice?((ChannelFileDevice)device).getThroughput():"");
+			finish(r.job);
+		}
+		r.file.delete();
+	}
+
+	private boolean isCancelled(EmbossJob job) throws IOException {
+		File f = cancelFile(job.getId());
+		if (f.exists()) {
+			job.setState(EmbossJob.State.CANCELLED, "");
+			f.delete();
+			new File(spool, job.getId() + ".prn").delete();
+			finish(job);
+			return true;
+		}
+		return false;
+	}
+
+	private void fail(String name, EmbossJob job, Exception e) {
+		logger.log(Level.WARNING, "Job " + job.getId() + " failed on " + name, e);
+		new File(spool, job.getId() + ".prn").delete();
+		try {
+			job.setState(EmbossJob.State.FAILED, e.getMessage());
+		} catch (IOException e1) {
+			logger.log(Level.WARNING, "Cannot save job " + job.getId(), e1);
+		}
+		finish(job);
+	}
+
+	private void finish(EmbossJob job) {
+		claimed.remove(job.getId());
+	}
+
+	/**
+	 * Feeds one device. The next job is rendered while the current one is transmitted.
+	 */
+	private class DeviceLine {
+		private final String name;
+		private final BlockingQueue<EmbossJob> pending;
+		private final SynchronousQueue<Rendered> ready;
+		private final List<Thread> threads;
+
+		private DeviceLine(String name) {
+			this.name = name;
+			this.pending = new LinkedBlockingQueue<>();
+			this.ready = new SynchronousQueue<>();
+			this.threads = new ArrayList<>();
+			int i = lineIndex++;
+			start(this::render, "dotify-spooler-render-" + i);
+			start(this::transmit, "dotify-spooler-transmit-" + i);
+			logger.info("Feeding device " + name);
+		}
+
+		private void start(Runnable r, String threadName) {
+			Thread t = new Thread(r, threadName);
+			t.setDaemon(true);
+			threads.add(t);
+			t.start();
+		}
+
+		private void stop() {
+			for (Thread t : threads) {
+				t.interrupt();
+			}
+		}
+
+		private void render() {
+			try {
+				while (true) {
+					EmbossJob job = pending.take();
+					try {
+						Rendered r = EmbossSpooler.this.render(job);
+						if (r!=null) {
+							ready.put(r);
+						}
+					} catch (Exception e) {
+						fail(name, job, e);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void transmit() {
+			try {
+				while (true) {
+					Rendered r = ready.take();
+					try {
+						EmbossSpooler.this.transmit(r, r.job.newDevice());
+					} catch (Exception e) {
+						fail(name, r.job, e);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Provides a rendered job.
+	 */
+	static class Rendered {
+		private final EmbossJob job;
+		private final File file;
+		private final int transmissions;
+
+		private Rendered(EmbossJob job, File file, int transmissions) {
+			this.job = job;
+			this.file = file;
+			this.transmissions = transmissions;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return DotifyCLI.EMBOSS_SPOOLER;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Keeps a persistent queue of emboss jobs and feeds several devices at the same time.";
+	}
+
+	@Override
+	public List<Argument> getRequiredArguments() {
+		return reqArgs;
+	}
+
+	@Override
+	public List<OptionalArgument> getOptionalArguments() {
+		return optionalArgs;
+	}
+
+	@Override
+	public SwitchMap getSwitches() {
+		return switches;
+	}
+
+}
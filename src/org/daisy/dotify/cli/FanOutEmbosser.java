@@ -0,0 +1,241 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.daisy.braille.utils.pef.Range;
+import org.daisy.dotify.api.embosser.Device;
+import org.daisy.dotify.api.embosser.Embosser;
+
+/**
+ * <p>Embosses the volumes of a PEF-file on several devices at the same time.
+ * The volumes are distributed so that the devices get about the same number of
+ * pages. Each device receives its volumes in volume order.</p>
+ *
+ * <p>All devices use the same embosser settings. A device is either the name
+ * of a print service or, for testing, a folder prefixed with {@value #DIR_PREFIX}.</p>
+ */
+class FanOutEmbosser {
+	static final String DIR_PREFIX = "dir:";
+	private final VolumeRenderer renderer;
+	private final List<Target> targets;
+	private final EmbossReport report;
+
+	/**
+	 * A device and the volumes assigned to it.
+	 */
+	static class Target {
+		private final String name;
+		private final List<VolumeRenderer.Volume> volumes;
+		private final List<String> status;
+		private int pages;
+		private int failed;
+
+		private Target(String name) {
+			this.name = name;
+			this.volumes = new ArrayList<>();
+			this.status = new ArrayList<>();
+			this.pages = 0;
+			this.failed = 0;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		List<VolumeRenderer.Volume> getVolumes() {
+			return volumes;
+		}
+
+		int getPageCount() {
+			return pages;
+		}
+	}
+
+	/**
+	 * Creates a new fan-out embosser.
+	 * @param embosser the embosser, with all features set
+	 * @param devices the device names
+	 * @param report the report to add the volumes to, or null
+	 */
+	FanOutEmbosser(Embosser embosser, List<String> devices, EmbossReport report) {
+		this.renderer = new VolumeRenderer(embosser, 1);
+		this.report = report;
+		this.targets = new ArrayList<>();
+		for (String d : devices) {
+			targets.add(new Target(d));
+		}
+	}
+
+	/**
+	 * Creates the device with the specified name.
+	 * @param name the name
+	 * @return a new device
+	 * @throws IllegalArgumentException if the device cannot be found
+	 */
+	static Device newDevice(String name) {
+		if (name.startsWith(DIR_PREFIX)) {
+			return new ChannelFileDevice(new File(name.substring(DIR_PREFIX.length())));
+		} else {
+			return PrintServiceCache.newDevice(name);
+		}
+	}
+
+	/**
+	 * Assigns the volumes of the input file within the range to the devices. The
+	 * largest volumes are assigned first, each to the device with the fewest pages so far.
+	 * @param input the PEF-file
+	 * @param range the pages to emboss
+	 * @param tmp the folder for the rendered volumes
+	 * @return the devices and their volumes
+	 * @throws IOException if the file cannot be read
+	 */
+	List<Target> plan(File input, Range range, File tmp) throws IOException {
+		List<VolumeRenderer.Volume> volumes = VolumeRenderer.listVolumes(input, range, tmp);
+		List<VolumeRenderer.Volume> sorted = new ArrayList<>(volumes);
+		sorted.sort(Comparator.comparingInt(VolumeRenderer.Volume::getPageCount).reversed()
+				.thenComparingInt(VolumeRenderer.Volume::getVolume));
+		for (VolumeRenderer.Volume v : sorted) {
+			Target t = Collections.min(targets, Comparator.comparingInt(Target::getPageCount));
+			t.volumes.add(v);
+			t.pages += v.getPageCount();
+		}
+		for (Target t : targets) {
+			t.volumes.sort(Comparator.comparingInt(VolumeRenderer.Volume::getVolume));
+		}
+		return targets;
+	}
+
+	/**
+	 * Embosses the input file on all devices at the same time.
+	 * @param input the PEF-file
+	 * @param range the pages to emboss
+	 * @param copies the number of times to send each volume
+	 * @param progress the progress output
+	 * @return the devices and their volumes
+	 * @throws IOException if the file cannot be read
+	 */
+	List<Target> emboss(File input, Range range, int copies, PrintStream progress) throws IOException {
+		File tmp = Files.createTempDirectory("emboss").toFile();
+		try {
+			plan(input, range, tmp);
+			AtomicInteger threadIndex = new AtomicInteger(1);
+			ExecutorService es = Executors.newFixedThreadPool(Math.max(1, targets.size()), r->{
+				Thread t = new Thread(r, "dotify-emboss-" + threadIndex.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			});
+			try {
+				List<Future<?>> results = new ArrayList<>();
+				for (Target t : targets) {
+					results.add(es.submit(()->emboss(input, t, copies, progress)));
+				}
+				for (Future<?> f : results) {
+					try {
+						f.get();
+					} catch (ExecutionException e) {
+						throw new IOException(e.getCause());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException(e);
+					}
+				}
+			} finally {
+				es.shutdownNow();
+			}
+		} finally {
+			File[] files = tmp.listFiles();
+			if (files!=null) {
+				for (File f : files) {
+					f.delete();
+				}
+			}
+			tmp.delete();
+		}
+		return targets;
+	}
+
+	private void emboss(File input, Target t, int copies, PrintStream progress) {
+		Device device;
+		try {
+			device = newDevice(t.getName());
+		} catch (IllegalArgumentException e) {
+			for (int i=0; i<t.volumes.size(); i++) {
+				t.status.add("FAILED: " + e.getMessage());
+			}
+			t.failed = t.volumes.size();
+			progress.println(t.getName() + ": " + e.getMessage());
+			return;
+		}
+		int i = 0;
+		for (VolumeRenderer.Volume v : t.volumes) {
+			i++;
+			try {
+				renderer.render(input, v);
+				long start = System.nanoTime();
+				for (int c=0; c<copies; c++) {
+					device.transmit(v.getFile());
+				}
+				v.addTransmitNanos(System.nanoTime()-start);
+				if (report!=null) {
+					report.add(t.getName(), v, copies);
+				}
+				t.status.add("done");
+				progress.println(String.format("%s: volume %d done (%d of %d)", t.getName(), v.getVolume(), i, t.volumes.size()));
+			} catch (Exception e) {
+				t.status.add("FAILED: " + e.getMessage());
+				t.failed++;
+				progress.println(String.format("%s: volume %d failed (%d of %d): %s", t.getName(), v.getVolume(), i, t.volumes.size(), e.getMessage()));
+			} finally {
+				v.getFile().delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns true if all volumes were embossed.
+	 * @param targets the devices and their volumes
+	 * @return true if all volumes were embossed, false otherwise
+	 */
+	static boolean isDone(List<Target> targets) {
+		for (Target t : targets) {
+			if (t.failed>0 || t.status.size()<t.volumes.size()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a collation sheet listing the volumes embossed on each device, in
+	 * the order they were sent.
+	 * @param out the output stream
+	 * @param input the PEF-file
+	 * @param copies the number of copies of each volume
+	 * @param targets the devices and their volumes
+	 */
+	static void writeCollationSheet(PrintStream out, File input, int copies, List<Target> targets) {
+		out.println("Source: " + input.getAbsolutePath());
+		out.println("Copies: " + copies);
+		for (Target t : targets) {
+			out.println("Device: " + t.getName() + " (" + t.getVolumes().size() + " volume(s), " + t.getPageCount() + " pages)");
+			for (int i=0; i<t.getVolumes().size(); i++) {
+				VolumeRenderer.Volume v = t.getVolumes().get(i);
+				out.println(String.format("\tvolume %d\tpages %d-%d\t%s",
+						v.getVolume(), v.getPages().getFrom(), v.getPages().getTo(), i<t.status.size()?t.status.get(i):"not sent"));
+			}
+		}
+	}
+
+}
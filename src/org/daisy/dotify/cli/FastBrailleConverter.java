@@ -0,0 +1,103 @@
+package org.daisy.dotify.cli;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.daisy.dotify.api.table.BrailleConverter;
+
+/**
+ * <p>Converts unicode braille into text using a precomputed lookup array
+ * for the 256 braille patterns (U+2800-U+28FF). The array is created from
+ * a {@link BrailleConverter}, which is also used as a fallback for input
+ * that cannot be mapped one cell to one character.</p>
+ *
+ * <p>The output is built in a buffer that is reused between calls, so an
+ * instance must not be shared between threads.</p>
+ */
+class FastBrailleConverter {
+	private static final char BRAILLE_BASE = 0x2800;
+	private static final int BRAILLE_PATTERNS = 256;
+	private static final char UNMAPPED = 0xFFFF;
+	private final BrailleConverter fallback;
+	private final char[] lookup;
+	private char[] buffer;
+
+	/**
+	 * Creates a new converter.
+	 * @param bc the braille converter to precompute the lookup array from
+	 */
+	FastBrailleConverter(BrailleConverter bc) {
+		this.fallback = bc;
+		this.lookup = new char[BRAILLE_PATTERNS];
+		for (int i=0; i<BRAILLE_PATTERNS; i++) {
+			try {
+				String s = bc.toText(String.valueOf((char)(BRAILLE_BASE+i)));
+				lookup[i] = s.length()==1 ? s.charAt(0) : UNMAPPED;
+			} catch (RuntimeException e) {
+				// the pattern isn't supported by the table, let the fallback decide
+				lookup[i] = UNMAPPED;
+			}
+		}
+		this.buffer = new char[256];
+	}
+
+	/**
+	 * Converts braille into text.
+	 * @param braille the braille
+	 * @return the text
+	 */
+	String toText(CharSequence braille) {
+		int len = map(braille);
+		return len<0 ? fallback.toText(braille.toString()) : new String(buffer, 0, len);
+	}
+
+	/**
+	 * Converts braille into text and writes the result to the specified writer.
+	 * @param braille the braille
+	 * @param out the writer
+	 * @throws IOException if an i/o error occurs
+	 */
+	void write(CharSequence braille, Writer out) throws IOException {
+		int len = map(braille);
+		if (len<0) {
+			out.write(fallback.toText(braille.toString()));
+		} else {
+			out.write(buffer, 0, len);
+		}
+	}
+
+	/**
+	 * Converts braille into text and appends the result to the specified string builder.
+	 * @param braille the braille
+	 * @param sb the string builder
+	 */
+	void append(CharSequence braille, StringBuilder sb) {
+		int len = map(braille);
+		if (len<0) {
+			sb.append(fallback.toText(braille.toString()));
+		} else {
+			sb.append(buffer, 0, len);
+		}
+	}
+
+	/**
+	 * Maps the input into the buffer.
+	 * @return the number of characters in the buffer, or -1 if the input contains
+	 * 			characters that cannot be mapped using the lookup array
+	 */
+	private int map(CharSequence braille) {
+		int len = braille.length();
+		if (buffer.length<len) {
+			buffer = new char[Math.max(len, buffer.length*2)];
+		}
+		for (int i=0; i<len; i++) {
+			int index = braille.charAt(i)-BRAILLE_BASE;
+			if (index<0 || index>=BRAILLE_PATTERNS || lookup[index]==UNMAPPED) {
+				return -1;
+			}
+			buffer[i] = lookup[index];
+		}
+		return len;
+	}
+
+}
@@ -26,11 +26,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathExpressionException;
-
 import org.daisy.braille.utils.pef.PEFBook;
 import org.daisy.braille.utils.pef.PEFBookLoader;
 import org.daisy.braille.utils.pef.PEFSearchIndex;
@@ -47,7 +45,6 @@ import org.daisy.streamline.cli.ExitCode;
 import org.daisy.streamline.cli.OptionalArgument;
 import org.daisy.streamline.cli.SwitchArgument;
 import org.daisy.streamline.cli.SwitchMap;
-import org.xml.sax.SAXException;
 
 /**
  * Provides a UI for finding PEF-files. Not for public use.
@@ -63,14 +60,18 @@ class FindPEF implements CommandDetails {
 	private static final String FOLDER_KEY = "folder";
 	private static final String RECURSIVE_KEY = "recursive";
 	private static final String INTERACTIVE_KEY = "interactive";
+	private static final String REBUILD_KEY = "rebuild";
+	private static final String THREADS_KEY = "threads";
 
 	public FindPEF() {
 		reqArgs = new ArrayList<Argument>();
 		optionalArgs = new ArrayList<OptionalArgument>();
 		optionalArgs.add(new OptionalArgument(FOLDER_KEY, "Folder path", (new File("")).getAbsolutePath()));
+		optionalArgs.add(new OptionalArgument(THREADS_KEY, "The number of files to read at the same time", String.valueOf(Runtime.getRuntime().availableProcessors())));
 		this.switches = new SwitchMap.Builder()
 				.addSwitch(new SwitchArgument('r', RECURSIVE_KEY, "true", "Include subfolders in the scan."))
 				.addSwitch(new SwitchArgument('i', INTERACTIVE_KEY, "true", "Starts an interactive shell for repeated queries."))
+				.addSwitch(new SwitchArgument('b', REBUILD_KEY, "true", "Rebuilds the index instead of updating the stored index."))
 				.build();
 		this.parser = CommandParser.create(this);
 	}
@@ -94,23 +95,39 @@ class FindPEF implements CommandDetails {
 		}
 
 		boolean recursive = Boolean.parseBoolean(pr.getOptional().get(RECURSIVE_KEY));
+		PEFIndexCache cache = PEFIndexCache.newInstance(dir, recursive);
+		if (!Boolean.parseBoolean(pr.getOptional().get(REBUILD_KEY))) {
+			cache.read();
+		}
 		System.out.println("Scanning books. Wait a while...");
-		PEFSearchIndex search = new PEFSearchIndex();
-		PEFBookLoader loader = new PEFBookLoader();
 		String ext = ".pef";
 		Collection<File> coll = recursive ? FileIO.listFilesRecursive(dir, ext) : Arrays.asList(dir.listFiles((parent, name)->name.endsWith(ext)));
-		for (File f : coll) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String threadsStr = pr.getOptional().get(THREADS_KEY);
+		if (threadsStr!=null && !"".equals(threadsStr)) {
 			try {
-				PEFBook p = loader.load(f);
-				if (p!=null) {
-					search.add(p);
-				}
-			} catch (XPathExpressionException | ParserConfigurationException | SAXException | IOException e) {
-				//e.printStackTrace();
+				threads = Math.max(1, Integer.parseInt(threadsStr));
+			} catch (NumberFormatException e) {
+				System.out.println("Ignoring argument -"+ THREADS_KEY +"=" + threadsStr);
+			}
+		}
+		try {
+			cache.update(coll, new PEFBookLoader(), threads, System.out);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.out.println("Interrupted while scanning.");
+			ExitCode.INTERNAL_ERROR.exitSystem();
+		}
+		System.out.println(String.format("%d file(s) indexed, %d loaded, %d removed.", cache.size(), cache.getLoaded(), cache.getRemoved()));
+		cache.write();
+		Map<String, String> failures = cache.getFailures();
+		if (!failures.isEmpty()) {
+			System.out.println(failures.size() + " file(s) could not be read:");
+			for (Map.Entry<String, String> e : failures.entrySet()) {
+				System.out.println("\t" + e.getKey() + ": " + e.getValue());
 			}
-    		System.out.print(".");
 		}
-		System.out.println();
+		PEFSearchIndex search = cache.newSearchIndex();
 		Collection<Detail> c = new ArrayList<>();
 		c.add(new URIDetail());
 		c.addAll(DetailSet.DEFAULT.newDetailSet());
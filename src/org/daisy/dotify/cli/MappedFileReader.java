@@ -0,0 +1,167 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Reads a UTF-8 encoded file through a sliding memory mapped window. This
+ * avoids copying the file through intermediate stream buffers and supports
+ * files larger than 2 GB.</p>
+ *
+ * <p>Characters that are split between two windows are carried over to the
+ * next window. Since all of the input is available without blocking,
+ * {@link #ready()} returns true until the end of the file is reached.</p>
+ */
+class MappedFileReader extends Reader {
+	static final int DEFAULT_WINDOW_SIZE = 16*1024*1024;
+	// the longest UTF-8 sequence must fit in a window
+	private static final int MIN_WINDOW_SIZE = 4;
+	private final FileChannel channel;
+	private final long size;
+	private final int windowSize;
+	private final Progress progress;
+	private final CharsetDecoder decoder;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long offset;
+	// holds a surrogate pair that didn't fit in the caller's buffer
+	private final CharBuffer pending;
+	private boolean flushing;
+	private boolean finished;
+
+	/**
+	 * Provides progress updates.
+	 */
+	@FunctionalInterface
+	interface Progress {
+		/**
+		 * Called when a new part of the file is about to be read.
+		 * @param position the number of bytes read so far
+		 * @param size the file size
+		 */
+		void update(long position, long size);
+	}
+
+	/**
+	 * Creates a new reader.
+	 * @param file the file
+	 * @param windowSize the size of the mapped window, in bytes, at least the length of the longest UTF-8 sequence
+	 * @param progress a progress listener, or null
+	 * @throws IOException if the file cannot be opened
+	 * @throws IllegalArgumentException if the window size is too small
+	 */
+	MappedFileReader(File file, int windowSize, Progress progress) throws IOException {
+		if (windowSize<MIN_WINDOW_SIZE) {
+			throw new IllegalArgumentException("Window size must be at least " + MIN_WINDOW_SIZE + " bytes: " + windowSize);
+		}
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.size = channel.size();
+		this.windowSize = windowSize;
+		this.progress = progress;
+		this.decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.window = null;
+		this.windowStart = 0;
+		this.offset = 0;
+		this.pending = CharBuffer.allocate(2);
+		pending.flip();
+		this.flushing = false;
+		this.finished = false;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len==0) {
+			return 0;
+		}
+		CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+		drainPending(out);
+		while (out.position()==off && !finished) {
+			if (decode(out).isOverflow() && out.position()==off) {
+				// there's no room for the next character, which is a surrogate pair
+				pending.clear();
+				while (pending.position()==0 && !finished) {
+					decode(pending);
+				}
+				pending.flip();
+				drainPending(out);
+			}
+		}
+		int ret = out.position()-off;
+		return ret==0 ? -1 : ret;
+	}
+
+	/**
+	 * Decodes the next part of the file, mapping the next window if needed.
+	 * @param out the output buffer
+	 * @return the result of the decoder
+	 * @throws IOException if an i/o error occurs
+	 */
+	private CoderResult decode(CharBuffer out) throws IOException {
+		if (flushing) {
+			CoderResult cr = decoder.flush(out);
+			if (cr.isUnderflow()) {
+				finished = true;
+				report(size);
+			}
+			return cr;
+		}
+		if (window==null) {
+			map();
+		}
+		boolean last = windowStart+window.limit()==size;
+		CoderResult cr = decoder.decode(window, out, last);
+		if (cr.isUnderflow()) {
+			if (last) {
+				flushing = true;
+			} else {
+				// continue with the next window, including any incomplete character
+				offset = windowStart+window.position();
+				window = null;
+			}
+		} else if (cr.isError()) {
+			cr.throwException();
+		}
+		return cr;
+	}
+
+	private void drainPending(CharBuffer out) {
+		while (pending.hasRemaining() && out.hasRemaining()) {
+			out.put(pending.get());
+		}
+	}
+
+	private void map() throws IOException {
+		report(offset);
+		windowStart = offset;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, size-windowStart));
+	}
+
+	private void report(long position) {
+		if (progress!=null) {
+			progress.update(position, size);
+		}
+	}
+
+	@Override
+	public boolean ready() throws IOException {
+		return !finished || pending.hasRemaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+}
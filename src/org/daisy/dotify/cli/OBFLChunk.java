@@ -0,0 +1,283 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>Provides the OBFL of one chunk of a document, see {@link ChunkedConverter}.
+ * The OBFL can be adjusted so that the chunk continues the page and volume
+ * numbering of the chunks before it.</p>
+ *
+ * <p>Page numbers are continued by setting the initial page number of the first
+ * sequence. Volume numbers are continued by rewriting the volume number and volume
+ * count variables in the <code>use-when</code> and <code>expression</code>
+ * attributes, for example <code>$volume</code> into <code>(+ $volume 2)</code>.</p>
+ */
+class OBFLChunk {
+	private static final String OBFL_NS = "http://www.daisy.org/ns/2011/obfl";
+	private static final String SEQUENCE = "sequence";
+	private static final String VOLUME_TEMPLATE = "volume-template";
+	private static final String VOLUME_TRANSITION = "volume-transition";
+	private static final String INITIAL_PAGE_NUMBER = "initial-page-number";
+	private static final String SHEETS_IN_VOLUME_MAX = "sheets-in-volume-max";
+	private static final String STARTED_VOLUME_NUMBER = "started-volume-number";
+	private static final int DEFAULT_SHEETS_IN_VOLUME_MAX = 50;
+	// large enough to keep each volume group in a single volume
+	private static final String LAYOUT_SHEETS_IN_VOLUME_MAX = "100000";
+	private final Document doc;
+	private final List<Element> sequences;
+	private final Set<String> volumeVariables;
+	private final Set<String> volumeCountVariables;
+
+	private OBFLChunk(Document doc) {
+		this.doc = doc;
+		this.sequences = children(doc.getDocumentElement(), SEQUENCE);
+		this.volumeVariables = new HashSet<>();
+		this.volumeCountVariables = new HashSet<>();
+		volumeVariables.add("volume");
+		volumeVariables.add(STARTED_VOLUME_NUMBER);
+		volumeCountVariables.add("volumes");
+		for (Element e : children(doc.getDocumentElement(), VOLUME_TEMPLATE)) {
+			if (e.hasAttribute("volume-number-variable")) {
+				volumeVariables.add(e.getAttribute("volume-number-variable"));
+			}
+			if (e.hasAttribute("volume-count-variable")) {
+				volumeCountVariables.add(e.getAttribute("volume-count-variable"));
+			}
+		}
+	}
+
+	/**
+	 * Loads an OBFL-file.
+	 * @param f the file
+	 * @return a new chunk
+	 * @throws IOException if the file cannot be read
+	 */
+	static OBFLChunk load(File f) throws IOException {
+		try {
+			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+			dbf.setNamespaceAware(true);
+			return new OBFLChunk(dbf.newDocumentBuilder().parse(f));
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException("Failed to read " + f, e);
+		}
+	}
+
+	/**
+	 * Gets the number of sequences in the body of the document, that is, not
+	 * counting the sequences in volume templates.
+	 * @return the number of sequences
+	 */
+	int getSequenceCount() {
+		return sequences.size();
+	}
+
+	/**
+	 * Gets the name of the layout master of a sequence.
+	 * @param i the sequence index
+	 * @return the name of the layout master
+	 */
+	String getMaster(int i) {
+		return sequences.get(i).getAttribute("master");
+	}
+
+	/**
+	 * Gets the initial page number of a sequence.
+	 * @param i the sequence index
+	 * @return the initial page number, or null if the sequence continues the page numbering
+	 */
+	Integer getInitialPageNumber(int i) {
+		try {
+			return sequences.get(i).hasAttribute(INITIAL_PAGE_NUMBER) ? Integer.valueOf(sequences.get(i).getAttribute(INITIAL_PAGE_NUMBER).trim()) : null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true if a sequence uses a named page counter, in which case
+	 * it doesn't affect the default page numbering.
+	 * @param i the sequence index
+	 * @return true if the sequence uses a named page counter, false otherwise
+	 */
+	boolean hasPageNumberCounter(int i) {
+		return sequences.get(i).hasAttribute("page-number-counter");
+	}
+
+	/**
+	 * Gets the smallest maximum number of sheets in a volume of the volume templates.
+	 * @return the number of sheets
+	 */
+	int getSheetsInVolumeMax() {
+		int ret = Integer.MAX_VALUE;
+		for (Element e : children(doc.getDocumentElement(), VOLUME_TEMPLATE)) {
+			try {
+				ret = Math.min(ret, Integer.parseInt(e.getAttribute(SHEETS_IN_VOLUME_MAX).trim()));
+			} catch (NumberFormatException ex) {
+				ret = Math.min(ret, DEFAULT_SHEETS_IN_VOLUME_MAX);
+			}
+		}
+		return ret==Integer.MAX_VALUE ? DEFAULT_SHEETS_IN_VOLUME_MAX : ret;
+	}
+
+	/**
+	 * Returns true if the document has a volume transition, which may add content to
+	 * the body pages at volume breaks.
+	 * @return true if the document has a volume transition, false otherwise
+	 */
+	boolean hasVolumeTransition() {
+		return !children(doc.getDocumentElement(), VOLUME_TRANSITION).isEmpty();
+	}
+
+	/**
+	 * Writes a copy of the document that is used for counting the body pages of each sequence.
+	 * The copy has no volume pre- or post-content and no volume transition, and each volume
+	 * group is kept in a single volume, so that each sequence becomes exactly one section.
+	 * @param out the output file
+	 * @throws IOException if the file cannot be written
+	 */
+	void writeLayout(File out) throws IOException {
+		Document copy = (Document)doc.cloneNode(true);
+		Element root = copy.getDocumentElement();
+		for (Element e : children(root, VOLUME_TRANSITION)) {
+			root.removeChild(e);
+		}
+		List<Element> templates = children(root, VOLUME_TEMPLATE);
+		for (Element e : templates) {
+			while (e.getFirstChild()!=null) {
+				e.removeChild(e.getFirstChild());
+			}
+			e.setAttribute(SHEETS_IN_VOLUME_MAX, LAYOUT_SHEETS_IN_VOLUME_MAX);
+		}
+		List<Element> seqs = children(root, SEQUENCE);
+		if (templates.isEmpty() && !seqs.isEmpty()) {
+			Element e = copy.createElementNS(OBFL_NS, VOLUME_TEMPLATE);
+			e.setAttribute(SHEETS_IN_VOLUME_MAX, LAYOUT_SHEETS_IN_VOLUME_MAX);
+			root.insertBefore(e, seqs.get(0));
+		}
+		write(copy, out);
+	}
+
+	/**
+	 * Writes a copy of the document that continues the numbering of the preceding chunks.
+	 * The volume templates are replaced by those of another chunk, since a chunk may lack
+	 * content that is used in the volume templates, such as the title of the book.
+	 * @param out the output file
+	 * @param initialPageNumber the initial page number of the first sequence, or null to keep it as is
+	 * @param volumeOffset the number of volumes before this chunk
+	 * @param volumes the number of volumes in the whole document
+	 * @param templates the chunk to copy the volume templates from
+	 * @throws IOException if the file cannot be written
+	 */
+	void write(File out, Integer initialPageNumber, int volumeOffset, int volumes, OBFLChunk templates) throws IOException {
+		Document copy = (Document)doc.cloneNode(true);
+		Element root = copy.getDocumentElement();
+		List<Element> seqs = children(root, SEQUENCE);
+		if (templates!=this) {
+			List<Element> own = children(root, VOLUME_TEMPLATE);
+			Node ref = !own.isEmpty() ? own.get(0) : !seqs.isEmpty() ? seqs.get(0) : null;
+			for (Element e : children(templates.doc.getDocumentElement(), VOLUME_TEMPLATE)) {
+				root.insertBefore(copy.importNode(e, true), ref);
+			}
+			for (Element e : own) {
+				root.removeChild(e);
+			}
+		}
+		if (initialPageNumber!=null && !seqs.isEmpty()) {
+			seqs.get(0).setAttribute(INITIAL_PAGE_NUMBER, String.valueOf(initialPageNumber));
+		}
+		Set<String> vv = new HashSet<>(volumeVariables);
+		vv.addAll(templates.volumeVariables);
+		Set<String> cv = new HashSet<>(volumeCountVariables);
+		cv.addAll(templates.volumeCountVariables);
+		adjustExpressions(root, vv, cv, volumeOffset, volumes);
+		write(copy, out);
+	}
+
+	private static void adjustExpressions(Element e, Set<String> volumeVariables, Set<String> volumeCountVariables, int volumeOffset, int volumes) {
+		NamedNodeMap atts = e.getAttributes();
+		for (int i=0; i<atts.getLength(); i++) {
+			Node a = atts.item(i);
+			String name = a.getLocalName()!=null ? a.getLocalName() : a.getNodeName();
+			if ("use-when".equals(name) || "expression".equals(name)) {
+				a.setNodeValue(adjustExpression(a.getNodeValue(), volumeVariables, volumeCountVariables, volumeOffset, volumes));
+			}
+		}
+		NodeList nl = e.getChildNodes();
+		for (int i=0; i<nl.getLength(); i++) {
+			if (nl.item(i).getNodeType()==Node.ELEMENT_NODE) {
+				adjustExpressions((Element)nl.item(i), volumeVariables, volumeCountVariables, volumeOffset, volumes);
+			}
+		}
+	}
+
+	/**
+	 * Adjusts the volume variables in an expression.
+	 * @param expr the expression
+	 * @param volumeVariables the names of the variables containing a volume number
+	 * @param volumeCountVariables the names of the variables containing the number of volumes
+	 * @param volumeOffset the value to add to volume numbers
+	 * @param volumes the number of volumes
+	 * @return the adjusted expression
+	 */
+	static String adjustExpression(String expr, Set<String> volumeVariables, Set<String> volumeCountVariables, int volumeOffset, int volumes) {
+		Matcher m = Pattern.compile("\\$([\\w-]+)").matcher(expr);
+		StringBuffer sb = new StringBuffer();
+		while (m.find()) {
+			String replacement = m.group();
+			if (volumeCountVariables.contains(m.group(1))) {
+				replacement = String.valueOf(volumes);
+			} else if (volumeVariables.contains(m.group(1)) && volumeOffset!=0) {
+				replacement = "(+ " + m.group() + " " + volumeOffset + ")";
+			}
+			m.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+		}
+		m.appendTail(sb);
+		return sb.toString();
+	}
+
+	private static List<Element> children(Element parent, String localName) {
+		List<Element> ret = new ArrayList<>();
+		NodeList nl = parent.getChildNodes();
+		for (int i=0; i<nl.getLength(); i++) {
+			Node n = nl.item(i);
+			if (n.getNodeType()==Node.ELEMENT_NODE && OBFL_NS.equals(n.getNamespaceURI()) && localName.equals(n.getLocalName())) {
+				ret.add((Element)n);
+			}
+		}
+		return ret;
+	}
+
+	private static void write(Document d, File out) throws IOException {
+		try {
+			Transformer t = TransformerFactory.newInstance().newTransformer();
+			t.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+			t.transform(new DOMSource(d), new StreamResult(out));
+		} catch (TransformerException e) {
+			throw new IOException("Failed to write " + out, e);
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.daisy.dotify.cli;
+
+import org.daisy.streamline.cli.ExitCode;
+
+/**
+ * Provides parsing of option values given on the command line.
+ */
+final class OptionValues {
+
+	private OptionValues() {}
+
+	/**
+	 * Parses a positive integer. Values less than 1 are interpreted as 1. If the
+	 * value cannot be parsed, the system exits with {@link ExitCode#ILLEGAL_ARGUMENT_VALUE}.
+	 * @param key the option key, used in the error message
+	 * @param value the value, may be null
+	 * @param def the value to use if the value is null or empty
+	 * @return the parsed value
+	 */
+	static int parsePositiveInt(String key, String value, int def) {
+		if (value==null || "".equals(value)) {
+			return def;
+		}
+		try {
+			return Math.max(Integer.parseInt(value), 1);
+		} catch (NumberFormatException e) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Could not parse " + key + " value '" + value + "' as an integer.");
+			return def;
+		}
+	}
+
+	/**
+	 * Parses an integer within a range. If the value cannot be parsed or is out of
+	 * range, the system exits with {@link ExitCode#ILLEGAL_ARGUMENT_VALUE}.
+	 * @param key the option key, used in the error message
+	 * @param value the value, may be null
+	 * @param def the value to use if the value is null or empty
+	 * @param min the smallest allowed value
+	 * @param max the largest allowed value
+	 * @return the parsed value
+	 */
+	static int parseInt(String key, String value, int def, int min, int max) {
+		if (value==null || "".equals(value)) {
+			return def;
+		}
+		int ret;
+		try {
+			ret = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Could not parse " + key + " value '" + value + "' as an integer.");
+			return def;
+		}
+		if (ret<min || ret>max) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("The " + key + " value must be between " + min + " and " + max + ": " + value);
+			return def;
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,281 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.daisy.braille.utils.pef.PEFBook;
+import org.daisy.braille.utils.pef.PEFBookLoader;
+import org.daisy.braille.utils.pef.PEFSearchIndex;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>Provides a persistent index of the books in a folder. The metadata of each
+ * PEF-file is stored together with the size and modification time of the file,
+ * so that only new and modified files have to be loaded again. Files that no
+ * longer exist are removed from the index.</p>
+ *
+ * <p>Files that cannot be loaded are also stored, together with the reason,
+ * so that they aren't loaded again until they are modified.</p>
+ */
+class PEFIndexCache {
+	private static final Logger logger = Logger.getLogger(PEFIndexCache.class.getCanonicalName());
+	// increase when the format of the stored entries changes
+	private static final int VERSION = 2;
+	private final File file;
+	private Map<String, Entry> entries;
+	private int loaded;
+	private int removed;
+
+	/**
+	 * The metadata of a PEF-file.
+	 */
+	private static class Entry implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final long size;
+		private final long modified;
+		private final PEFBook book;
+		private final String error;
+
+		private Entry(long size, long modified, PEFBook book, String error) {
+			this.size = size;
+			this.modified = modified;
+			this.book = book;
+			this.error = error;
+		}
+
+		private boolean isCurrent(File f) {
+			return f.length()==size && f.lastModified()==modified;
+		}
+	}
+
+	/**
+	 * Creates a new index cache.
+	 * @param file the cache file
+	 */
+	PEFIndexCache(File file) {
+		this.file = file;
+		this.entries = new HashMap<>();
+		this.loaded = 0;
+		this.removed = 0;
+	}
+
+	/**
+	 * Creates an index cache for a folder in the default location, see {@link CacheFolder#getDefault()}.
+	 * @param dir the folder
+	 * @param recursive true if subfolders are included, false otherwise
+	 * @return a new index cache
+	 */
+	static PEFIndexCache newInstance(File dir, boolean recursive) {
+		String key = dir.getAbsoluteFile().toURI() + "|" + recursive;
+		return new PEFIndexCache(new File(new File(CacheFolder.getDefault(), "index"), hash(key) + ".idx"));
+	}
+
+	/**
+	 * Reads the stored index, if any. An index that cannot be read is ignored.
+	 */
+	@SuppressWarnings("unchecked")
+	void read() {
+		if (!file.isFile()) {
+			return;
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt()==VERSION) {
+				entries = (Map<String, Entry>)in.readObject();
+			}
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			logger.log(Level.FINE, "Cannot read index: " + file, e);
+			entries = new HashMap<>();
+		}
+	}
+
+	/**
+	 * Updates the index with the specified files. Files that are new or have been
+	 * modified since they were indexed are loaded, and files that aren't in the
+	 * collection are removed. The files are loaded in parallel.
+	 * @param files the PEF-files
+	 * @param loader the loader
+	 * @param threads the maximum number of files to load at the same time
+	 * @param progress the progress output
+	 * @throws InterruptedException if interrupted while loading
+	 */
+	void update(Collection<File> files, PEFBookLoader loader, int threads, PrintStream progress) throws InterruptedException {
+		Map<String, Entry> updated = new ConcurrentHashMap<>();
+		List<File> stale = new ArrayList<>();
+		for (File f : files) {
+			String path = f.getAbsolutePath();
+			Entry e = entries.get(path);
+			if (e==null || !e.isCurrent(f)) {
+				stale.add(f);
+			} else {
+				updated.put(path, e);
+			}
+		}
+		loaded = stale.size();
+		if (!stale.isEmpty()) {
+			AtomicInteger done = new AtomicInteger(0);
+			AtomicInteger threadIndex = new AtomicInteger(1);
+			ExecutorService es = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, stale.size())), r->{
+				Thread t = new Thread(r, "dotify-find-" + threadIndex.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			});
+			try {
+				for (File f : stale) {
+					es.execute(()->{
+						updated.put(f.getAbsolutePath(), load(f, loader));
+						int i = done.incrementAndGet();
+						synchronized (progress) {
+							progress.print(String.format("\rLoaded %d of %d", i, stale.size()));
+						}
+					});
+				}
+				es.shutdown();
+				es.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} finally {
+				es.shutdownNow();
+			}
+			progress.println();
+		}
+		removed = 0;
+		for (String path : entries.keySet()) {
+			if (!updated.containsKey(path)) {
+				removed++;
+			}
+		}
+		entries = new HashMap<>(updated);
+	}
+
+	private static Entry load(File f, PEFBookLoader loader) {
+		// read the size and time before loading, so that a file modified while loading is loaded again next time
+		long size = f.length();
+		long modified = f.lastModified();
+		try {
+			PEFBook p = loader.load(f);
+			return new Entry(size, modified, p, p!=null ? null : "Not a PEF-file.");
+		} catch (XPathExpressionException | ParserConfigurationException | SAXException | IOException | RuntimeException e) {
+			logger.log(Level.FINE, "Cannot load " + f, e);
+			return new Entry(size, modified, null, e.getMessage()!=null ? e.getMessage() : e.getClass().getSimpleName());
+		}
+	}
+
+	/**
+	 * Writes the index, if it has changed since it was read.
+	 */
+	void write() {
+		if (loaded==0 && removed==0 && file.isFile()) {
+			return;
+		}
+		try {
+			File dir = file.getAbsoluteFile().getParentFile();
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				logger.fine("Cannot create index folder: " + dir);
+				return;
+			}
+			// write to a temporary file first, so that readers never see a partial index
+			File tmp = new File(dir, file.getName() + ".tmp");
+			try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				out.writeInt(VERSION);
+				out.writeObject(entries);
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Cannot write index: " + file, e);
+		}
+	}
+
+	/**
+	 * Creates a search index of the books.
+	 * @return a new search index
+	 */
+	PEFSearchIndex newSearchIndex() {
+		PEFSearchIndex search = new PEFSearchIndex();
+		for (Entry e : entries.values()) {
+			if (e.book!=null) {
+				search.add(e.book);
+			}
+		}
+		return search;
+	}
+
+	/**
+	 * Gets the files in the index that cannot be loaded.
+	 * @return the paths of the files and the reasons, sorted by path
+	 */
+	SortedMap<String, String> getFailures() {
+		SortedMap<String, String> ret = new TreeMap<>();
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			if (e.getValue().book==null) {
+				ret.put(e.getKey(), e.getValue().error);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets the number of files in the index.
+	 * @return the number of files
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the number of files loaded by the last update.
+	 * @return the number of files
+	 */
+	int getLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Gets the number of files removed by the last update.
+	 * @return the number of files
+	 */
+	int getRemoved() {
+		return removed;
+	}
+
+	private static String hash(String key) {
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8))) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is required on all Java platforms
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
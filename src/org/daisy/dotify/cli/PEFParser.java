@@ -17,20 +17,26 @@
  */
 package org.daisy.dotify.cli;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import org.daisy.dotify.api.embosser.Embosser;
 import org.daisy.dotify.api.embosser.EmbosserCatalog;
+import org.daisy.dotify.api.embosser.EmbosserFeatures;
 import org.daisy.dotify.api.embosser.StandardLineBreaks;
 import org.daisy.dotify.api.factory.Factory;
 import org.daisy.dotify.api.factory.FactoryCatalog;
 import org.daisy.dotify.api.factory.FactoryProperties;
 import org.daisy.dotify.api.table.TableCatalog;
 import org.daisy.braille.utils.pef.PEFConverterFacade;
+import org.daisy.braille.utils.pef.PEFHandler;
+import org.daisy.braille.utils.pef.Range;
 import org.daisy.streamline.cli.Argument;
 import org.daisy.streamline.cli.CommandDetails;
 import org.daisy.streamline.cli.CommandParser;
@@ -52,38 +58,15 @@ class PEFParser implements CommandDetails {
 	private final List<Argument> reqArgs;
 	private final List<OptionalArgument> optionalArgs;
 	//private final ShortFormResolver embosserSF;
-	private final ShortFormResolver tableSF;
 	private final CommandParser parser;
+	private ShortFormResolver tableSF;
 	
 	public PEFParser() {
 		reqArgs = new ArrayList<Argument>();
 		reqArgs.add(new Argument("input", "path to the input file"));
 		reqArgs.add(new Argument("output", "path to the output file"));
+		//Use lazy loading of argument details
 		optionalArgs = new ArrayList<OptionalArgument>();
-		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_RANGE, "output a range of pages", "1-"));
-		TableCatalog tableCatalog = TableCatalog.newInstance();
-		Collection<String> idents = new ArrayList<>();
-		for (FactoryProperties p : tableCatalog.list()) { idents.add(p.getIdentifier()); }
-		tableSF = new ShortFormResolver(idents);
-		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_TABLE, "braille code table", getDefinitionList(tableCatalog, tableSF), ""));
-		/*
-		EmbosserCatalog embosserCatalog = EmbosserCatalog.newInstance();
-		embosserSF = new ShortFormResolver(embosserCatalog.list());
-		System.out.println(embosserSF.getShortForm(org_daisy.GenericEmbosserProvider.class.getCanonicalName()+".EmbosserType.NONE"));
-		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_EMBOSSER, "target embosser", getDefinitionList(embosserCatalog, embosserSF), embosserSF.getShortForm(org_daisy.GenericEmbosserProvider.class.getCanonicalName()+".EmbosserType.NONE")));
-		*/
-		List<Definition> lbDefs = new ArrayList<Definition>();
-		lbDefs.add(new Definition(StandardLineBreaks.Type.DEFAULT.toString(), "System default line breaks"));
-		lbDefs.add(new Definition(StandardLineBreaks.Type.DOS.toString(), "DOS/Windows line breaks"));
-		lbDefs.add(new Definition(StandardLineBreaks.Type.MAC.toString(), "Mac line breaks"));
-		lbDefs.add(new Definition(StandardLineBreaks.Type.UNIX.toString(), "Unix/Linux line breaks"));
-		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_BREAKS, "line break style", lbDefs, ""));
-		List<Definition> fallbackDefs = new ArrayList<Definition>();
-		fallbackDefs.add(new Definition("mask", "Mask the 8-dot pattern as a 6-dot pattern by ignoring dots 7 and 8"));
-		fallbackDefs.add(new Definition("replace", "Replace the 8-dot pattern with a fixed 6-dot character"));
-		fallbackDefs.add(new Definition("remove", "Remove the 8-dot pattern (shortens row)"));
-		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_FALLBACK, "8-dot fallback method", fallbackDefs, ""));
-		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_REPLACEMENT, "replacement character, expressed as a hexadecimal number representing the unicode code point of the replacement character (in the range 2800-283F)", "2800"));
 		this.parser = CommandParser.create(this);
 	}
 	
@@ -110,15 +93,17 @@ class PEFParser implements CommandDetails {
 				
 				// expand short forms, if any
 				//ui.expandShortForm(p, PEFConverterFacade.KEY_EMBOSSER, ui.embosserSF);
-				try {
-					ui.tableSF.expandShortForm(p, PEFConverterFacade.KEY_TABLE);
-				} catch (IllegalArgumentException e) {
-					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+				if (p.containsKey(PEFConverterFacade.KEY_TABLE)) {
+					try {
+						ui.getTableShortFormResolver().expandShortForm(p, PEFConverterFacade.KEY_TABLE);
+					} catch (IllegalArgumentException e) {
+						ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+					}
 				}
 				
                 try ( // run
-                        FileOutputStream os = new FileOutputStream(output)) {
-                    new PEFConverterFacade(EmbosserCatalog.newInstance()).parsePefFile(input, os, null, p);
+                        OutputStream os = new BufferedOutputStream(new FileOutputStream(output))) {
+                    convert(input, os, p);
                 }
 				System.out.println("Done!");
 			} catch (Exception e) {
@@ -127,6 +112,73 @@ class PEFParser implements CommandDetails {
 		}
 	}
 
+	/**
+	 * Converts a PEF-file to text, like {@link PEFConverterFacade#parsePefFile(File, OutputStream, org.daisy.dotify.api.paper.PageFormat, Map)},
+	 * but only reads as much of the file as is needed for the requested range.
+	 * @param input the PEF-file
+	 * @param os the output stream
+	 * @param p the settings, using the keys of {@link PEFConverterFacade}
+	 * @throws IllegalArgumentException if the input doesn't exist or if an option is unknown
+	 * @throws Exception if the conversion fails
+	 */
+	static void convert(File input, OutputStream os, Map<String, String> p) throws Exception {
+		if (!input.exists()) {
+			throw new IllegalArgumentException("Input does not exist");
+		}
+		EmbosserCatalog ec = EmbosserCatalog.newInstance();
+		Embosser emb = ec.newEmbosser(p.remove(PEFConverterFacade.KEY_EMBOSSER));
+		if (emb==null) {
+			emb = ec.newEmbosser("org_daisy.GenericEmbosserProvider.EmbosserType.NONE");
+		}
+		Range range = null;
+		PEFHandler.Alignment align = PEFHandler.Alignment.CENTER_OUTER;
+		int offset = 0;
+		for (Map.Entry<String, String> e : p.entrySet()) {
+			String key = e.getKey();
+			String value = e.getValue();
+			switch (key) {
+				case PEFConverterFacade.KEY_TABLE:
+					emb.setFeature(EmbosserFeatures.TABLE, value);
+					break;
+				case PEFConverterFacade.KEY_BREAKS:
+					emb.setFeature("breaks", value);
+					break;
+				case PEFConverterFacade.KEY_FALLBACK:
+					emb.setFeature(EmbosserFeatures.UNSUPPORTED_CELL_FALLBACK_METHOD, value);
+					break;
+				case PEFConverterFacade.KEY_REPLACEMENT:
+					emb.setFeature(EmbosserFeatures.UNSUPPORTED_CELL_REPLACEMENT, value);
+					break;
+				case PEFConverterFacade.KEY_CELL_WIDTH:
+					emb.setFeature(EmbosserFeatures.CELL_WIDTH, value);
+					break;
+				case PEFConverterFacade.KEY_CELL_HEIGHT:
+					emb.setFeature(EmbosserFeatures.CELL_HEIGHT, value);
+					break;
+				case PEFConverterFacade.KEY_PADDING:
+					emb.setFeature("padNewline", value);
+					break;
+				case PEFConverterFacade.KEY_RANGE:
+					range = Range.parseRange(value);
+					break;
+				case PEFConverterFacade.KEY_ALIGNMENT_OFFSET:
+					offset = Integer.parseInt(value);
+					break;
+				case PEFConverterFacade.KEY_ALIGN:
+					try {
+						align = "center".equalsIgnoreCase(value) ? PEFHandler.Alignment.CENTER_OUTER : PEFHandler.Alignment.valueOf(value.toUpperCase());
+					} catch (IllegalArgumentException ex) {
+						System.out.println("Unknown value: " + value);
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option \"" + key + "\"");
+			}
+		}
+		PEFHandler ph = new PEFHandler.Builder(emb.newEmbosserWriter(os)).range(range).align(align).offset(offset).build();
+		new RangedPEFReader(range).parse(input, ph);
+	}
+
 	@Override
 	public String getName() {
 		return DotifyCLI.PEF2TEXT;
@@ -144,8 +196,43 @@ class PEFParser implements CommandDetails {
 
 	@Override
 	public List<OptionalArgument> getOptionalArguments() {
+		if (optionalArgs.isEmpty()) {
+			addOptionalArguments();
+		}
 		return optionalArgs;
 	}
+
+	private void addOptionalArguments() {
+		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_RANGE, "output a range of pages", "1-"));
+		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_TABLE, "braille code table", getDefinitionList(TableCatalog.newInstance(), getTableShortFormResolver()), ""));
+		/*
+		EmbosserCatalog embosserCatalog = EmbosserCatalog.newInstance();
+		embosserSF = new ShortFormResolver(embosserCatalog.list());
+		System.out.println(embosserSF.getShortForm(org_daisy.GenericEmbosserProvider.class.getCanonicalName()+".EmbosserType.NONE"));
+		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_EMBOSSER, "target embosser", getDefinitionList(embosserCatalog, embosserSF), embosserSF.getShortForm(org_daisy.GenericEmbosserProvider.class.getCanonicalName()+".EmbosserType.NONE")));
+		*/
+		List<Definition> lbDefs = new ArrayList<Definition>();
+		lbDefs.add(new Definition(StandardLineBreaks.Type.DEFAULT.toString(), "System default line breaks"));
+		lbDefs.add(new Definition(StandardLineBreaks.Type.DOS.toString(), "DOS/Windows line breaks"));
+		lbDefs.add(new Definition(StandardLineBreaks.Type.MAC.toString(), "Mac line breaks"));
+		lbDefs.add(new Definition(StandardLineBreaks.Type.UNIX.toString(), "Unix/Linux line breaks"));
+		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_BREAKS, "line break style", lbDefs, ""));
+		List<Definition> fallbackDefs = new ArrayList<Definition>();
+		fallbackDefs.add(new Definition("mask", "Mask the 8-dot pattern as a 6-dot pattern by ignoring dots 7 and 8"));
+		fallbackDefs.add(new Definition("replace", "Replace the 8-dot pattern with a fixed 6-dot character"));
+		fallbackDefs.add(new Definition("remove", "Remove the 8-dot pattern (shortens row)"));
+		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_FALLBACK, "8-dot fallback method", fallbackDefs, ""));
+		optionalArgs.add(new OptionalArgument(PEFConverterFacade.KEY_REPLACEMENT, "replacement character, expressed as a hexadecimal number representing the unicode code point of the replacement character (in the range 2800-283F)", "2800"));
+	}
+
+	private ShortFormResolver getTableShortFormResolver() {
+		if (tableSF==null) {
+			Collection<String> idents = new ArrayList<>();
+			for (FactoryProperties p : TableCatalog.newInstance().list()) { idents.add(p.getIdentifier()); }
+			tableSF = new ShortFormResolver(idents);
+		}
+		return tableSF;
+	}
 	
 	
 	/**
@@ -0,0 +1,164 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.Translatable;
+import org.daisy.dotify.api.translator.TranslationException;
+import org.daisy.dotify.api.translator.TranslatorConfigurationException;
+
+/**
+ * <p>Translates lines of text on several threads, while preserving the order
+ * of the lines in the output.</p>
+ *
+ * <p>The input is read ahead in blocks of lines. Each block is translated with
+ * a translator borrowed from a {@link TranslatorPool}, since translators aren't
+ * guaranteed to be thread-safe. The number of blocks that are read ahead is bounded, so that
+ * the memory usage doesn't depend on the size of the input.</p>
+ *
+ * <p>Translators that cannot be used by several threads at the same time, such as those
+ * based on liblouis, are lent one at a time by the pool, so the blocks are translated
+ * one after the other in that case.</p>
+ */
+class ParallelTranslator {
+	private final int threads;
+	private final int blockSize;
+	private final int maxPending;
+	private final TranslatorPool pool;
+	private final String locale;
+	private final String mode;
+	private final TranslationCache cache;
+	private final ThreadLocal<FastBrailleConverter> converters;
+
+	/**
+	 * Creates a new parallel translator. The pool is warmed up with one translator per thread.
+	 * @param threads the number of threads
+	 * @param blockSize the maximum number of lines in a block
+	 * @param pool the translator pool
+	 * @param locale the locale
+	 * @param mode the braille mode
+	 * @param cache a translation cache, or null
+	 * @param converters a function providing a braille converter for each worker, or null
+	 * 			if the braille should be written as is
+	 * @throws TranslatorConfigurationException if a translator cannot be created
+	 * @throws InterruptedException if interrupted while creating the translators
+	 */
+	ParallelTranslator(int threads, int blockSize, TranslatorPool pool, String locale, String mode, TranslationCache cache, Supplier<FastBrailleConverter> converters) throws TranslatorConfigurationException, InterruptedException {
+		this.threads = threads;
+		this.blockSize = blockSize;
+		this.maxPending = threads*2;
+		this.pool = pool;
+		this.locale = locale;
+		this.mode = mode;
+		this.cache = cache;
+		this.converters = ThreadLocal.withInitial(()->converters!=null?converters.get():null);
+		pool.setMaxIdle(locale, mode, threads);
+		pool.setMaxActive(locale, mode, threads);
+		pool.warmUp(locale, mode, threads);
+	}
+
+	/**
+	 * Translates the input line by line.
+	 * @param in the input
+	 * @param out the output
+	 * @param bulk true if the output should only be flushed when the input would block,
+	 * 			false to flush after each block
+	 * @throws IOException if an i/o error occurs
+	 */
+	void run(BufferedReader in, Writer out, boolean bulk) throws IOException {
+		AtomicInteger threadIndex = new AtomicInteger(1);
+		ExecutorService es = Executors.newFixedThreadPool(threads, r->{
+			Thread t = new Thread(r, "dotify-translate-" + threadIndex.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+		Deque<Future<String>> pending = new ArrayDeque<>();
+		try {
+			List<String> block;
+			while (!(block = readBlock(in)).isEmpty()) {
+				final List<String> lines = block;
+				pending.add(es.submit(()->translate(lines)));
+				boolean blocked = !in.ready();
+				// write in order, until there is room for another block, or until everything
+				// has been written if the input would block
+				while (pending.size()>=maxPending || (blocked && !pending.isEmpty())) {
+					out.write(get(pending.removeFirst()));
+				}
+				if (!bulk || blocked) {
+					out.flush();
+				}
+			}
+			while (!pending.isEmpty()) {
+				out.write(get(pending.removeFirst()));
+			}
+			out.flush();
+		} finally {
+			es.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads a block of lines. The block ends early if the input would block.
+	 */
+	private List<String> readBlock(BufferedReader in) throws IOException {
+		List<String> ret = new ArrayList<>();
+		String text;
+		while (ret.size()<blockSize && (text=in.readLine())!=null) {
+			ret.add(text);
+			if (!in.ready()) {
+				break;
+			}
+		}
+		return ret;
+	}
+
+	private String translate(List<String> lines) throws TranslatorConfigurationException, InterruptedException {
+		try (TranslatorPool.Lease lease = pool.borrow(locale, mode)) {
+			BrailleTranslator t = cache!=null?cache.decorate(lease.get(), locale):lease.get();
+			FastBrailleConverter bc = converters.get();
+			StringBuilder sb = new StringBuilder();
+			String lineSeparator = System.lineSeparator();
+			for (String text : lines) {
+				try {
+					String braille = t.translate(Translatable.text(text).build()).getTranslatedRemainder();
+					if (bc!=null) {
+						bc.append(braille, sb);
+					} else {
+						sb.append(braille);
+					}
+					sb.append(lineSeparator);
+				} catch (TranslationException e) {
+					e.printStackTrace();
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	private static String get(Future<String> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while translating", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+}
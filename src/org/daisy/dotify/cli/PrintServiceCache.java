@@ -0,0 +1,125 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.print.DocFlavor;
+import javax.print.PrintException;
+import javax.print.PrintService;
+import javax.print.PrintServiceLookup;
+import javax.print.SimpleDoc;
+import javax.print.attribute.HashAttributeSet;
+import javax.print.attribute.standard.PrinterName;
+
+import org.daisy.braille.utils.pef.PrinterDevice;
+import org.daisy.dotify.api.embosser.Device;
+
+/**
+ * <p>Provides a cache of the names of the available print services. Looking up all
+ * print services can take several seconds on a host with many print queues, so the
+ * names are stored in the user's cache folder and reused until they are older
+ * than the time to live.</p>
+ *
+ * <p>A device with a known name is looked up by name, which doesn't require
+ * all print services to be listed.</p>
+ */
+class PrintServiceCache {
+	private static final Logger logger = Logger.getLogger(PrintServiceCache.class.getCanonicalName());
+	static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(10);
+	private static final DocFlavor FLAVOR = DocFlavor.INPUT_STREAM.AUTOSENSE;
+	private final File file;
+	private final long ttl;
+
+	/**
+	 * Creates a new print service cache.
+	 * @param file the cache file
+	 * @param ttl the time to live, in milliseconds
+	 */
+	PrintServiceCache(File file, long ttl) {
+		this.file = file;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Creates a print service cache in the default location, see {@link CacheFolder#getDefault()}.
+	 * @return a new print service cache
+	 */
+	static PrintServiceCache newInstance() {
+		return new PrintServiceCache(new File(CacheFolder.getDefault(), "devices.txt"), DEFAULT_TTL);
+	}
+
+	/**
+	 * Gets the names of the available print services.
+	 * @param refresh true to look up the print services even if the cache is up to date
+	 * @return the names
+	 */
+	List<String> getDeviceNames(boolean refresh) {
+		if (!refresh && file.isFile() && System.currentTimeMillis()-file.lastModified()<ttl) {
+			try {
+				return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Cannot read device cache: " + file, e);
+			}
+		}
+		List<String> ret = new ArrayList<>();
+		for (PrintService ps : PrinterDevice.getDevices()) {
+			ret.add(ps.getName());
+		}
+		store(ret);
+		return ret;
+	}
+
+	private void store(List<String> names) {
+		try {
+			File dir = file.getAbsoluteFile().getParentFile();
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				logger.fine("Cannot create device cache: " + dir);
+				return;
+			}
+			// write to a temporary file first, so that readers never see a partial list
+			File tmp = new File(dir, file.getName() + ".tmp");
+			Files.write(tmp.toPath(), names, StandardCharsets.UTF_8);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Cannot write device cache: " + file, e);
+		}
+	}
+
+	/**
+	 * Creates a device for the print service with the specified name. The print
+	 * service is looked up by name. If there is no print service with exactly this
+	 * name, the device is created like {@link PrinterDevice}, which accepts
+	 * the best partial match.
+	 * @param name the name of the print service
+	 * @return a new device
+	 * @throws IllegalArgumentException if no print service matches the name
+	 */
+	static Device newDevice(String name) {
+		PrintService[] services = PrintServiceLookup.lookupPrintServices(FLAVOR, new HashAttributeSet(new PrinterName(name, null)));
+		for (PrintService ps : services) {
+			if (ps.getName().equals(name)) {
+				return f -> transmit(ps, f);
+			}
+		}
+		return new PrinterDevice(name, true);
+	}
+
+	private static void transmit(PrintService ps, File f) throws PrintException {
+		try (InputStream is = new FileInputStream(f)) {
+			ps.createPrintJob().print(new SimpleDoc(is, FLAVOR, null), null);
+		} catch (IOException e) {
+			throw new PrintException(e);
+		}
+	}
+
+}
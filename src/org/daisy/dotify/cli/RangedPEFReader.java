@@ -0,0 +1,239 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.daisy.braille.utils.pef.PEFHandler;
+import org.daisy.braille.utils.pef.Range;
+import org.daisy.braille.utils.pef.UnsupportedWidthException;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * <p>Provides a PEF reader that only passes the requested pages on to a
+ * {@link PEFHandler}. The pages are counted in the same way as in the
+ * handler, so the result is the same as when the handler reads the entire file
+ * with the same range.</p>
+ *
+ * <p>The rows of pages outside of the range are never passed on, and parsing
+ * stops as soon as a page after the end of the range is reached. Note that
+ * the page width of sections after the range isn't checked.</p>
+ */
+class RangedPEFReader {
+	private static final String PEF_NS = "http://www.daisy.org/ns/2008/pef";
+	private final Range range;
+
+	/**
+	 * Creates a new reader.
+	 * @param range the range of pages to read, or null to read all pages
+	 */
+	RangedPEFReader(Range range) {
+		this.range = range!=null ? range : new Range(1);
+	}
+
+	/**
+	 * Parses a PEF-file. The handler should be created with the same range as this reader.
+	 * @param input the PEF-file
+	 * @param ph the handler
+	 * @return the number of pages within the range
+	 * @throws ParserConfigurationException if the parser cannot be created
+	 * @throws SAXException if the file cannot be parsed
+	 * @throws IOException if an i/o error occurs
+	 * @throws UnsupportedWidthException if the embosser doesn't support the page width
+	 */
+	int parse(File input, PEFHandler ph) throws ParserConfigurationException, SAXException, IOException, UnsupportedWidthException {
+		try {
+			return parse(input, (DefaultHandler)ph);
+		} catch (SAXException e) {
+			if (ph.hasWidthError()) {
+				throw new UnsupportedWidthException(e);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Parses a PEF-file. If parsing stops after the range, the elements that are still
+	 * open are ended before the document, so that the handler always receives a
+	 * well-formed sequence of events.
+	 * @param input the PEF-file
+	 * @param ph the handler
+	 * @return the number of pages within the range
+	 * @throws ParserConfigurationException if the parser cannot be created
+	 * @throws SAXException if the file cannot be parsed
+	 * @throws IOException if an i/o error occurs
+	 */
+	int parse(File input, DefaultHandler ph) throws ParserConfigurationException, SAXException, IOException {
+		if (!input.exists()) {
+			throw new IllegalArgumentException("Input does not exist");
+		}
+		SAXParserFactory spf = SAXParserFactory.newInstance();
+		spf.setNamespaceAware(true);
+		SAXParser parser = spf.newSAXParser();
+		RangeFilter filter = new RangeFilter(ph);
+		try (InputStream is = new BufferedInputStream(new FileInputStream(input))) {
+			parser.parse(is, filter);
+		} catch (SAXException e) {
+			if (filter.stopped) {
+				return filter.pages;
+			}
+			throw e;
+		}
+		return filter.pages;
+	}
+
+	private class RangeFilter extends DefaultHandler {
+		private final DefaultHandler ph;
+		// the inherited value of the duplex attribute of the open elements
+		private final Deque<String> duplex;
+		// the elements that have been started in the handler, but not ended
+		private final Deque<String[]> open;
+		private int pageCount;
+		private int pages;
+		private boolean verso;
+		private boolean isDuplex;
+		private int skipDepth;
+		private boolean stopped;
+
+		private RangeFilter(DefaultHandler ph) {
+			this.ph = ph;
+			this.duplex = new ArrayDeque<>();
+			this.open = new ArrayDeque<>();
+			this.pageCount = 0;
+			this.pages = 0;
+			this.verso = false;
+			this.isDuplex = false;
+			this.skipDepth = 0;
+			this.stopped = false;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+			String d = atts.getValue("", "duplex");
+			duplex.push(d!=null ? d : duplex.isEmpty() ? "" : duplex.peek());
+			if (skipDepth>0) {
+				skipDepth++;
+				return;
+			}
+			if (PEF_NS.equals(uri)) {
+				if ("section".equals(localName)) {
+					isDuplex = "true".equals(duplex.peek());
+					verso = true;
+					if (pageCount%2==1) {
+						pageCount++;
+					}
+				} else if ("page".equals(localName)) {
+					if (isDuplex) {
+						verso = !verso;
+					} else {
+						verso = false;
+						if (pageCount%2==1) {
+							pageCount++;
+						}
+					}
+					pageCount++;
+					if (pageCount>range.getTo()) {
+						// nothing more will be embossed
+						while (!open.isEmpty()) {
+							String[] e = open.pop();
+							ph.endElement(e[0], e[1], e[2]);
+						}
+						ph.endDocument();
+						stopped = true;
+						throw new SAXException("Stopped after page " + range.getTo());
+					} else if (range.inRange(pageCount)) {
+						pages++;
+					}
+				} else if ("row".equals(localName) && !range.inRange(pageCount)) {
+					skipDepth = 1;
+					return;
+				}
+			}
+			open.push(new String[]{uri, localName, qName});
+			ph.startElement(uri, localName, qName, atts);
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			duplex.pop();
+			if (skipDepth>0) {
+				skipDepth--;
+				return;
+			}
+			open.pop();
+			ph.endElement(uri, localName, qName);
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			if (skipDepth==0) {
+				ph.characters(ch, start, length);
+			}
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			if (skipDepth==0) {
+				ph.ignorableWhitespace(ch, start, length);
+			}
+		}
+
+		@Override
+		public void setDocumentLocator(Locator locator) {
+			ph.setDocumentLocator(locator);
+		}
+
+		@Override
+		public void startDocument() throws SAXException {
+			ph.startDocument();
+		}
+
+		@Override
+		public void endDocument() throws SAXException {
+			ph.endDocument();
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException {
+			ph.startPrefixMapping(prefix, uri);
+		}
+
+		@Override
+		public void endPrefixMapping(String prefix) throws SAXException {
+			ph.endPrefixMapping(prefix);
+		}
+
+		@Override
+		public void processingInstruction(String target, String data) throws SAXException {
+			ph.processingInstruction(target, data);
+		}
+
+		@Override
+		public void warning(SAXParseException e) throws SAXException {
+			ph.warning(e);
+		}
+
+		@Override
+		public void error(SAXParseException e) throws SAXException {
+			ph.error(e);
+		}
+
+		@Override
+		public void fatalError(SAXParseException e) throws SAXException {
+			ph.fatalError(e);
+		}
+	}
+
+}
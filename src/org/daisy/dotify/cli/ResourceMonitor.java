@@ -0,0 +1,269 @@
+package org.daisy.dotify.cli;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * <p>Measures the resources used by a thread while it processes a single document:
+ * thread CPU time, allocated bytes and the garbage collections that occurred
+ * in the meantime. Allocation counters are only available on JVMs that support
+ * <code>com.sun.management.ThreadMXBean</code>.</p>
+ *
+ * <p>Optionally, limits can be set for CPU time and allocation. A watchdog
+ * interrupts threads that exceed a limit and the measurement is marked as
+ * exceeded. Since the conversion isn't guaranteed to respond to interrupts, the
+ * caller must also check {@link Measurement#getExceeded()} when the document
+ * has been processed.</p>
+ */
+class ResourceMonitor {
+	private static final Logger logger = Logger.getLogger(ResourceMonitor.class.getCanonicalName());
+	private static final long WATCHDOG_INTERVAL_MS = 100;
+	private final ThreadMXBean threads;
+	private final com.sun.management.ThreadMXBean allocations;
+	private final long maxCpuNanos;
+	private final long maxAllocatedBytes;
+	private final Map<Long, Measurement> active;
+	private ScheduledExecutorService watchdog;
+
+	/**
+	 * Thrown when a document exceeds a resource limit.
+	 */
+	static class LimitExceededException extends Exception {
+		private static final long serialVersionUID = -4310187235522407632L;
+
+		LimitExceededException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Provides the resources used while processing a document.
+	 */
+	static class Usage {
+		private final long cpuNanos;
+		private final long allocatedBytes;
+		private final long gcCount;
+		private final long gcMillis;
+
+		Usage(long cpuNanos, long allocatedBytes, long gcCount, long gcMillis) {
+			this.cpuNanos = cpuNanos;
+			this.allocatedBytes = allocatedBytes;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+		}
+
+		/**
+		 * Gets the thread CPU time.
+		 * @return the CPU time in nanoseconds, or -1 if not supported
+		 */
+		long getCpuNanos() {
+			return cpuNanos;
+		}
+
+		/**
+		 * Gets the number of bytes allocated by the thread.
+		 * @return the number of bytes, or -1 if not supported
+		 */
+		long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * Gets the number of garbage collections in the JVM during the measurement.
+		 * Note that collections are not attributed to a single thread.
+		 * @return the number of collections
+		 */
+		long getGcCount() {
+			return gcCount;
+		}
+
+		/**
+		 * Gets the accumulated garbage collection time in the JVM during the measurement.
+		 * @return the time in milliseconds
+		 */
+		long getGcMillis() {
+			return gcMillis;
+		}
+	}
+
+	/**
+	 * Provides an ongoing measurement of the current thread.
+	 */
+	class Measurement {
+		private final Thread thread;
+		private final long cpuStart;
+		private final long allocStart;
+		private final long gcCountStart;
+		private final long gcMillisStart;
+		private volatile String exceeded;
+		private boolean ended;
+
+		private Measurement() {
+			this.thread = Thread.currentThread();
+			this.cpuStart = cpuTime(thread.getId());
+			this.allocStart = allocatedBytes(thread.getId());
+			this.gcCountStart = gcCount();
+			this.gcMillisStart = gcMillis();
+			this.exceeded = null;
+			this.ended = false;
+		}
+
+		private void check() {
+			long id = thread.getId();
+			if (maxCpuNanos>0 && cpuStart>=0) {
+				long cpu = cpuTime(id)-cpuStart;
+				if (cpu>maxCpuNanos) {
+					exceed(String.format("CPU time limit exceeded (%.1f s)", cpu/1e9));
+					return;
+				}
+			}
+			if (maxAllocatedBytes>0 && allocStart>=0) {
+				long alloc = allocatedBytes(id)-allocStart;
+				if (alloc>maxAllocatedBytes) {
+					exceed(String.format("Allocation limit exceeded (%d MB)", alloc/(1024*1024)));
+				}
+			}
+		}
+
+		private synchronized void exceed(String reason) {
+			if (exceeded==null && !ended) {
+				exceeded = reason;
+				logger.warning(thread.getName() + ": " + reason + ", the document will be reported as failed.");
+				thread.interrupt();
+			}
+		}
+
+		/**
+		 * Gets the reason why this measurement exceeded a limit.
+		 * @return the reason, or null if no limit was exceeded
+		 */
+		String getExceeded() {
+			return exceeded;
+		}
+
+		/**
+		 * Ends this measurement. Must be called from the measured thread.
+		 * @return the resources used since the measurement began
+		 */
+		Usage end() {
+			active.remove(thread.getId());
+			long id = thread.getId();
+			long cpu = cpuStart>=0 ? cpuTime(id)-cpuStart : -1;
+			long alloc = allocStart>=0 ? allocatedBytes(id)-allocStart : -1;
+			if (exceeded==null) {
+				check();
+			}
+			synchronized (this) {
+				ended = true;
+				// clear the interrupt set by the watchdog, if any
+				if (exceeded!=null) {
+					Thread.interrupted();
+				}
+			}
+			return new Usage(cpu, alloc, gcCount()-gcCountStart, gcMillis()-gcMillisStart);
+		}
+	}
+
+	/**
+	 * Creates a new resource monitor.
+	 * @param maxCpuNanos the maximum CPU time per document, in nanoseconds, or 0 for no limit
+	 * @param maxAllocatedBytes the maximum number of bytes allocated per document, or 0 for no limit
+	 */
+	ResourceMonitor(long maxCpuNanos, long maxAllocatedBytes) {
+		this.threads = ManagementFactory.getThreadMXBean();
+		this.allocations = threads instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean)threads : null;
+		if (threads.isThreadCpuTimeSupported() && !threads.isThreadCpuTimeEnabled()) {
+			threads.setThreadCpuTimeEnabled(true);
+		}
+		if (allocations!=null && allocations.isThreadAllocatedMemorySupported() && !allocations.isThreadAllocatedMemoryEnabled()) {
+			allocations.setThreadAllocatedMemoryEnabled(true);
+		}
+		this.maxCpuNanos = maxCpuNanos;
+		this.maxAllocatedBytes = maxAllocatedBytes;
+		this.active = new ConcurrentHashMap<>();
+		if (maxCpuNanos>0 && cpuTime(Thread.currentThread().getId())<0) {
+			logger.warning("Thread CPU time is not supported, CPU limit is ignored.");
+		}
+		if (maxAllocatedBytes>0 && allocatedBytes(Thread.currentThread().getId())<0) {
+			logger.warning("Thread allocation counters are not supported, allocation limit is ignored.");
+		}
+	}
+
+	/**
+	 * Begins a measurement of the current thread.
+	 * @return a new measurement
+	 */
+	Measurement begin() {
+		Measurement m = new Measurement();
+		if (hasLimits()) {
+			active.put(m.thread.getId(), m);
+			startWatchdog();
+		}
+		return m;
+	}
+
+	/**
+	 * Returns true if this monitor has limits.
+	 * @return true if there are limits, false otherwise
+	 */
+	boolean hasLimits() {
+		return maxCpuNanos>0 || maxAllocatedBytes>0;
+	}
+
+	/**
+	 * Stops the watchdog, if started.
+	 */
+	synchronized void close() {
+		if (watchdog!=null) {
+			watchdog.shutdownNow();
+			watchdog = null;
+		}
+	}
+
+	private synchronized void startWatchdog() {
+		if (watchdog==null) {
+			watchdog = Executors.newSingleThreadScheduledExecutor(r->{
+				Thread t = new Thread(r, "dotify-resource-monitor");
+				t.setDaemon(true);
+				return t;
+			});
+			watchdog.scheduleWithFixedDelay(()->{
+				for (Measurement m : active.values()) {
+					m.check();
+				}
+			}, WATCHDOG_INTERVAL_MS, WATCHDOG_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private long cpuTime(long id) {
+		return threads.isThreadCpuTimeSupported() ? threads.getThreadCpuTime(id) : -1;
+	}
+
+	private long allocatedBytes(long id) {
+		return allocations!=null && allocations.isThreadAllocatedMemorySupported() ? allocations.getThreadAllocatedBytes(id) : -1;
+	}
+
+	static long gcCount() {
+		long ret = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			ret += Math.max(0, gc.getCollectionCount());
+		}
+		return ret;
+	}
+
+	static long gcMillis() {
+		long ret = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			ret += Math.max(0, gc.getCollectionTime());
+		}
+		return ret;
+	}
+
+}
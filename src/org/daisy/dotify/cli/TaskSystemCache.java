@@ -0,0 +1,55 @@
+package org.daisy.dotify.cli;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.daisy.streamline.api.tasks.TaskSystem;
+import org.daisy.streamline.api.tasks.TaskSystemFactoryException;
+import org.daisy.streamline.api.tasks.TaskSystemFactoryMaker;
+
+/**
+ * Provides a cache of task systems, so that consecutive conversions with the
+ * same input format, output format and locale can reuse the same instance.
+ * Note that this class is not thread safe. It is intended to be used by a
+ * single worker at a time.
+ */
+class TaskSystemCache {
+	private final TaskSystemFactoryMaker factory;
+	private final Map<String, TaskSystem> cache;
+
+	/**
+	 * Creates a new empty cache.
+	 */
+	TaskSystemCache() {
+		this.factory = TaskSystemFactoryMaker.newInstance();
+		this.cache = new HashMap<>();
+	}
+
+	/**
+	 * Gets the task system factory maker used by this cache.
+	 * @return the factory maker
+	 */
+	TaskSystemFactoryMaker getFactoryMaker() {
+		return factory;
+	}
+
+	/**
+	 * Gets a task system for the specified parameters. If a task system has been
+	 * created for the same parameters before, the same instance is returned.
+	 * @param inputFormat the input format
+	 * @param outputFormat the output format
+	 * @param locale the locale
+	 * @return returns a task system
+	 * @throws TaskSystemFactoryException if a task system cannot be created
+	 */
+	TaskSystem get(String inputFormat, String outputFormat, String locale) throws TaskSystemFactoryException {
+		String key = inputFormat + "|" + outputFormat + "|" + locale;
+		TaskSystem ts = cache.get(key);
+		if (ts==null) {
+			ts = factory.newTaskSystem(inputFormat, outputFormat, locale);
+			cache.put(key, ts);
+		}
+		return ts;
+	}
+
+}
@@ -55,25 +55,16 @@ class TextParser implements CommandDetails {
 	private final List<Argument> reqArgs;
 	private final List<OptionalArgument> optionalArgs;
 	private final SwitchMap switches;
-	private final ShortFormResolver tableSF;
 	private final CommandParser parser;
+	private TableCatalog tableCatalog;
+	private ShortFormResolver tableSF;
 
 	public TextParser() {
 		reqArgs = new ArrayList<Argument>();
 		reqArgs.add(new Argument("input", "path to the input file"));
 		reqArgs.add(new Argument("output", "path to the output file"));
-		TableCatalog tableCatalog = TableCatalog.newInstance();
-		Collection<String> idents = new ArrayList<>();
-		for (FactoryProperties p : tableCatalog.list()) { idents.add(p.getIdentifier()); }
-		tableSF = new ShortFormResolver(idents);
+		//Use lazy loading of argument details
 		optionalArgs = new ArrayList<OptionalArgument>();
-		optionalArgs.add(new OptionalArgument(TextHandler.KEY_MODE, "input braille code", getDefinitionList(tableCatalog, tableSF), ""));
-		optionalArgs.add(new OptionalArgument(TextHandler.KEY_IDENTIFIER, "the publications unique identifier", "[generated]"));
-		optionalArgs.add(new OptionalArgument(TextHandler.KEY_DATE, "set the publication date using the form \"yyyy-MM-dd\"", "[today's date]"));
-		optionalArgs.add(new OptionalArgument(TextHandler.KEY_AUTHOR, "the author of the publication", "[undefined]"));
-		optionalArgs.add(new OptionalArgument(TextHandler.KEY_TITLE, "the title of the publication", "[undefined]"));
-		optionalArgs.add(new OptionalArgument(TextHandler.KEY_LANGUAGE, "set the publications language (as defined by IETF RFC 3066)", "[undefined]"));
-		//optionalArgs.add(new OptionalArgument(TextHandler.KEY_DUPLEX, "set the document's duplex property", "true"));
 		this.switches = new SwitchMap.Builder()
 				.addSwitch(new SwitchArgument('s', "simplex", TextHandler.KEY_DUPLEX, "false", "create single sided PEF-files"))
 				.build();
@@ -96,13 +87,15 @@ class TextParser implements CommandDetails {
 				File input = new File(""+p.remove(ARG_PREFIX+0));
 				File output = new File(""+p.remove(ARG_PREFIX+1));
 				// remap
-				try {
-					ui.tableSF.expandShortForm(p, TextHandler.KEY_MODE);
-				} catch (IllegalArgumentException e) {
-					ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+				if (p.containsKey(TextHandler.KEY_MODE)) {
+					try {
+						ui.getTableShortFormResolver().expandShortForm(p, TextHandler.KEY_MODE);
+					} catch (IllegalArgumentException e) {
+						ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+					}
 				}
 				// run
-				TextHandler.with(input, output, TableCatalog.newInstance())
+				TextHandler.with(input, output, ui.getTableCatalog())
 					.options(p)
 					.parse();
 				System.out.println("Validating result...");
@@ -133,8 +126,33 @@ class TextParser implements CommandDetails {
 
 	@Override
 	public List<OptionalArgument> getOptionalArguments() {
+		if (optionalArgs.isEmpty()) {
+			optionalArgs.add(new OptionalArgument(TextHandler.KEY_MODE, "input braille code", getDefinitionList(getTableCatalog(), getTableShortFormResolver()), ""));
+			optionalArgs.add(new OptionalArgument(TextHandler.KEY_IDENTIFIER, "the publications unique identifier", "[generated]"));
+			optionalArgs.add(new OptionalArgument(TextHandler.KEY_DATE, "set the publication date using the form \"yyyy-MM-dd\"", "[today's date]"));
+			optionalArgs.add(new OptionalArgument(TextHandler.KEY_AUTHOR, "the author of the publication", "[undefined]"));
+			optionalArgs.add(new OptionalArgument(TextHandler.KEY_TITLE, "the title of the publication", "[undefined]"));
+			optionalArgs.add(new OptionalArgument(TextHandler.KEY_LANGUAGE, "set the publications language (as defined by IETF RFC 3066)", "[undefined]"));
+			//optionalArgs.add(new OptionalArgument(TextHandler.KEY_DUPLEX, "set the document's duplex property", "true"));
+		}
 		return optionalArgs;
 	}
+
+	private TableCatalog getTableCatalog() {
+		if (tableCatalog==null) {
+			tableCatalog = TableCatalog.newInstance();
+		}
+		return tableCatalog;
+	}
+
+	private ShortFormResolver getTableShortFormResolver() {
+		if (tableSF==null) {
+			Collection<String> idents = new ArrayList<>();
+			for (FactoryProperties p : getTableCatalog().list()) { idents.add(p.getIdentifier()); }
+			tableSF = new ShortFormResolver(idents);
+		}
+		return tableSF;
+	}
 	
 	
 	/**
@@ -0,0 +1,348 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.daisy.dotify.api.factory.FactoryProperties;
+import org.daisy.dotify.api.table.TableCatalog;
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
+import org.daisy.dotify.api.translator.TranslationException;
+import org.daisy.dotify.api.translator.TranslatorConfigurationException;
+import org.daisy.dotify.api.translator.TranslatorSpecification;
+import org.daisy.dotify.api.translator.TranslatorType;
+import org.daisy.streamline.cli.Argument;
+import org.daisy.streamline.cli.CommandDetails;
+import org.daisy.streamline.cli.CommandParser;
+import org.daisy.streamline.cli.CommandParserResult;
+import org.daisy.streamline.cli.ExitCode;
+import org.daisy.streamline.cli.OptionalArgument;
+import org.daisy.streamline.cli.ShortFormResolver;
+import org.daisy.streamline.cli.SwitchArgument;
+import org.daisy.streamline.cli.SwitchMap;
+
+/**
+ * <p>Translates a directory of reference texts with one or more translators,
+ * compares the result with the expected braille and reports the throughput.
+ * Not for public use. This class is a package class. Use DotifyCLI</p>
+ *
+ * <p>Every <code>name.txt</code> file in the reference directory is translated
+ * line by line, in the same way as the translate command does it. The expected
+ * braille for a locale and mode is read from <code>name.locale.mode.brl</code>
+ * in the same directory, where characters other than letters, digits and
+ * hyphens are replaced by underscores. Use the update switch to create or
+ * replace the expected braille.</p>
+ */
+class TranslateBench implements CommandDetails {
+	private static final String META_KEY = "meta";
+	private static final String HELP_KEY = "help";
+	private static final String UPDATE_KEY = "update";
+	private static final String LOCALE_KEY = "locale";
+	private static final String MODE_KEY = "mode";
+	private static final String TABLE_KEY = "table";
+	private static final String ITERATIONS_KEY = "iterations";
+	private static final int DEFAULT_ITERATIONS = 3;
+	private static final int MAX_REPORTED_MISMATCHES = 3;
+	private static final String TEXT_SUFFIX = ".txt";
+	private static final String EXPECTED_SUFFIX = ".brl";
+	private static final double MB = 1024*1024;
+	private final List<Argument> reqArgs;
+	private final List<OptionalArgument> optionalArgs;
+	private final SwitchMap switches;
+	private final CommandParser parser;
+
+	public TranslateBench() {
+		this.reqArgs = new ArrayList<>();
+		reqArgs.add(new Argument("reference_dir", "Path to a directory with reference texts (*.txt) and expected braille (*.brl)"));
+		this.optionalArgs = new ArrayList<>();
+		optionalArgs.add(new OptionalArgument(LOCALE_KEY, "Comma separated list of braille locales to run. See the translate command for a list of locales.", "[all]"));
+		optionalArgs.add(new OptionalArgument(MODE_KEY, "Comma separated list of braille modes to run, for each locale", "[all]"));
+		optionalArgs.add(new OptionalArgument(TABLE_KEY, "Table to convert the braille with before it is compared with the expected braille. See the translate command for a list of tables.", "[unicode braille]"));
+		optionalArgs.add(new OptionalArgument(ITERATIONS_KEY, "The number of times the reference texts are translated when measuring the throughput. The texts are always translated once before the measurement, when the result is compared with the expected braille.", "" + DEFAULT_ITERATIONS));
+		this.switches = new SwitchMap.Builder()
+				.addSwitch(new SwitchArgument('h', HELP_KEY, META_KEY, HELP_KEY, "Help text."))
+				.addSwitch(new SwitchArgument('u', UPDATE_KEY, UPDATE_KEY, "true", "Writes the current translation as the expected braille, instead of comparing with it."))
+				.build();
+		this.parser = CommandParser.create(this);
+	}
+
+	public static void main(String[] args) throws IOException {
+		TranslateBench m = new TranslateBench();
+		CommandParserResult result = m.parser.parse(args);
+		if (HELP_KEY.equals(result.getOptional().get(META_KEY))) {
+			m.parser.displayHelp(System.out);
+			ExitCode.OK.exitSystem();
+		} else if (result.getRequired().isEmpty()) {
+			System.out.println("Expected one more argument: reference_dir [options ...]");
+			System.out.println();
+			m.parser.displayHelp(System.out);
+			ExitCode.MISSING_ARGUMENT.exitSystem();
+		} else {
+			m.run(new File(result.getRequired().get(0)), result);
+		}
+	}
+
+	private void run(File dir, CommandParserResult cmd) throws IOException {
+		if (!dir.isDirectory()) {
+			ExitCode.MISSING_RESOURCE.exitSystem("Cannot find reference directory: " + dir);
+		}
+		File[] texts = dir.listFiles(f->f.isFile() && f.getName().endsWith(TEXT_SUFFIX));
+		if (texts==null || texts.length==0) {
+			ExitCode.MISSING_RESOURCE.exitSystem("No reference texts (*" + TEXT_SUFFIX + ") in " + dir);
+		}
+		Arrays.sort(texts);
+		List<List<String>> corpus = new ArrayList<>();
+		for (File f : texts) {
+			corpus.add(readLines(f));
+		}
+		BrailleTranslatorFactoryMaker factoryMaker = BrailleTranslatorFactoryMaker.newInstance();
+		List<TranslatorSpecification> specs = select(factoryMaker.listSpecifications(), cmd.getOptional().get(LOCALE_KEY), cmd.getOptional().get(MODE_KEY));
+		if (specs.isEmpty()) {
+			ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("No translators match the selected locales and modes.");
+		}
+		FastBrailleConverter bc = null;
+		String table = cmd.getOptional().get(TABLE_KEY);
+		if (table!=null && !"".equals(table)) {
+			TableCatalog tc = TableCatalog.newInstance();
+			Collection<String> idents = new ArrayList<>();
+			for (FactoryProperties p : tc.list()) { idents.add(p.getIdentifier()); }
+			try {
+				bc = new FastBrailleConverter(tc.newTable(new ShortFormResolver(idents).resolve(table)).newBrailleConverter());
+			} catch (IllegalArgumentException e) {
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem(e.getMessage());
+			}
+		}
+		int iterations = OptionValues.parsePositiveInt(ITERATIONS_KEY, cmd.getOptional().get(ITERATIONS_KEY), DEFAULT_ITERATIONS);
+		boolean update = "true".equals(cmd.getOptional().get(UPDATE_KEY));
+		int lines = corpus.stream().mapToInt(List::size).sum();
+		long chars = corpus.stream().flatMap(List::stream).mapToLong(String::length).sum();
+		System.out.println(String.format("%d texts, %d lines, %d characters, %d iterations", texts.length, lines, chars, iterations));
+		System.out.println();
+
+		ResourceMonitor monitor = new ResourceMonitor(0, 0);
+		List<String> rows = new ArrayList<>();
+		int failed = 0;
+		for (TranslatorSpecification spec : specs) {
+			String name = spec.getLocale() + " " + spec.getMode();
+			BrailleTranslator t;
+			try {
+				t = factoryMaker.newTranslator(spec.getLocale(), spec.getMode());
+			} catch (TranslatorConfigurationException e) {
+				System.out.println(name + ": cannot create translator");
+				rows.add(String.format("%-32s %s", name, "unavailable"));
+				failed++;
+				continue;
+			}
+			// compare with the expected braille, this is also the warm-up
+			String status;
+			int diff = 0;
+			int missing = 0;
+			for (int i=0; i<texts.length; i++) {
+				List<String> actual = translate(t, bc, corpus.get(i));
+				File expected = new File(dir, expectedFileName(texts[i], spec));
+				if (update) {
+					writeLines(expected, actual);
+				} else if (expected.isFile()) {
+					diff += compare(name, texts[i], readLines(expected), actual);
+				} else {
+					missing++;
+				}
+			}
+			if (update) {
+				status = "updated";
+			} else if (diff>0) {
+				status = diff + " diff";
+				failed++;
+			} else if (missing>0) {
+				status = missing + " no ref";
+			} else {
+				status = "ok";
+			}
+			rows.add(String.format("%-32s %-10s %s", name, status, measure(t, bc, corpus, chars, iterations, monitor)));
+		}
+		monitor.close();
+
+		System.out.println();
+		System.out.println(String.format("%-32s %-10s %12s %10s %10s %10s %10s", "Specification", "Result", "chars/s", "p50 (us)", "p99 (us)", "MB/s", "bytes/char"));
+		rows.forEach(System.out::println);
+		if (failed>0) {
+			ExitCode.UNEXPECTED_RESOURCE_CONTENTS.exitSystem(failed + " of " + specs.size() + " translators failed.");
+		}
+	}
+
+	/**
+	 * Translates the reference texts the specified number of times and returns
+	 * the throughput, the per-line latency and the allocation rate, formatted as columns.
+	 */
+	private static String measure(BrailleTranslator t, FastBrailleConverter bc, List<List<String>> corpus, long chars, int iterations, ResourceMonitor monitor) throws IOException {
+		long[] latencies = new long[corpus.stream().mapToInt(List::size).sum()*iterations];
+		StringWriter out = new StringWriter();
+		int j = 0;
+		ResourceMonitor.Measurement m = monitor.begin();
+		long start = System.nanoTime();
+		for (int i=0; i<iterations; i++) {
+			for (List<String> text : corpus) {
+				for (String line : text) {
+					long lineStart = System.nanoTime();
+					try {
+						TranslateCLI.translate(t, bc, line, out);
+					} catch (TranslationException e) {
+						// already reported as a mismatch
+					}
+					latencies[j++] = System.nanoTime()-lineStart;
+					out.getBuffer().setLength(0);
+				}
+			}
+		}
+		long nanos = System.nanoTime()-start;
+		ResourceMonitor.Usage u = m.end();
+		Arrays.sort(latencies);
+		double seconds = nanos/1e9;
+		long total = chars*iterations;
+		long alloc = u.getAllocatedBytes();
+		return String.format("%12.0f %10.1f %10.1f %10s %10s",
+				total/seconds,
+				percentile(latencies, 0.5)/1e3,
+				percentile(latencies, 0.99)/1e3,
+				alloc>=0?String.format("%.1f", alloc/MB/seconds):"n/a",
+				alloc>=0&&total>0?String.format("%.1f", (double)alloc/total):"n/a");
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		if (sorted.length==0) {
+			return 0;
+		}
+		return sorted[Math.max(0, (int)Math.ceil(p*sorted.length)-1)];
+	}
+
+	private static List<String> translate(BrailleTranslator t, FastBrailleConverter bc, List<String> text) throws IOException {
+		List<String> ret = new ArrayList<>(text.size());
+		StringWriter out = new StringWriter();
+		for (String line : text) {
+			try {
+				TranslateCLI.translate(t, bc, line, out);
+				ret.add(out.toString());
+			} catch (TranslationException e) {
+				ret.add("[translation failed: " + e.getMessage() + "]");
+			}
+			out.getBuffer().setLength(0);
+		}
+		return ret;
+	}
+
+	/**
+	 * Compares the expected and actual braille and prints the first few mismatches.
+	 * @return the number of mismatching lines
+	 */
+	private static int compare(String name, File text, List<String> expected, List<String> actual) {
+		int ret = 0;
+		for (int i=0; i<Math.max(expected.size(), actual.size()); i++) {
+			String e = i<expected.size()?expected.get(i):null;
+			String a = i<actual.size()?actual.get(i):null;
+			if (e==null || !e.equals(a)) {
+				if (ret<MAX_REPORTED_MISMATCHES) {
+					System.out.println(String.format("%s: %s, line %d", name, text.getName(), i+1));
+					System.out.println("  expected: " + (e!=null?e:"[no line]"));
+					System.out.println("  actual:   " + (a!=null?a:"[no line]"));
+				}
+				ret++;
+			}
+		}
+		if (ret>MAX_REPORTED_MISMATCHES) {
+			System.out.println(String.format("%s: %s, %d more mismatching lines", name, text.getName(), ret-MAX_REPORTED_MISMATCHES));
+		}
+		return ret;
+	}
+
+	private static List<TranslatorSpecification> select(Collection<TranslatorSpecification> specs, String locales, String modes) {
+		Set<String> l = split(locales);
+		Set<String> m = split(modes);
+		return specs.stream()
+				.filter(v->!v.getMode().equals(TranslatorType.BYPASS.toString()) && !v.getMode().equals(TranslatorType.PRE_TRANSLATED.toString()))
+				.filter(v->l.isEmpty() || l.contains(v.getLocale().toLowerCase()))
+				.filter(v->m.isEmpty() || m.contains(v.getMode().toLowerCase()))
+				.sorted((o1, o2)->(o1.getLocale() + " " + o1.getMode()).compareTo(o2.getLocale() + " " + o2.getMode()))
+				.collect(Collectors.toList());
+	}
+
+	private static Set<String> split(String value) {
+		Set<String> ret = new HashSet<>();
+		if (value!=null) {
+			for (String s : value.split(",")) {
+				if (!"".equals(s.trim())) {
+					ret.add(s.trim().toLowerCase());
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static String expectedFileName(File text, TranslatorSpecification spec) {
+		String name = text.getName();
+		return name.substring(0, name.length()-TEXT_SUFFIX.length())
+				+ "." + spec.getLocale().replaceAll("[^A-Za-z0-9\\-]", "_")
+				+ "." + spec.getMode().replaceAll("[^A-Za-z0-9\\-]", "_")
+				+ EXPECTED_SUFFIX;
+	}
+
+	private static List<String> readLines(File f) throws IOException {
+		List<String> ret = new ArrayList<>();
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = r.readLine())!=null) {
+				ret.add(line);
+			}
+		}
+		return ret;
+	}
+
+	private static void writeLines(File f, List<String> lines) throws IOException {
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8)) {
+			for (String line : lines) {
+				w.write(line);
+				w.write('\n');
+			}
+		}
+	}
+
+	@Override
+	public String getName() {
+		return DotifyCLI.TRANSLATE_BENCH;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Translates a directory of reference texts, compares the result with the expected braille and reports the throughput, the per-line latency and the allocation rate.";
+	}
+
+	@Override
+	public List<Argument> getRequiredArguments() {
+		return reqArgs;
+	}
+
+	@Override
+	public List<OptionalArgument> getOptionalArguments() {
+		return optionalArgs;
+	}
+
+	@Override
+	public SwitchMap getSwitches() {
+		return switches;
+	}
+
+}
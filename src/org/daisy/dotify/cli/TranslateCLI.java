@@ -1,18 +1,25 @@
 package org.daisy.dotify.cli;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.daisy.dotify.api.factory.Factory;
 import org.daisy.dotify.api.factory.FactoryCatalog;
 import org.daisy.dotify.api.factory.FactoryProperties;
-import org.daisy.dotify.api.table.BrailleConverter;
 import org.daisy.dotify.api.table.TableCatalog;
 import org.daisy.dotify.api.translator.BrailleTranslator;
 import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
@@ -40,40 +47,31 @@ public class TranslateCLI implements CommandDetails {
 	private static final String MODE_KEY = "mode";
 	private static final String TABLE_KEY = "table";
 	private static final String HELP_KEY = "help";
+	private static final String BULK_KEY = "bulk";
+	private static final int BULK_BUFFER_SIZE = 1<<16;
+	private static final String THREADS_KEY = "threads";
+	private static final String BLOCK_SIZE_KEY = "blockSize";
+	private static final int DEFAULT_BLOCK_SIZE = 256;
+	private static final String CACHE_KEY = "cache";
+	private static final long TRANSLATOR_IDLE_TIMEOUT = 60000;
+	private static final String INPUT_KEY = "input";
+	private static final String OUTPUT_KEY = "output";
+	private static final int FILE_BUFFER_SIZE = 1<<20;
 	private final List<Argument> reqArgs;
 	private final List<OptionalArgument> optionalArgs;
 	private final SwitchMap switches;
-	private final ShortFormResolver tableSF;
 	private final CommandParser parser;
+	private TableCatalog tableCatalog;
+	private ShortFormResolver tableSF;
 //translate  --locale=en-US --mode=grade:1 
 //translate --locale=da-dk --mode=contracted/8-dot
 	public TranslateCLI() {
+		//Use lazy loading of argument details
 		this.reqArgs = new ArrayList<Argument>();
-		TableCatalog tableCatalog = TableCatalog.newInstance();
-		Collection<String> idents = new ArrayList<String>();
-		for (FactoryProperties p : tableCatalog.list()) { idents.add(p.getIdentifier()); }
-		tableSF = new ShortFormResolver(idents);
-		Collection<TranslatorSpecification> tr = BrailleTranslatorFactoryMaker.newInstance().listSpecifications();
-		List<Definition> translations = tr.stream()
-			.filter(v->!v.getMode().equals(TranslatorType.BYPASS.toString()) && !v.getMode().equals(TranslatorType.PRE_TRANSLATED.toString()))
-			.map(v->v.getLocale())
-			.distinct()
-			.sorted()
-			.map(v->new Definition(v, 
-					tr.stream()
-					.filter(v2->v2.getLocale().equals(v) && !v2.getMode().equals(TranslatorType.BYPASS.toString()) && !v2.getMode().equals(TranslatorType.PRE_TRANSLATED.toString()))
-					.map(v2->v2.getMode())
-					.distinct()
-					.sorted()
-					.collect(Collectors.joining(", ", "Modes: ", ""))
-			))
-			.collect(Collectors.toList());
 		this.optionalArgs = new ArrayList<OptionalArgument>();
-		optionalArgs.add(new OptionalArgument(LOCALE_KEY, "Braille locale. Note that the default locale is based on system settings, not on available braille locales.", translations, DEFAULT_LOCALE));
-		optionalArgs.add(new OptionalArgument(MODE_KEY, "Braille mode. For a list of modes, see the locale option.", DEFAULT_MODE));
-		optionalArgs.add(new OptionalArgument(TABLE_KEY, "Preview table to use", getDefinitionList(tableCatalog, tableSF), "unicode_braille"));
 		this.switches = new SwitchMap.Builder()
 				.addSwitch(new SwitchArgument('h', HELP_KEY, META_KEY, HELP_KEY, "Help text."))
+				.addSwitch(new SwitchArgument('b', BULK_KEY, BULK_KEY, "true", "High-throughput mode for large amounts of text. Uses large buffers and UTF-8 for both input and output, and only flushes the output when no more input is available."))
 				.build();
 		this.parser = CommandParser.create(this);
 	}
@@ -100,29 +98,130 @@ public class TranslateCLI implements CommandDetails {
 				mode = DEFAULT_MODE;
 			}
 
-			BrailleTranslator t = BrailleTranslatorFactoryMaker.newInstance().newTranslator(locale, mode);
-			TableCatalog tc = TableCatalog.newInstance();
+			int threads = OptionValues.parsePositiveInt(THREADS_KEY, cmd.getOptional().get(THREADS_KEY), 1);
+			int blockSize = OptionValues.parsePositiveInt(BLOCK_SIZE_KEY, cmd.getOptional().get(BLOCK_SIZE_KEY), DEFAULT_BLOCK_SIZE);
+			int cacheSize = OptionValues.parsePositiveInt(CACHE_KEY, cmd.getOptional().get(CACHE_KEY), 0);
+			TranslationCache cache = cacheSize>0?new TranslationCache(cacheSize):null;
 			String table = cmd.getOptional().get(TABLE_KEY);
-			BrailleConverter bc = null;
+			Supplier<FastBrailleConverter> converters = null;
 			if (table!=null && !"".equals(table)) {
-				bc = tc.newTable(tableSF.resolve(table)).newBrailleConverter();
+				TableCatalog tc = getTableCatalog();
+				String id = getTableShortFormResolver().resolve(table);
+				converters = ()->new FastBrailleConverter(tc.newTable(id).newBrailleConverter());
 			}
-			LineNumberReader lnr = new LineNumberReader(new InputStreamReader(System.in));
-			String text;
-			while ((text=lnr.readLine())!=null) {
-				try {
-					if (bc!=null) {
-						System.out.println(bc.toText(t.translate(Translatable.text(text).build()).getTranslatedRemainder()));
-					} else {
-						System.out.println(t.translate(Translatable.text(text).build()).getTranslatedRemainder());
-					}
-				} catch (TranslationException e) {
-					e.printStackTrace();
+			boolean bulk = "true".equals(cmd.getOptional().get(BULK_KEY));
+			String inputPath = cmd.getOptional().get(INPUT_KEY);
+			String outputPath = cmd.getOptional().get(OUTPUT_KEY);
+			// file mode is always bulk
+			bulk |= (inputPath!=null && !"".equals(inputPath)) || (outputPath!=null && !"".equals(outputPath));
+			BufferedReader in;
+			Writer out;
+			if (inputPath!=null && !"".equals(inputPath)) {
+				File input = new File(inputPath);
+				if (!input.isFile()) {
+					ExitCode.MISSING_RESOURCE.exitSystem("Cannot find input file: " + input);
 				}
+				in = new BufferedReader(new MappedFileReader(input, MappedFileReader.DEFAULT_WINDOW_SIZE, new ProgressReporter()), BULK_BUFFER_SIZE);
+			} else if (bulk) {
+				in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), BULK_BUFFER_SIZE);
+			} else {
+				in = new BufferedReader(new InputStreamReader(System.in));
+			}
+			if (outputPath!=null && !"".equals(outputPath)) {
+				out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputPath), StandardCharsets.UTF_8), FILE_BUFFER_SIZE);
+			} else if (bulk) {
+				// bypass System.out, which flushes on every line
+				out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), BULK_BUFFER_SIZE);
+			} else {
+				out = new BufferedWriter(new OutputStreamWriter(System.out));
+			}
+			TranslatorPool pool = new TranslatorPool(BrailleTranslatorFactoryMaker.newInstance(), 1, 0, TRANSLATOR_IDLE_TIMEOUT);
+			if (threads>1 && !pool.isThreadSafe(locale, mode)) {
+				System.err.println("The translators for " + locale + ", " + mode + " cannot be used by several threads at the same time. Using one thread.");
+				threads = 1;
+			}
+			try {
+				if (threads>1) {
+					new ParallelTranslator(threads, blockSize, pool, locale, mode, cache, converters).run(in, out, bulk);
+				} else {
+					translate(pool, locale, mode, cache, converters, in, out, bulk);
+				}
+			} finally {
+				pool.close();
+				in.close();
+				if (outputPath!=null && !"".equals(outputPath)) {
+					out.close();
+				}
+			}
+			if (cache!=null) {
+				System.err.println(cache);
 			}
 		} catch (TranslatorConfigurationException e) {
 			System.err.println("Cannot find a translator.");
 			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a translator", e);
+		}
+	}
+
+	private static void translate(TranslatorPool pool, String locale, String mode, TranslationCache cache, Supplier<FastBrailleConverter> converters, BufferedReader in, Writer out, boolean bulk) throws TranslatorConfigurationException, InterruptedException, IOException {
+		try (TranslatorPool.Lease lease = pool.borrow(locale, mode)) {
+			BrailleTranslator t = cache!=null?cache.decorate(lease.get(), locale):lease.get();
+			translate(t, converters!=null?converters.get():null, in, out, bulk);
+		}
+	}
+
+	private static void translate(BrailleTranslator t, FastBrailleConverter bc, BufferedReader in, Writer out, boolean bulk) throws IOException {
+		String lineSeparator = System.lineSeparator();
+		String text;
+		while ((text=in.readLine())!=null) {
+			try {
+				translate(t, bc, text, out);
+				out.write(lineSeparator);
+			} catch (TranslationException e) {
+				e.printStackTrace();
+			}
+			// in bulk mode, only flush when the input would block
+			if (!bulk || !in.ready()) {
+				out.flush();
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Translates one line of text and writes the braille to the specified writer.
+	 * @param t the translator
+	 * @param bc the table to convert the braille with, or null to write unicode braille
+	 * @param text the text
+	 * @param out the writer
+	 * @throws TranslationException if the text cannot be translated
+	 * @throws IOException if an i/o error occurs
+	 */
+	static void translate(BrailleTranslator t, FastBrailleConverter bc, String text, Writer out) throws TranslationException, IOException {
+		String braille = t.translate(Translatable.text(text).build()).getTranslatedRemainder();
+		if (bc!=null) {
+			bc.write(braille, out);
+		} else {
+			out.write(braille);
+		}
+	}
+
+	/**
+	 * Writes the progress of a file translation to system err, at most once per percent.
+	 */
+	private static class ProgressReporter implements MappedFileReader.Progress {
+		private static final int MB = 1024*1024;
+		private long lastPercent = -1;
+
+		@Override
+		public void update(long position, long size) {
+			long percent = size>0?position*100/size:100;
+			if (percent>lastPercent) {
+				lastPercent = percent;
+				System.err.println(String.format("Progress: %d%% (%d of %d MB)", percent, position/MB, size/MB));
+			}
 		}
 	}
 
@@ -138,9 +237,50 @@ public class TranslateCLI implements CommandDetails {
 
 	@Override
 	public List<OptionalArgument> getOptionalArguments() {
+		if (optionalArgs.isEmpty()) {
+			Collection<TranslatorSpecification> tr = BrailleTranslatorFactoryMaker.newInstance().listSpecifications();
+			List<Definition> translations = tr.stream()
+				.filter(v->!v.getMode().equals(TranslatorType.BYPASS.toString()) && !v.getMode().equals(TranslatorType.PRE_TRANSLATED.toString()))
+				.map(v->v.getLocale())
+				.distinct()
+				.sorted()
+				.map(v->new Definition(v, 
+						tr.stream()
+						.filter(v2->v2.getLocale().equals(v) && !v2.getMode().equals(TranslatorType.BYPASS.toString()) && !v2.getMode().equals(TranslatorType.PRE_TRANSLATED.toString()))
+						.map(v2->v2.getMode())
+						.distinct()
+						.sorted()
+						.collect(Collectors.joining(", ", "Modes: ", ""))
+				))
+				.collect(Collectors.toList());
+			optionalArgs.add(new OptionalArgument(LOCALE_KEY, "Braille locale. Note that the default locale is based on system settings, not on available braille locales.", translations, DEFAULT_LOCALE));
+			optionalArgs.add(new OptionalArgument(MODE_KEY, "Braille mode. For a list of modes, see the locale option.", DEFAULT_MODE));
+			optionalArgs.add(new OptionalArgument(TABLE_KEY, "Preview table to use", getDefinitionList(getTableCatalog(), getTableShortFormResolver()), "unicode_braille"));
+			optionalArgs.add(new OptionalArgument(THREADS_KEY, "Number of threads to translate with. The output is written in the same order as the input. Locales translated with liblouis, such as en-US, always use one thread.", "1"));
+			optionalArgs.add(new OptionalArgument(CACHE_KEY, "The maximum number of translated lines to keep in a memo cache. Repeated lines are translated only once while they remain in the cache. Cache statistics are written to system err.", "[off]"));
+			optionalArgs.add(new OptionalArgument(INPUT_KEY, "Path to a UTF-8 encoded input file. The file is read through memory mapping and the progress is written to system err.", "[system in]"));
+			optionalArgs.add(new OptionalArgument(OUTPUT_KEY, "Path to an output file. The output is written in UTF-8.", "[system out]"));
+			optionalArgs.add(new OptionalArgument(BLOCK_SIZE_KEY, "The maximum number of lines that are translated as one unit of work when using more than one thread.", "" + DEFAULT_BLOCK_SIZE));
+		}
 		return optionalArgs;
 	}
 
+	private TableCatalog getTableCatalog() {
+		if (tableCatalog==null) {
+			tableCatalog = TableCatalog.newInstance();
+		}
+		return tableCatalog;
+	}
+
+	private ShortFormResolver getTableShortFormResolver() {
+		if (tableSF==null) {
+			Collection<String> idents = new ArrayList<String>();
+			for (FactoryProperties p : getTableCatalog().list()) { idents.add(p.getIdentifier()); }
+			tableSF = new ShortFormResolver(idents);
+		}
+		return tableSF;
+	}
+
 	@Override
 	public List<Argument> getRequiredArguments() {
 		return reqArgs;
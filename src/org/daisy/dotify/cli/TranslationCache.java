@@ -0,0 +1,142 @@
+package org.daisy.dotify.cli;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.BrailleTranslatorResult;
+import org.daisy.dotify.api.translator.Translatable;
+import org.daisy.dotify.api.translator.TranslatableWithContext;
+import org.daisy.dotify.api.translator.TranslationException;
+
+/**
+ * <p>Provides a size-bounded memo cache for translations, with least recently
+ * used eviction. The cache can be shared between several translators and threads,
+ * since the entries are keyed by locale and mode in addition to the segment.</p>
+ *
+ * <p>Only segments without text attributes are cached, as are only translations of
+ * a {@link Translatable}. Translations with context are passed through unchanged.
+ * Since a {@link BrailleTranslatorResult} is consumed as it is read, a copy of the
+ * cached result is returned.</p>
+ */
+class TranslationCache {
+	private final Map<Key, BrailleTranslatorResult> cache;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	private static class Key {
+		private final String locale;
+		private final String mode;
+		private final String text;
+		private final String textLocale;
+		private final Boolean hyphenate;
+		private final boolean markCapitalLetters;
+		private final int hash;
+
+		private Key(String locale, String mode, Translatable t) {
+			this.locale = locale;
+			this.mode = mode;
+			this.text = t.getText();
+			this.textLocale = t.getLocale();
+			this.hyphenate = t.isHyphenating();
+			this.markCapitalLetters = t.shouldMarkCapitalLetters();
+			this.hash = Objects.hash(locale, mode, text, textLocale, hyphenate, markCapitalLetters);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash==other.hash && markCapitalLetters==other.markCapitalLetters
+					&& text.equals(other.text) && Objects.equals(locale, other.locale) && Objects.equals(mode, other.mode)
+					&& Objects.equals(textLocale, other.textLocale) && Objects.equals(hyphenate, other.hyphenate);
+		}
+	}
+
+	/**
+	 * Creates a new translation cache.
+	 * @param maxEntries the maximum number of entries
+	 */
+	TranslationCache(int maxEntries) {
+		this.cache = new LinkedHashMap<Key, BrailleTranslatorResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, BrailleTranslatorResult> eldest) {
+				return size()>maxEntries;
+			}
+		};
+		this.hits = new AtomicLong(0);
+		this.misses = new AtomicLong(0);
+	}
+
+	/**
+	 * Returns a translator that uses this cache in front of the specified translator.
+	 * @param t the translator
+	 * @param locale the locale of the translator
+	 * @return a caching translator
+	 */
+	BrailleTranslator decorate(BrailleTranslator t, String locale) {
+		return new BrailleTranslator() {
+			@Override
+			public BrailleTranslatorResult translate(Translatable input) throws TranslationException {
+				if (input.getAttributes()!=null) {
+					return t.translate(input);
+				}
+				Key key = new Key(locale, t.getTranslatorMode(), input);
+				BrailleTranslatorResult ret;
+				synchronized (cache) {
+					ret = cache.get(key);
+				}
+				if (ret!=null) {
+					hits.incrementAndGet();
+					return ret.copy();
+				}
+				misses.incrementAndGet();
+				ret = t.translate(input);
+				synchronized (cache) {
+					cache.put(key, ret.copy());
+				}
+				return ret;
+			}
+
+			@Override
+			public BrailleTranslatorResult translate(TranslatableWithContext input) throws TranslationException {
+				return t.translate(input);
+			}
+
+			@Override
+			public String getTranslatorMode() {
+				return t.getTranslatorMode();
+			}
+		};
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return String.format("Translation cache: %d hits, %d misses (%.1f%% hit rate)", h, total-h, total>0?100d*h/total:0d);
+	}
+
+}
@@ -0,0 +1,313 @@
+package org.daisy.dotify.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.daisy.dotify.api.factory.FactoryProperties;
+import org.daisy.dotify.api.table.TableCatalog;
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
+import org.daisy.dotify.api.translator.Translatable;
+import org.daisy.dotify.api.translator.TranslationException;
+import org.daisy.dotify.api.translator.TranslatorConfigurationException;
+import org.daisy.dotify.api.translator.TranslatorType;
+import org.daisy.streamline.cli.Argument;
+import org.daisy.streamline.cli.CommandDetails;
+import org.daisy.streamline.cli.CommandParser;
+import org.daisy.streamline.cli.CommandParserResult;
+import org.daisy.streamline.cli.ExitCode;
+import org.daisy.streamline.cli.OptionalArgument;
+import org.daisy.streamline.cli.ShortFormResolver;
+import org.daisy.streamline.cli.SwitchArgument;
+import org.daisy.streamline.cli.SwitchMap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>Provides a translation service over HTTP. Not for public use.
+ * This class is a package class. Use DotifyCLI</p>
+ *
+ * <p>The service translates the text in the body of a POST request, or in the
+ * <code>text</code> parameter of a GET request, to <code>/translate</code>. The
+ * <code>locale</code>, <code>mode</code> and <code>table</code> parameters
+ * are optional. The braille is returned as UTF-8 text, and the time spent on the
+ * server is returned in the <code>Server-Timing</code> header. Request bodies
+ * larger than 1 MB are rejected with status 413.</p>
+ *
+ * <p>Translators are kept in a {@link TranslatorPool} between requests, and the
+ * translator for the default locale and mode is created and exercised at startup.
+ * Translators based on liblouis are lent one at a time by the pool, so requests
+ * for such locales are translated one after the other.</p>
+ */
+class TranslationServer implements CommandDetails {
+	private static final Logger logger = Logger.getLogger(TranslationServer.class.getCanonicalName());
+	private static final String DEFAULT_LOCALE = Locale.getDefault().toString().replaceAll("_", "-");
+	private static final String DEFAULT_MODE = TranslatorType.UNCONTRACTED.toString();
+	private static final String DEFAULT_HOST = "127.0.0.1";
+	private static final String DEFAULT_PORT = "8765";
+	private static final String HOST_KEY = "host";
+	private static final String PORT_KEY = "port";
+	private static final String LOCALE_KEY = "locale";
+	private static final String MODE_KEY = "mode";
+	private static final String TABLE_KEY = "table";
+	private static final String TEXT_KEY = "text";
+	private static final String THREADS_KEY = "threads";
+	private static final String CACHE_KEY = "cache";
+	private static final String HELP_KEY = "help";
+	private static final String META_KEY = "meta";
+	private static final long TRANSLATOR_IDLE_TIMEOUT = 10*60*1000;
+	private static final long TRANSLATOR_WAIT_TIMEOUT = 30*1000;
+	private static final int MAX_BODY_SIZE = 1024*1024;
+	private static final int MAX_PORT = 65535;
+	private final List<Argument> reqArgs;
+	private final List<OptionalArgument> optionalArgs;
+	private final SwitchMap switches;
+	private final CommandParser parser;
+	private ShortFormResolver tableSF;
+	private TableCatalog tableCatalog;
+	private TranslatorPool pool;
+	private TranslationCache cache;
+	private ThreadLocal<Map<String, FastBrailleConverter>> converters;
+	private String defaultLocale;
+	private String defaultMode;
+
+	public TranslationServer() {
+		this.reqArgs = new ArrayList<>();
+		this.optionalArgs = new ArrayList<>();
+		optionalArgs.add(new OptionalArgument(HOST_KEY, "The address to listen on. Use 0.0.0.0 to listen on all interfaces.", DEFAULT_HOST));
+		optionalArgs.add(new OptionalArgument(PORT_KEY, "The port to listen on", DEFAULT_PORT));
+		optionalArgs.add(new OptionalArgument(LOCALE_KEY, "Braille locale to use when the request doesn't specify one. Translators for this locale are created at startup.", DEFAULT_LOCALE));
+		optionalArgs.add(new OptionalArgument(MODE_KEY, "Braille mode to use when the request doesn't specify one", DEFAULT_MODE));
+		optionalArgs.add(new OptionalArgument(THREADS_KEY, "Number of request threads", "" + Runtime.getRuntime().availableProcessors()));
+		optionalArgs.add(new OptionalArgument(CACHE_KEY, "The maximum number of translated segments to keep in a memo cache", "[off]"));
+		this.switches = new SwitchMap.Builder()
+				.addSwitch(new SwitchArgument('h', HELP_KEY, META_KEY, HELP_KEY, "Help text."))
+				.build();
+		this.parser = CommandParser.create(this);
+	}
+
+	public static void main(String[] args) throws IOException {
+		TranslationServer m = new TranslationServer();
+		CommandParserResult result = m.parser.parse(args);
+		if (HELP_KEY.equals(result.getOptional().get(META_KEY))) {
+			m.parser.displayHelp(System.out);
+			ExitCode.OK.exitSystem();
+		} else {
+			Map<String, String> opts = result.getOptional();
+			String host = valueOrDefault(opts.get(HOST_KEY), DEFAULT_HOST);
+			int port = OptionValues.parseInt(PORT_KEY, opts.get(PORT_KEY), Integer.parseInt(DEFAULT_PORT), 1, MAX_PORT);
+			int threads = OptionValues.parsePositiveInt(THREADS_KEY, opts.get(THREADS_KEY), Runtime.getRuntime().availableProcessors());
+			int cacheSize = OptionValues.parsePositiveInt(CACHE_KEY, opts.get(CACHE_KEY), 0);
+			String locale = valueOrDefault(opts.get(LOCALE_KEY), DEFAULT_LOCALE);
+			String mode = valueOrDefault(opts.get(MODE_KEY), DEFAULT_MODE);
+			try {
+				HttpServer server = m.start(host, port, threads, cacheSize, locale, mode);
+				System.out.println("Translation service listening on http://" + host + ":" + server.getAddress().getPort() + "/translate");
+			} catch (TranslatorConfigurationException e) {
+				ExitCode.ILLEGAL_ARGUMENT_VALUE.exitSystem("Cannot create a translator for " + locale + ", " + mode);
+			}
+		}
+	}
+
+	/**
+	 * Starts the service.
+	 * @param host the address to listen on
+	 * @param port the port to listen on, or 0 to use any free port
+	 * @param threads the number of request threads
+	 * @param cacheSize the maximum number of translated segments in the memo cache, or 0 for no cache
+	 * @param locale the locale to use when a request doesn't specify one
+	 * @param mode the mode to use when a request doesn't specify one
+	 * @return the started server
+	 * @throws IOException if the server cannot be started
+	 * @throws TranslatorConfigurationException if a translator for the locale and mode cannot be created
+	 */
+	HttpServer start(String host, int port, int threads, int cacheSize, String locale, String mode) throws IOException, TranslatorConfigurationException {
+		defaultLocale = locale;
+		defaultMode = mode;
+
+		tableCatalog = TableCatalog.newInstance();
+		Collection<String> idents = new ArrayList<>();
+		for (FactoryProperties p : tableCatalog.list()) {
+			idents.add(p.getIdentifier());
+		}
+		tableSF = new ShortFormResolver(idents);
+		pool = new TranslatorPool(BrailleTranslatorFactoryMaker.newInstance(), threads, threads, TRANSLATOR_IDLE_TIMEOUT);
+		cache = cacheSize>0 ? new TranslationCache(cacheSize) : null;
+		converters = ThreadLocal.withInitial(HashMap::new);
+
+		try {
+			long start = System.nanoTime();
+			pool.warmUp(defaultLocale, defaultMode, threads);
+			// exercise the translator once, so that the first request doesn't pay for lazy initialization
+			translate(defaultLocale, defaultMode, null, "Warm-up");
+			logger.info(String.format("Translators for %s, %s ready in %.0f ms", defaultLocale, defaultMode, (System.nanoTime()-start)/1e6));
+		} catch (TranslationException | TimeoutException e) {
+			throw new TranslatorConfigurationException("Cannot use the translator for " + defaultLocale + ", " + defaultMode, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while creating translators", e);
+		}
+
+		HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		AtomicInteger threadIndex = new AtomicInteger(1);
+		ExecutorService es = Executors.newFixedThreadPool(threads, r->{
+			Thread t = new Thread(r, "dotify-translation-server-" + threadIndex.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(es);
+		server.createContext("/translate", this::handleTranslate);
+		server.createContext("/status", this::handleStatus);
+		server.start();
+		return server;
+	}
+
+	private void handleTranslate(HttpExchange ex) throws IOException {
+		long start = System.nanoTime();
+		try {
+			Map<String, String> params = parseQuery(ex.getRequestURI().getRawQuery());
+			String text;
+			if ("POST".equals(ex.getRequestMethod())) {
+				text = readBody(ex.getRequestBody(), MAX_BODY_SIZE);
+				if (text==null) {
+					send(ex, 413, "Request body is larger than " + MAX_BODY_SIZE + " bytes", start);
+					return;
+				}
+			} else if ("GET".equals(ex.getRequestMethod())) {
+				text = params.getOrDefault(TEXT_KEY, "");
+			} else {
+				ex.getResponseHeaders().add("Allow", "GET, POST");
+				send(ex, 405, "Method not allowed", start);
+				return;
+			}
+			String locale = valueOrDefault(params.get(LOCALE_KEY), defaultLocale);
+			String mode = valueOrDefault(params.get(MODE_KEY), defaultMode);
+			String braille = translate(locale, mode, params.get(TABLE_KEY), text);
+			send(ex, 200, braille, start);
+		} catch (TranslatorConfigurationException | IllegalArgumentException e) {
+			send(ex, 400, e.getMessage(), start);
+		} catch (TimeoutException e) {
+			send(ex, 503, e.getMessage(), start);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			send(ex, 503, "Interrupted while waiting for a translator", start);
+		} catch (TranslationException | RuntimeException e) {
+			logger.log(Level.WARNING, "Translation failed.", e);
+			send(ex, 500, "Translation failed: " + e.getMessage(), start);
+		}
+	}
+
+	private void handleStatus(HttpExchange ex) throws IOException {
+		long start = System.nanoTime();
+		send(ex, 200, pool + (cache!=null ? "\n" + cache : ""), start);
+	}
+
+	private String translate(String locale, String mode, String table, String text) throws TranslatorConfigurationException, TranslationException, TimeoutException, InterruptedException {
+		try (TranslatorPool.Lease lease = pool.borrow(locale, mode, TRANSLATOR_WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+			if (lease==null) {
+				throw new TimeoutException("No translator available for " + locale + ", " + mode);
+			}
+			BrailleTranslator t = cache!=null ? cache.decorate(lease.get(), locale) : lease.get();
+			String ret = t.translate(Translatable.text(text).build()).getTranslatedRemainder();
+			if (table!=null && !"".equals(table)) {
+				String id = tableSF.resolve(table);
+				ret = converters.get().computeIfAbsent(id, v->new FastBrailleConverter(tableCatalog.newTable(v).newBrailleConverter())).toText(ret);
+			}
+			return ret;
+		}
+	}
+
+	private static void send(HttpExchange ex, int status, String body, long start) throws IOException {
+		byte[] data = (body!=null ? body : "").getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+		ex.getResponseHeaders().add("Server-Timing", String.format(Locale.ROOT, "translate;dur=%.3f", (System.nanoTime()-start)/1e6));
+		ex.sendResponseHeaders(status, data.length);
+		try (OutputStream os = ex.getResponseBody()) {
+			os.write(data);
+		}
+	}
+
+	/**
+	 * Reads the request body as UTF-8.
+	 * @param is the input stream
+	 * @param max the maximum number of bytes
+	 * @return the body, or null if it is larger than the maximum
+	 * @throws IOException if an i/o error occurs
+	 */
+	private static String readBody(InputStream is, int max) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int len;
+		while ((len = is.read(buf))!=-1) {
+			if (bytes.size()+len>max) {
+				return null;
+			}
+			bytes.write(buf, 0, len);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> ret = new HashMap<>();
+		if (query==null || "".equals(query)) {
+			return ret;
+		}
+		for (String p : query.split("&")) {
+			int i = p.indexOf('=');
+			if (i>0) {
+				ret.put(URLDecoder.decode(p.substring(0, i), "UTF-8"), URLDecoder.decode(p.substring(i+1), "UTF-8"));
+			}
+		}
+		return ret;
+	}
+
+	private static String valueOrDefault(String value, String def) {
+		return value==null || "".equals(value) ? def : value;
+	}
+
+	@Override
+	public String getName() {
+		return DotifyCLI.TRANSLATE_SERVER;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Provides braille translation as an HTTP service. POST text to /translate, optionally with locale, mode and table parameters.";
+	}
+
+	@Override
+	public List<Argument> getRequiredArguments() {
+		return reqArgs;
+	}
+
+	@Override
+	public List<OptionalArgument> getOptionalArguments() {
+		return optionalArgs;
+	}
+
+	@Override
+	public SwitchMap getSwitches() {
+		return switches;
+	}
+
+}
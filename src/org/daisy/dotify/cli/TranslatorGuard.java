@@ -0,0 +1,82 @@
+package org.daisy.dotify.cli;
+
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMakerService;
+import org.daisy.dotify.api.translator.TranslatorConfigurationException;
+import org.daisy.dotify.api.translator.TranslatorSpecification;
+
+/**
+ * <p>Provides a guard for braille translators that cannot be used by
+ * several threads at the same time, even if each thread has its own instance.</p>
+ *
+ * <p>The translators based on liblouis share static buffers in liblouis-java,
+ * so only one of them can translate at a time, regardless of locale and mode.
+ * Such translators must only be created and used while holding the permit
+ * of this class, see {@link #acquire(long)}.</p>
+ */
+final class TranslatorGuard {
+	private static final String LIBLOUIS_PACKAGE = "org.daisy.dotify.translator.impl.liblouis.";
+	private static final Semaphore PERMIT = new Semaphore(1, true);
+
+	private TranslatorGuard() {}
+
+	/**
+	 * Returns true if translators for the locale and mode can be used by several
+	 * threads at the same time, as long as each thread has its own instance.
+	 * @param factory the factory that creates the translators
+	 * @param locale the locale
+	 * @param mode the mode
+	 * @return true if the translators are thread-safe, false otherwise
+	 */
+	static boolean isThreadSafe(BrailleTranslatorFactoryMakerService factory, String locale, String mode) {
+		try {
+			return !factory.newFactory(locale, mode).getClass().getName().startsWith(LIBLOUIS_PACKAGE);
+		} catch (TranslatorConfigurationException e) {
+			// there is no translator to guard
+			return true;
+		}
+	}
+
+	/**
+	 * Returns true if the translators for all modes of the locale can be used by
+	 * several threads at the same time, as long as each thread has its own instance.
+	 * @param factory the factory that creates the translators
+	 * @param locale the locale
+	 * @return true if the translators are thread-safe, false otherwise
+	 */
+	static boolean isThreadSafe(BrailleTranslatorFactoryMakerService factory, String locale) {
+		String key = locale.replace('_', '-').toLowerCase(Locale.ROOT);
+		for (TranslatorSpecification spec : factory.listSpecifications()) {
+			if (key.equals(spec.getLocale().toLowerCase(Locale.ROOT)) && !isThreadSafe(factory, spec.getLocale(), spec.getMode())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Acquires the permit to create and use translators that aren't thread-safe.
+	 * The permit isn't reentrant.
+	 * @param timeoutNanos the maximum time to wait, in nanoseconds, or a negative value to wait indefinitely
+	 * @return true if the permit was acquired, false if the time elapsed first
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	static boolean acquire(long timeoutNanos) throws InterruptedException {
+		if (timeoutNanos<0) {
+			PERMIT.acquire();
+			return true;
+		}
+		return PERMIT.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Releases the permit acquired with {@link #acquire(long)}.
+	 */
+	static void release() {
+		PERMIT.release();
+	}
+
+}
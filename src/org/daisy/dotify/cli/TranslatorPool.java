@@ -0,0 +1,401 @@
+package org.daisy.dotify.cli;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
+import org.daisy.dotify.api.translator.TranslatorConfigurationException;
+
+/**
+ * <p>Provides a thread-safe pool of translators keyed by locale and mode.</p>
+ *
+ * <p>Translators are expensive to create and aren't guaranteed to be thread-safe.
+ * A translator is borrowed by one thread at a time and returned to the pool when
+ * the lease is closed. The number of idle translators kept for each key, and the
+ * number of translators that can be borrowed at the same time, can be set
+ * individually. When the maximum number of translators are borrowed, a borrower
+ * waits until a translator is returned.</p>
+ *
+ * <p>Translators that cannot be used by several threads at the same time, not even
+ * as separate instances, are guarded by {@link TranslatorGuard}. Only one such
+ * translator can be borrowed at a time, regardless of locale and mode, so a thread
+ * must not borrow another one before the lease is closed.</p>
+ *
+ * <p>Idle translators that haven't been used for a while are evicted when the pool
+ * is accessed and by a background thread, which is started when the first translator
+ * is returned to the pool and stopped when the pool is closed.</p>
+ */
+class TranslatorPool {
+	private final BrailleTranslatorFactoryMaker factory;
+	private final int defaultMaxIdle;
+	private final int defaultMaxActive;
+	private final long idleTimeoutNanos;
+	private final Map<String, Slot> slots;
+	private final Map<String, Integer> maxIdle;
+	private final Map<String, Integer> maxActive;
+	private final Map<String, Boolean> threadSafe;
+	private final AtomicLong created;
+	private final AtomicLong borrowed;
+	private ScheduledExecutorService evictor;
+
+	private static class Idle {
+		private final BrailleTranslator translator;
+		private final long since;
+
+		private Idle(BrailleTranslator translator) {
+			this.translator = translator;
+			this.since = System.nanoTime();
+		}
+	}
+
+	/**
+	 * The translators of one locale and mode. Access must be synchronized on the slot.
+	 */
+	private static class Slot {
+		// ordered from least to most recently returned
+		private final Deque<Idle> idle = new ArrayDeque<>();
+		private int active = 0;
+	}
+
+	/**
+	 * Provides a borrowed translator. The translator is returned to the pool when
+	 * the lease is closed, and must not be used after that.
+	 */
+	class Lease implements AutoCloseable {
+		private final String key;
+		private final BrailleTranslator translator;
+		private final boolean guarded;
+		private boolean closed;
+
+		private Lease(String key, BrailleTranslator translator, boolean guarded) {
+			this.key = key;
+			this.translator = translator;
+			this.guarded = guarded;
+			this.closed = false;
+		}
+
+		/**
+		 * Gets the translator.
+		 * @return the translator
+		 */
+		BrailleTranslator get() {
+			if (closed) {
+				throw new IllegalStateException("Lease is closed.");
+			}
+			return translator;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				release(key, translator);
+				if (guarded) {
+					TranslatorGuard.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a new translator pool.
+	 * @param factory the factory to create translators with
+	 * @param defaultMaxIdle the default maximum number of idle translators per locale and mode
+	 * @param defaultMaxActive the default maximum number of borrowed translators per locale and mode, or 0 for no limit
+	 * @param idleTimeoutMillis the time, in milliseconds, after which an idle translator is evicted
+	 */
+	TranslatorPool(BrailleTranslatorFactoryMaker factory, int defaultMaxIdle, int defaultMaxActive, long idleTimeoutMillis) {
+		this.factory = factory;
+		this.defaultMaxIdle = defaultMaxIdle;
+		this.defaultMaxActive = defaultMaxActive;
+		this.idleTimeoutNanos = idleTimeoutMillis*1000000L;
+		this.slots = new ConcurrentHashMap<>();
+		this.maxIdle = new ConcurrentHashMap<>();
+		this.maxActive = new ConcurrentHashMap<>();
+		this.threadSafe = new ConcurrentHashMap<>();
+		this.created = new AtomicLong(0);
+		this.borrowed = new AtomicLong(0);
+		this.evictor = null;
+	}
+
+	private static String toKey(String locale, String mode) {
+		return locale + "|" + mode;
+	}
+
+	private Slot slot(String key) {
+		return slots.computeIfAbsent(key, k->new Slot());
+	}
+
+	/**
+	 * Sets the maximum number of idle translators to keep for the specified locale and mode.
+	 * @param locale the locale
+	 * @param mode the mode
+	 * @param max the maximum number of idle translators
+	 */
+	void setMaxIdle(String locale, String mode, int max) {
+		maxIdle.put(toKey(locale, mode), max);
+	}
+
+	/**
+	 * Sets the maximum number of translators that can be borrowed at the same time
+	 * for the specified locale and mode.
+	 * @param locale the locale
+	 * @param mode the mode
+	 * @param max the maximum number of borrowed translators, or 0 for no limit
+	 */
+	void setMaxActive(String locale, String mode, int max) {
+		String key = toKey(locale, mode);
+		maxActive.put(key, max);
+		Slot s = slot(key);
+		synchronized (s) {
+			// the limit may have been raised
+			s.notifyAll();
+		}
+	}
+
+	/**
+	 * Borrows a translator, waiting if the maximum number of translators for the
+	 * locale and mode are borrowed. If there is no idle translator for the locale
+	 * and mode, a new one is created.
+	 * @param locale the locale
+	 * @param mode the mode
+	 * @return a lease of a translator
+	 * @throws TranslatorConfigurationException if a translator cannot be created
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	Lease borrow(String locale, String mode) throws TranslatorConfigurationException, InterruptedException {
+		return borrow(locale, mode, -1);
+	}
+
+	/**
+	 * Borrows a translator, waiting at most the specified time if the maximum number
+	 * of translators for the locale and mode are borrowed. If there is no idle translator
+	 * for the locale and mode, a new one is created.
+	 * @param locale the locale
+	 * @param mode the mode
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return a lease of a translator, or null if the time elapsed before a translator was available
+	 * @throws TranslatorConfigurationException if a translator cannot be created
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	Lease borrow(String locale, String mode, long timeout, TimeUnit unit) throws TranslatorConfigurationException, InterruptedException {
+		return borrow(locale, mode, Math.max(0, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * Returns true if translators for the specified locale and mode can be borrowed
+	 * by several threads at the same time. Otherwise, only one translator is lent at
+	 * a time for all locales and modes that aren't thread-safe.
+	 * @param locale the locale
+	 * @param mode the mode
+	 * @return true if the translators are thread-safe, false otherwise
+	 */
+	boolean isThreadSafe(String locale, String mode) {
+		return threadSafe.computeIfAbsent(toKey(locale, mode), k->TranslatorGuard.isThreadSafe(factory, locale, mode));
+	}
+
+	private Lease borrow(String locale, String mode, long timeoutNanos) throws TranslatorConfigurationException, InterruptedException {
+		long deadline = System.nanoTime() + timeoutNanos;
+		boolean guarded = !isThreadSafe(locale, mode);
+		if (guarded && !TranslatorGuard.acquire(timeoutNanos)) {
+			return null;
+		}
+		Lease ret = null;
+		try {
+			ret = borrow(locale, mode, timeoutNanos<0 ? -1 : Math.max(0, deadline-System.nanoTime()), guarded);
+			return ret;
+		} finally {
+			if (guarded && ret==null) {
+				TranslatorGuard.release();
+			}
+		}
+	}
+
+	private Lease borrow(String locale, String mode, long timeoutNanos, boolean guarded) throws TranslatorConfigurationException, InterruptedException {
+		String key = toKey(locale, mode);
+		Slot s = slot(key);
+		synchronized (s) {
+			long deadline = System.nanoTime() + timeoutNanos;
+			int max;
+			while ((max = getMaxActive(key))>0 && s.active>=max) {
+				if (timeoutNanos<0) {
+					s.wait();
+				} else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining<=0) {
+						return null;
+					}
+					TimeUnit.NANOSECONDS.timedWait(s, remaining);
+				}
+			}
+			s.active++;
+			borrowed.incrementAndGet();
+			evict(s.idle);
+			// take the most recently used, it's the most likely to be warm
+			Idle i = s.idle.pollLast();
+			if (i!=null) {
+				return new Lease(key, i.translator, guarded);
+			}
+		}
+		// create outside of the lock, since it may take a while
+		try {
+			BrailleTranslator t = factory.newTranslator(locale, mode);
+			created.incrementAndGet();
+			return new Lease(key, t, guarded);
+		} catch (TranslatorConfigurationException | RuntimeException e) {
+			synchronized (s) {
+				s.active--;
+				s.notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates translators for the specified locale and mode, until the specified
+	 * number of translators are idle in the pool.
+	 * @param locale the locale
+	 * @param mode the mode
+	 * @param count the number of translators
+	 * @throws TranslatorConfigurationException if a translator cannot be created
+	 * @throws InterruptedException if interrupted while waiting for the {@link TranslatorGuard}
+	 */
+	void warmUp(String locale, String mode, int count) throws TranslatorConfigurationException, InterruptedException {
+		String key = toKey(locale, mode);
+		Slot s = slot(key);
+		int missing;
+		synchronized (s) {
+			missing = Math.min(count, getMaxIdle(key))-s.idle.size();
+		}
+		for (int i=0; i<missing; i++) {
+			BrailleTranslator t = newTranslator(locale, mode);
+			created.incrementAndGet();
+			boolean added;
+			synchronized (s) {
+				added = offerIdle(key, s, t);
+			}
+			if (added) {
+				startEvictor();
+			}
+		}
+	}
+
+	private BrailleTranslator newTranslator(String locale, String mode) throws TranslatorConfigurationException, InterruptedException {
+		if (isThreadSafe(locale, mode)) {
+			return factory.newTranslator(locale, mode);
+		}
+		TranslatorGuard.acquire(-1);
+		try {
+			return factory.newTranslator(locale, mode);
+		} finally {
+			TranslatorGuard.release();
+		}
+	}
+
+	private void release(String key, BrailleTranslator t) {
+		Slot s = slot(key);
+		boolean added;
+		synchronized (s) {
+			s.active--;
+			added = offerIdle(key, s, t);
+			s.notifyAll();
+		}
+		if (added) {
+			startEvictor();
+		}
+	}
+
+	/**
+	 * Adds a translator to the idle translators, unless there are enough of them already.
+	 * Must be called while holding the lock of the slot.
+	 */
+	private boolean offerIdle(String key, Slot s, BrailleTranslator t) {
+		evict(s.idle);
+		if (s.idle.size()<getMaxIdle(key)) {
+			s.idle.add(new Idle(t));
+			return true;
+		}
+		return false;
+	}
+
+	private int getMaxIdle(String key) {
+		return maxIdle.getOrDefault(key, defaultMaxIdle);
+	}
+
+	private int getMaxActive(String key) {
+		return maxActive.getOrDefault(key, defaultMaxActive);
+	}
+
+	/**
+	 * Evicts idle translators that haven't been used within the timeout.
+	 * @return the number of evicted translators
+	 */
+	int evictIdle() {
+		int ret = 0;
+		for (Slot s : slots.values()) {
+			synchronized (s) {
+				ret += evict(s.idle);
+			}
+		}
+		return ret;
+	}
+
+	private int evict(Deque<Idle> d) {
+		int ret = 0;
+		long now = System.nanoTime();
+		for (Iterator<Idle> it = d.iterator(); it.hasNext(); ) {
+			if (now-it.next().since>idleTimeoutNanos) {
+				it.remove();
+				ret++;
+			} else {
+				break;
+			}
+		}
+		return ret;
+	}
+
+	private synchronized void startEvictor() {
+		if (evictor==null) {
+			evictor = Executors.newSingleThreadScheduledExecutor(r->{
+				Thread t = new Thread(r, "dotify-translator-pool");
+				t.setDaemon(true);
+				return t;
+			});
+			long interval = Math.max(1, idleTimeoutNanos);
+			evictor.scheduleWithFixedDelay(this::evictIdle, interval, interval, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Stops the background eviction and removes the idle translators. Borrowed
+	 * translators can still be returned, and the pool can still be used.
+	 */
+	void close() {
+		synchronized (this) {
+			if (evictor!=null) {
+				evictor.shutdownNow();
+				evictor = null;
+			}
+		}
+		for (Slot s : slots.values()) {
+			synchronized (s) {
+				s.idle.clear();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Translator pool: %d borrowed, %d created", borrowed.get(), created.get());
+	}
+
+}
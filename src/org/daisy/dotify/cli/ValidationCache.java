@@ -0,0 +1,163 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Provides a persistent cache of successful validations. A file that has
+ * been found valid by a validator is accepted without validation the next time,
+ * as long as the contents of the file and the validator are the same.</p>
+ *
+ * <p>Each entry is an empty file in the cache folder, named after a hash of the
+ * file contents, the media type and the validator class and version. An entry is
+ * touched when it is used, and the least recently used entries are removed
+ * when there are too many. Entries that haven't been used for a long time
+ * are ignored and removed. Only successful validations are cached, so that the
+ * validator messages are always shown for an invalid file.</p>
+ */
+class ValidationCache {
+	private static final Logger logger = Logger.getLogger(ValidationCache.class.getCanonicalName());
+	static final int DEFAULT_MAX_ENTRIES = 1000;
+	static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(30);
+	private static final int BUFFER_SIZE = 1<<16;
+	private final File dir;
+	private final int maxEntries;
+	private final long maxAge;
+
+	/**
+	 * Creates a new validation cache.
+	 * @param dir the cache folder
+	 * @param maxEntries the maximum number of entries
+	 * @param maxAge the maximum time since an entry was last used, in milliseconds
+	 */
+	ValidationCache(File dir, int maxEntries, long maxAge) {
+		this.dir = dir;
+		this.maxEntries = maxEntries;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Creates a validation cache in the default location, see {@link CacheFolder#getDefault()}.
+	 * @return a new validation cache
+	 */
+	static ValidationCache newInstance() {
+		return new ValidationCache(new File(CacheFolder.getDefault(), "validation"), DEFAULT_MAX_ENTRIES, DEFAULT_MAX_AGE);
+	}
+
+	/**
+	 * Computes the cache key of a file.
+	 * @param in the file
+	 * @param mediaType the media type of the file
+	 * @param validator the validator class
+	 * @return the key
+	 * @throws IOException if the file cannot be read
+	 */
+	String key(File in, String mediaType, Class<?> validator) throws IOException {
+		Package p = validator.getPackage();
+		return key(in, mediaType, validator.getName(), p!=null ? p.getImplementationVersion() : null);
+	}
+
+	/**
+	 * Computes the cache key of a file.
+	 * @param in the file
+	 * @param mediaType the media type of the file
+	 * @param validator the name of the validator class
+	 * @param version the version of the validator, or null if unknown
+	 * @return the key
+	 * @throws IOException if the file cannot be read
+	 */
+	String key(File in, String mediaType, String validator, String version) throws IOException {
+		MessageDigest md = newDigest();
+		ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		try (FileChannel fc = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+			while (fc.read(buf)!=-1) {
+				buf.flip();
+				md.update(buf);
+				buf.clear();
+			}
+		}
+		md.update(("|" + mediaType + "|" + validator + "|" + version).getBytes(StandardCharsets.UTF_8));
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest()) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns true if the key is in the cache.
+	 * @param key the key
+	 * @return true if a file with this key has been found valid, false otherwise
+	 */
+	boolean contains(String key) {
+		File f = new File(dir, key);
+		if (!f.isFile()) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		if (now-f.lastModified()>maxAge) {
+			f.delete();
+			return false;
+		}
+		f.setLastModified(now);
+		return true;
+	}
+
+	/**
+	 * Adds a key to the cache.
+	 * @param key the key of a file that has been found valid
+	 */
+	void add(String key) {
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				logger.fine("Cannot create validation cache: " + dir);
+				return;
+			}
+			File f = new File(dir, key);
+			if (!f.createNewFile()) {
+				f.setLastModified(System.currentTimeMillis());
+			}
+			evict();
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Cannot add to validation cache: " + dir, e);
+		}
+	}
+
+	private void evict() {
+		File[] entries = dir.listFiles();
+		if (entries!=null && entries.length>maxEntries) {
+			// read the times once, since other processes may touch entries while sorting
+			Map<File, Long> times = new HashMap<>();
+			for (File f : entries) {
+				times.put(f, f.lastModified());
+			}
+			Arrays.sort(entries, Comparator.comparingLong(times::get));
+			for (int i=0; i<entries.length-maxEntries; i++) {
+				entries[i].delete();
+			}
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is required on all Java platforms
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
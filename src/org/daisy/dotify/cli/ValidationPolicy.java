@@ -0,0 +1,232 @@
+package org.daisy.dotify.cli;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a policy for validating the output of a conversion, and keeps
+ * track of the validation results.
+ */
+class ValidationPolicy {
+	private static final Logger logger = Logger.getLogger(ValidationPolicy.class.getCanonicalName());
+
+	/**
+	 * Defines the validation modes.
+	 */
+	enum Mode {
+		/**
+		 * Never validate
+		 */
+		OFF,
+		/**
+		 * Validate every n:th file, or a random percentage of the files
+		 */
+		SAMPLED,
+		/**
+		 * Validate all files in a background pool
+		 */
+		ASYNC,
+		/**
+		 * Validate all files before continuing (default)
+		 */
+		FULL
+	}
+
+	/**
+	 * Provides a validation of a single file.
+	 */
+	@FunctionalInterface
+	interface Validation {
+		/**
+		 * Validates the output.
+		 * @return true if the output is valid, false otherwise
+		 * @throws Exception if the validation could not be completed
+		 */
+		boolean validate() throws Exception;
+	}
+
+	// validate every n:th file when no sample is specified
+	private static final int DEFAULT_EVERY = 10;
+	private final Mode mode;
+	private final int every;
+	private final double percentage;
+	private final AtomicInteger counter;
+	private final AtomicInteger validated;
+	private final AtomicInteger skipped;
+	private final List<File> invalid;
+	private ExecutorService pool;
+
+	private ValidationPolicy(Mode mode, int every, double percentage) {
+		this.mode = mode;
+		this.every = every;
+		this.percentage = percentage;
+		this.counter = new AtomicInteger(0);
+		this.validated = new AtomicInteger(0);
+		this.skipped = new AtomicInteger(0);
+		this.invalid = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	/**
+	 * Creates a new validation policy.
+	 * @param mode the mode, one of off, sampled, async or full. If null or empty, full is used.
+	 * @param sample the sampling, a positive integer n to validate every n:th file, or a
+	 * 			percentage (such as 25%) to validate a random selection of the files.
+	 * 			Only used in sampled mode. If null or empty, every 10th file is validated.
+	 * @return a new validation policy
+	 * @throws IllegalArgumentException if the arguments cannot be parsed
+	 */
+	static ValidationPolicy parse(String mode, String sample) {
+		Mode m = Mode.FULL;
+		if (mode!=null && !"".equals(mode)) {
+			try {
+				m = Mode.valueOf(mode.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown validation policy: '" + mode + "'");
+			}
+		}
+		int every = DEFAULT_EVERY;
+		double percentage = -1;
+		if (m==Mode.SAMPLED && sample!=null && !"".equals(sample)) {
+			try {
+				if (sample.endsWith("%")) {
+					percentage = Double.parseDouble(sample.substring(0, sample.length()-1));
+					if (!(percentage>=0 && percentage<=100)) {
+						throw new IllegalArgumentException("Validation sample must be between 0% and 100%: '" + sample + "'");
+					}
+				} else {
+					every = Math.max(1, Integer.parseInt(sample));
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Cannot parse validation sample: '" + sample + "'");
+			}
+		}
+		return new ValidationPolicy(m, every, percentage);
+	}
+
+	/**
+	 * Validates the output according to this policy.
+	 * @param output the output file, used for reporting
+	 * @param v the validation
+	 * @param onValid an action to perform if the output is validated and found valid,
+	 * 			or if it isn't validated
+	 */
+	void validate(File output, Validation v, Runnable onValid) {
+		if (!shouldValidate()) {
+			skipped.incrementAndGet();
+			onValid.run();
+		} else if (mode==Mode.ASYNC) {
+			getPool().execute(()->run(output, v, onValid));
+		} else {
+			run(output, v, onValid);
+		}
+	}
+
+	private boolean shouldValidate() {
+		switch (mode) {
+			case OFF:
+				return false;
+			case SAMPLED:
+				if (percentage>=0) {
+					return ThreadLocalRandom.current().nextDouble(100)<percentage;
+				}
+				return counter.getAndIncrement()%every==0;
+			case ASYNC: case FULL: default:
+				return true;
+		}
+	}
+
+	private void run(File output, Validation v, Runnable onValid) {
+		validated.incrementAndGet();
+		try {
+			if (v.validate()) {
+				onValid.run();
+			} else {
+				logger.warning("Validation failed: " + output);
+				invalid.add(output);
+			}
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to validate " + output, e);
+			invalid.add(output);
+		}
+	}
+
+	private synchronized ExecutorService getPool() {
+		if (pool==null) {
+			AtomicInteger threadIndex = new AtomicInteger(1);
+			pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r->{
+				Thread t = new Thread(r, "dotify-validation-" + threadIndex.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Waits for any pending validations to complete.
+	 */
+	void await() {
+		ExecutorService es;
+		synchronized (this) {
+			es = pool;
+			pool = null;
+		}
+		if (es!=null) {
+			es.shutdown();
+			try {
+				while (!es.awaitTermination(1, TimeUnit.MINUTES)) {
+					logger.info("Waiting for validation to complete...");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Gets the files that failed validation.
+	 * @return the list of invalid files
+	 */
+	List<File> getInvalid() {
+		synchronized (invalid) {
+			return new ArrayList<>(invalid);
+		}
+	}
+
+	@Override
+	public String toString() {
+		String ret = mode.toString().toLowerCase();
+		if (mode==Mode.SAMPLED) {
+			ret += percentage>=0?" (" + percentage + "% of the files)":" (1 of every " + every + " files)";
+		}
+		return ret;
+	}
+
+	/**
+	 * Prints the validation results.
+	 * @param ps the print stream to print to
+	 */
+	void print(PrintStream ps) {
+		List<File> inv = getInvalid();
+		ps.println("\tValidation policy: " + this);
+		ps.println("\tValidation: " + validated.get() + " validated, " + inv.size() + " invalid, " + skipped.get() + " not validated");
+		for (File f : inv) {
+			ps.println("\t\tInvalid: " + f);
+		}
+	}
+
+}
@@ -12,17 +12,28 @@ import org.daisy.streamline.api.validity.Validator;
 import org.daisy.streamline.api.validity.ValidatorFactoryMaker;
 
 /**
- * Provides a facade for Validator
+ * Provides a facade for Validator. Successful validations are remembered
+ * in a {@link ValidationCache}, so that an unchanged file is only validated once.
  * @author Joel Håkansson
  */
 class ValidatorFacade {
 	private final ValidatorFactoryMaker factory;
+	private final ValidationCache cache;
 
 	/**
-	 * Creates a new validator facade.
+	 * Creates a new validator facade using the default validation cache.
 	 */
 	ValidatorFacade() {
+		this(ValidationCache.newInstance());
+	}
+
+	/**
+	 * Creates a new validator facade.
+	 * @param cache the validation cache, or null to always validate
+	 */
+	ValidatorFacade(ValidationCache cache) {
 		this.factory = ValidatorFactoryMaker.newInstance();
+		this.cache = cache;
 	}
 
 	/**
@@ -58,8 +69,18 @@ class ValidatorFacade {
 		if (msg!=null) {
 			msg.println("Validating " + in + " using \"" + pv.getClass().getName() + "\"");
 		}
+		String key = cache!=null ? cache.key(in, mediaType, pv.getClass()) : null;
+		if (key!=null && cache.contains(key)) {
+			if (msg!=null) {
+				msg.println("Validation was succcessful (cached)");
+			}
+			return true;
+		}
 		ValidationReport report = pv.validate(in.toURI().toURL());
 		boolean ok = report.isValid();
+		if (ok && key!=null) {
+			cache.add(key);
+		}
 		if (msg!=null) {
 			msg.println("Validation was " + (ok ? "succcessful" : "unsuccessful"));
 		}
@@ -0,0 +1,216 @@
+package org.daisy.dotify.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.daisy.braille.utils.pef.PEFBook;
+import org.daisy.braille.utils.pef.PEFHandler;
+import org.daisy.braille.utils.pef.Range;
+import org.daisy.braille.utils.pef.UnsupportedWidthException;
+import org.daisy.dotify.api.embosser.Embosser;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>Renders the volumes of a PEF-file into separate embosser files on
+ * several threads. The files are named after the input file and the volume
+ * number, so that rendering the same file twice gives the same names.</p>
+ *
+ * <p>Each volume is rendered by parsing the PEF-file with the page range of
+ * the volume. Volumes outside of the requested page range are skipped.</p>
+ */
+class VolumeRenderer {
+	static final String MANIFEST = "manifest.txt";
+	private final Embosser embosser;
+	private final int threads;
+
+	/**
+	 * A rendered volume.
+	 */
+	static class Volume {
+		private final int volume;
+		private final Range pages;
+		private final File file;
+		private int renderedPages;
+		private long renderNanos;
+		private long transmitNanos;
+
+		private Volume(int volume, Range pages, File file) {
+			this.volume = volume;
+			this.pages = pages;
+			this.file = file;
+			this.renderedPages = 0;
+			this.renderNanos = 0;
+			this.transmitNanos = 0;
+		}
+
+		int getVolume() {
+			return volume;
+		}
+
+		Range getPages() {
+			return pages;
+		}
+
+		int getPageCount() {
+			return pages.getTo()-pages.getFrom()+1;
+		}
+
+		File getFile() {
+			return file;
+		}
+
+		/**
+		 * Gets the number of pages rendered, or 0 if the volume hasn't been rendered.
+		 * @return the number of pages
+		 */
+		int getRenderedPages() {
+			return renderedPages;
+		}
+
+		long getRenderNanos() {
+			return renderNanos;
+		}
+
+		long getTransmitNanos() {
+			return transmitNanos;
+		}
+
+		void addTransmitNanos(long nanos) {
+			transmitNanos += nanos;
+		}
+	}
+
+	/**
+	 * Creates a new volume renderer.
+	 * @param embosser the embosser, with all features set
+	 * @param threads the number of threads
+	 */
+	VolumeRenderer(Embosser embosser, int threads) {
+		this.embosser = embosser;
+		this.threads = threads;
+	}
+
+	/**
+	 * Renders the volumes of the input file into the output folder.
+	 * @param input the PEF-file
+	 * @param range the pages to render
+	 * @param output the output folder
+	 * @return the rendered volumes, in volume order
+	 * @throws IOException if a volume cannot be rendered
+	 */
+	List<Volume> render(File input, Range range, File output) throws IOException {
+		List<Volume> volumes = listVolumes(input, range, output);
+		AtomicInteger threadIndex = new AtomicInteger(1);
+		ExecutorService es = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, volumes.size())), r->{
+			Thread t = new Thread(r, "dotify-emboss-" + threadIndex.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			List<Future<Volume>> results = new ArrayList<>();
+			for (Volume v : volumes) {
+				results.add(es.submit(()->render(input, v)));
+			}
+			for (Future<Volume> f : results) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				}
+			}
+		} finally {
+			es.shutdownNow();
+		}
+		return volumes;
+	}
+
+	/**
+	 * Lists the volumes of the input file that are within the range. The
+	 * volumes are not rendered.
+	 * @param input the PEF-file
+	 * @param range the pages to render
+	 * @param output the output folder
+	 * @return the volumes, in volume order
+	 * @throws IOException if the file cannot be read
+	 */
+	static List<Volume> listVolumes(File input, Range range, File output) throws IOException {
+		PEFBook book;
+		try {
+			book = PEFBook.load(input.toURI());
+		} catch (ParserConfigurationException | SAXException | XPathExpressionException e) {
+			throw new IOException("Cannot read " + input, e);
+		}
+		String name = input.getName().replaceAll("\\.[^.]*$", "");
+		String format = "%s_volume_%0" + String.valueOf(book.getVolumes()).length() + "d.prn";
+		List<Volume> volumes = new ArrayList<>();
+		for (int v=1; v<=book.getVolumes(); v++) {
+			int from = Math.max(range.getFrom(), book.getFirstPage(v));
+			int to = Math.min(range.getTo(), book.getLastPage(v));
+			if (from<=to) {
+				volumes.add(new Volume(v, new Range(from, to), new File(output, String.format(format, name, v))));
+			}
+		}
+		return volumes;
+	}
+
+	/**
+	 * Renders a volume into its file.
+	 * @param input the PEF-file
+	 * @param v the volume
+	 * @return the volume
+	 * @throws IOException if an i/o error occurs
+	 * @throws ParserConfigurationException if the parser cannot be created
+	 * @throws SAXException if the file cannot be parsed
+	 * @throws UnsupportedWidthException if the embosser doesn't support the page width
+	 */
+	Volume render(File input, Volume v) throws IOException, ParserConfigurationException, SAXException, UnsupportedWidthException {
+		boolean ok = false;
+		long start = System.nanoTime();
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(v.getFile()))) {
+			PEFHandler ph = new PEFHandler.Builder(embosser.newEmbosserWriter(os)).range(v.getPages()).build();
+			v.renderedPages = new RangedPEFReader(v.getPages()).parse(input, ph);
+			ok = true;
+		} finally {
+			if (!ok) {
+				v.getFile().delete();
+			}
+		}
+		v.renderNanos = System.nanoTime()-start;
+		return v;
+	}
+
+	/**
+	 * Writes a manifest listing the rendered volumes.
+	 * @param out the output stream
+	 * @param input the PEF-file
+	 * @param copies the number of copies to emboss of each file
+	 * @param volumes the rendered volumes
+	 */
+	static void writeManifest(PrintStream out, File input, int copies, List<Volume> volumes) {
+		out.println("Source: " + input.getAbsolutePath());
+		out.println("Copies: " + copies);
+		out.println("Files:");
+		for (Volume v : volumes) {
+			out.println(String.format("\t%s\tvolume %d\tpages %d-%d\t%d bytes",
+					v.getFile().getName(), v.getVolume(), v.getPages().getFrom(), v.getPages().getTo(), v.getFile().length()));
+		}
+	}
+
+}
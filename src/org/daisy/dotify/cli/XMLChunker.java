@@ -0,0 +1,244 @@
+package org.daisy.dotify.cli;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * <p>Splits an XML document into several documents at the boundaries of a
+ * structural element, for example <code>level1</code> in DTBook. Each
+ * chunk contains a contiguous range of split elements, and the chunks
+ * are balanced by the amount of text they contain.</p>
+ *
+ * <p>Every chunk is a complete document: the ancestors of the split elements
+ * are present in all chunks, as are shared elements, such as <code>head</code>.
+ * Other content outside of the split elements is included in the chunk that
+ * contains the following split element.</p>
+ *
+ * <p>The document type declaration is copied to every chunk. External entities,
+ * including the external DTD subset, are not loaded. Instead, entity references
+ * are copied as is, so that they are resolved when the chunk is converted, in
+ * the same way as they would be in the original document.</p>
+ */
+class XMLChunker {
+	private static final String SHARED_ELEMENT = "head";
+	private final String splitElement;
+	private final XMLInputFactory inFactory;
+	private final XMLOutputFactory outFactory;
+	private final XMLEventFactory eventFactory;
+
+	/**
+	 * Creates a new chunker.
+	 * @param splitElement the local name of the element to split at
+	 */
+	XMLChunker(String splitElement) {
+		this.splitElement = splitElement;
+		this.inFactory = XMLInputFactory.newInstance();
+		inFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.TRUE);
+		inFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		inFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+		// don't fetch the external DTD subset
+		inFactory.setXMLResolver((publicID, systemID, baseURI, namespace)->new ByteArrayInputStream(new byte[0]));
+		this.outFactory = XMLOutputFactory.newInstance();
+		this.eventFactory = XMLEventFactory.newInstance();
+	}
+
+	/**
+	 * Splits the input file into at most the specified number of chunks.
+	 * @param input the input file
+	 * @param chunks the maximum number of chunks
+	 * @param outputs a function providing the output file for each chunk index
+	 * @return the list of chunk files, in document order. If the input contains less than
+	 * 			two split elements, the list is empty.
+	 * @throws IOException if the input cannot be read or an output cannot be written
+	 */
+	List<File> split(File input, int chunks, ChunkFiles outputs) throws IOException {
+		Structure s = scan(input);
+		List<File> ret = new ArrayList<>();
+		if (s.sizes.size()<2 || chunks<2) {
+			return ret;
+		}
+		int[] firstSplit = balance(s.sizes, Math.min(chunks, s.sizes.size()));
+		for (int i=0; i<firstSplit.length-1; i++) {
+			File f = outputs.get(i);
+			try (InputStream is = new FileInputStream(input); OutputStream os = new FileOutputStream(f)) {
+				writeChunk(is, os, s.containers, firstSplit, i);
+			} catch (XMLStreamException e) {
+				throw new IOException("Failed to write chunk " + i + " of " + input, e);
+			}
+			ret.add(f);
+		}
+		return ret;
+	}
+
+	/**
+	 * Provides the output file for a chunk.
+	 */
+	@FunctionalInterface
+	interface ChunkFiles {
+		File get(int index) throws IOException;
+	}
+
+	private static class Structure {
+		private final BitSet containers = new BitSet();
+		private final List<Long> sizes = new ArrayList<>();
+	}
+
+	/**
+	 * Finds the split elements, their text size, and the elements that contain split elements.
+	 */
+	private Structure scan(File input) throws IOException {
+		Structure s = new Structure();
+		List<Integer> stack = new ArrayList<>();
+		int ordinal = 0;
+		int splitDepth = 0;
+		long size = 0;
+		try (InputStream is = new FileInputStream(input)) {
+			XMLEventReader reader = inFactory.createXMLEventReader(is);
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+				if (event.isStartElement()) {
+					if (splitDepth>0) {
+						splitDepth++;
+					} else if (splitElement.equals(event.asStartElement().getName().getLocalPart())) {
+						splitDepth = 1;
+						size = 0;
+						for (Integer i : stack) {
+							s.containers.set(i);
+						}
+					}
+					stack.add(ordinal);
+					ordinal++;
+				} else if (event.isEndElement()) {
+					stack.remove(stack.size()-1);
+					if (splitDepth>0) {
+						splitDepth--;
+						if (splitDepth==0) {
+							s.sizes.add(size);
+						}
+					}
+				} else if (event.isCharacters() && splitDepth>0) {
+					size += event.asCharacters().getData().length();
+				} else if (event.isEntityReference() && splitDepth>0) {
+					size++;
+				}
+			}
+			reader.close();
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to read " + input, e);
+		}
+		return s;
+	}
+
+	/**
+	 * Distributes the split elements into the specified number of contiguous chunks.
+	 * @return an array where item i contains the index of the first split element in
+	 * 			chunk i, and the last item contains the number of split elements
+	 */
+	static int[] balance(List<Long> sizes, int chunks) {
+		long total = 0;
+		for (Long l : sizes) {
+			total += l;
+		}
+		int[] ret = new int[chunks+1];
+		ret[chunks] = sizes.size();
+		long acc = 0;
+		int chunk = 1;
+		for (int i=0; i<sizes.size() && chunk<chunks; i++) {
+			acc += sizes.get(i);
+			// leave at least one split element for each remaining chunk
+			if ((acc*chunks>=total*chunk && i+1>ret[chunk-1]) || sizes.size()-(i+1)==chunks-chunk) {
+				ret[chunk] = i+1;
+				chunk++;
+			}
+		}
+		return ret;
+	}
+
+	private void writeChunk(InputStream is, OutputStream os, BitSet containers, int[] firstSplit, int chunk) throws XMLStreamException {
+		XMLEventReader reader = inFactory.createXMLEventReader(is);
+		XMLEventWriter writer = outFactory.createXMLEventWriter(os, "UTF-8");
+		int last = firstSplit.length-2;
+		int ordinal = 0;
+		int splitSeen = 0;
+		int copyDepth = 0;
+		int skipDepth = 0;
+		while (reader.hasNext()) {
+			XMLEvent event = reader.nextEvent();
+			// ordinals must match the ones assigned in scan, also in skipped subtrees
+			int current = event.isStartElement() ? ordinal++ : -1;
+			if (skipDepth>0) {
+				if (event.isStartElement()) {
+					skipDepth++;
+				} else if (event.isEndElement()) {
+					skipDepth--;
+				}
+			} else if (copyDepth>0) {
+				if (event.isStartElement()) {
+					copyDepth++;
+				} else if (event.isEndElement()) {
+					copyDepth--;
+				}
+				writer.add(event);
+			} else if (event.isStartDocument()) {
+				writer.add(eventFactory.createStartDocument("UTF-8", ((StartDocument)event).getVersion()));
+			} else if (event.isStartElement()) {
+				String name = event.asStartElement().getName().getLocalPart();
+				if (containers.get(current)) {
+					// ancestors of split elements are present in all chunks
+					writer.add(event);
+				} else {
+					boolean include;
+					if (splitElement.equals(name)) {
+						include = owner(firstSplit, splitSeen, last)==chunk;
+						splitSeen++;
+					} else {
+						include = SHARED_ELEMENT.equals(name) || owner(firstSplit, splitSeen, last)==chunk;
+					}
+					if (include) {
+						writer.add(event);
+						copyDepth = 1;
+					} else {
+						skipDepth = 1;
+					}
+				}
+			} else if ((event.isCharacters() && !event.asCharacters().isWhiteSpace()) || event.isEntityReference()) {
+				// text outside of the split elements belongs to one chunk only
+				if (owner(firstSplit, splitSeen, last)==chunk) {
+					writer.add(event);
+				}
+			} else {
+				writer.add(event);
+			}
+		}
+		writer.flush();
+		writer.close();
+		reader.close();
+	}
+
+	private static int owner(int[] firstSplit, int splitIndex, int last) {
+		for (int i=last; i>0; i--) {
+			if (splitIndex>=firstSplit[i]) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+}
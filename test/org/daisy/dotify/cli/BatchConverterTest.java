@@ -0,0 +1,148 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class BatchConverterTest {
+
+	private static BatchJob job(String name, String locale) {
+		return new BatchJob(new File(name), new File(name + ".pef"), locale, new HashMap<>());
+	}
+
+	private static void add(BatchConverter bc, String prefix, String locale, int count) {
+		for (int i=0; i<count; i++) {
+			bc.add(job(prefix + i + ".xml", locale));
+		}
+	}
+
+	private static int size(List<Deque<BatchJob>> groups) {
+		int ret = 0;
+		for (Deque<BatchJob> g : groups) {
+			ret += g.size();
+		}
+		return ret;
+	}
+
+	@Test
+	public void testGroupKey() {
+		assertEquals(job("a.xml", "sv-SE").getGroupKey(), job("b.xml", "sv-SE").getGroupKey());
+		assertNotEquals(job("a.xml", "sv-SE").getGroupKey(), job("a.xml", "en-US").getGroupKey());
+		assertNotEquals(job("a.xml", "sv-SE").getGroupKey(), job("a.txt", "sv-SE").getGroupKey());
+	}
+
+	@Test
+	public void testAssignGroupsLargestFirst() {
+		BatchConverter bc = new BatchConverter(2, (job, cache)->{});
+		add(bc, "a", "sv-SE", 1);
+		add(bc, "b", "en-US", 3);
+		add(bc, "c", "en-GB", 5);
+		add(bc, "d", "de-DE", 3);
+		List<List<Deque<BatchJob>>> assigned = bc.assignGroups(2);
+		assertEquals(2, assigned.size());
+		// 5 and 1 to the first worker, 3 and 3 to the second
+		assertEquals(2, assigned.get(0).size());
+		assertEquals(5, assigned.get(0).get(0).size());
+		assertEquals(1, assigned.get(0).get(1).size());
+		assertEquals(6, size(assigned.get(1)));
+	}
+
+	@Test
+	public void testAssignGroupsMoreWorkersThanGroups() {
+		BatchConverter bc = new BatchConverter(3, (job, cache)->{});
+		add(bc, "a", "sv-SE", 4);
+		List<List<Deque<BatchJob>>> assigned = bc.assignGroups(3);
+		assertEquals(4, size(assigned.get(0)));
+		assertTrue(assigned.get(1).isEmpty());
+		assertTrue(assigned.get(2).isEmpty());
+	}
+
+	@Test
+	public void testGroupsArePinnedToWorkers() {
+		Map<String, List<String>> threads = Collections.synchronizedMap(new HashMap<>());
+		BatchConverter bc = new BatchConverter(2, (job, cache)->{
+			threads.computeIfAbsent(job.getLocale(), k->Collections.synchronizedList(new ArrayList<>())).add(Thread.currentThread().getName());
+			sleep(20);
+		});
+		add(bc, "a", "sv-SE", 6);
+		add(bc, "b", "en-US", 6);
+		BatchSummary summary = bc.run();
+		assertEquals(12, summary.getEntries().size());
+		// the first jobs of each group are processed by the worker that the group is assigned to
+		String sv = threads.get("sv-SE").get(0);
+		String en = threads.get("en-US").get(0);
+		assertNotEquals(sv, en);
+		assertEquals(sv, threads.get("sv-SE").get(1));
+		assertEquals(en, threads.get("en-US").get(1));
+	}
+
+	@Test
+	public void testIdleWorkerStealsFromTheEnd() {
+		List<String> order = Collections.synchronizedList(new ArrayList<>());
+		Map<String, List<Integer>> byThread = Collections.synchronizedMap(new HashMap<>());
+		BatchConverter bc = new BatchConverter(2, (job, cache)->{
+			int i = Integer.parseInt(job.getInput().getName().replaceAll("\\D", ""));
+			order.add(job.getInput().getName());
+			byThread.computeIfAbsent(Thread.currentThread().getName(), k->Collections.synchronizedList(new ArrayList<>())).add(i);
+			sleep(20);
+		});
+		add(bc, "a", "sv-SE", 8);
+		BatchSummary summary = bc.run();
+		assertEquals(8, summary.getEntries().size());
+		assertEquals(8, order.size());
+		assertEquals(8, new HashSet<>(order).size());
+		// the group is assigned to one worker, the other worker takes jobs from the end
+		assertEquals(2, byThread.size());
+		for (List<Integer> jobs : byThread.values()) {
+			List<Integer> sorted = new ArrayList<>(jobs);
+			Collections.sort(sorted);
+			if (jobs.get(0)==0) {
+				assertEquals(sorted, jobs);
+			} else {
+				assertEquals(Integer.valueOf(7), jobs.get(0));
+				Collections.reverse(sorted);
+				assertEquals(sorted, jobs);
+			}
+		}
+	}
+
+	@Test
+	public void testFailuresAreReported() {
+		BatchConverter bc = new BatchConverter(1, (job, cache)->{
+			if (job.getInput().getName().startsWith("a1")) {
+				throw new RuntimeException("Failed");
+			}
+		});
+		add(bc, "a", "sv-SE", 3);
+		BatchSummary summary = bc.run();
+		int failed = 0;
+		for (BatchSummary.Entry e : summary.getEntries()) {
+			if (!e.isSuccessful()) {
+				failed++;
+				assertEquals("a1.xml", e.getJob().getInput().getName());
+			}
+		}
+		assertEquals(1, failed);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.daisy.dotify.common.io.FileIO;
+import org.daisy.dotify.common.text.FilterLocale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+@SuppressWarnings("javadoc")
+public class ChunkedConverterTest {
+	private static final String PEF_NS = "http://www.daisy.org/ns/2008/pef";
+	private File tmp;
+
+	@Before
+	public void setUp() throws IOException {
+		tmp = Files.createTempDirectory("chunked").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		FileIO.deleteRecursive(tmp);
+	}
+
+	private File write(String name, String content) throws IOException {
+		File f = new File(tmp, name);
+		Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return f;
+	}
+
+	private static String obfl(String ... sequences) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<obfl xmlns=\"http://www.daisy.org/ns/2011/obfl\" version=\"2011-1\" xml:lang=\"en\">");
+		for (String s : sequences) {
+			sb.append(s);
+		}
+		return sb.append("</obfl>").toString();
+	}
+
+	private static String pef(boolean duplex, int ... pages) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<pef xmlns=\"http://www.daisy.org/ns/2008/pef\" version=\"2008-1\"><body>");
+		sb.append("<volume cols=\"10\" rows=\"10\" rowgap=\"0\" duplex=\"").append(duplex).append("\">");
+		for (int p : pages) {
+			sb.append("<section>");
+			for (int i=0; i<p; i++) {
+				sb.append("<page><row/></page>");
+			}
+			sb.append("</section>");
+		}
+		return sb.append("</volume></body></pef>").toString();
+	}
+
+	@Test
+	public void testLayout() throws IOException {
+		ChunkedConverter.Layout l = ChunkedConverter.Layout.read(write("a.pef", pef(true, 3, 4, 1)));
+		assertEquals(1, l.getVolumes());
+		// 2 + 2 + 1 sheets
+		assertEquals(1, l.estimateVolumes(5));
+		assertEquals(2, l.estimateVolumes(4));
+	}
+
+	@Test
+	public void testInitialPageNumbers() throws IOException {
+		List<OBFLChunk> docs = new ArrayList<>();
+		docs.add(OBFLChunk.load(write("1.obfl", obfl(
+				"<sequence master=\"front\" initial-page-number=\"1\"/>",
+				"<sequence master=\"main\" initial-page-number=\"1\"/>"))));
+		// continues the main sequence
+		docs.add(OBFLChunk.load(write("2.obfl", obfl(
+				"<sequence master=\"main\" initial-page-number=\"1\"/>",
+				"<sequence master=\"notes\" page-number-counter=\"notes\"/>"))));
+		// a new sequence with an explicit page number, followed by a continuing sequence
+		docs.add(OBFLChunk.load(write("3.obfl", obfl(
+				"<sequence master=\"appendix\" initial-page-number=\"1\"/>",
+				"<sequence master=\"main\"/>"))));
+		// no initial page number
+		docs.add(OBFLChunk.load(write("4.obfl", obfl(
+				"<sequence master=\"other\"/>"))));
+		List<ChunkedConverter.Layout> layouts = new ArrayList<>();
+		layouts.add(ChunkedConverter.Layout.read(write("1.pef", pef(true, 4, 7))));
+		layouts.add(ChunkedConverter.Layout.read(write("2.pef", pef(true, 5, 9))));
+		layouts.add(ChunkedConverter.Layout.read(write("3.pef", pef(true, 2, 3))));
+		layouts.add(ChunkedConverter.Layout.read(write("4.pef", pef(true, 1))));
+		// main: 1-7, rounded to 8, continued at 9-13, rounded to 14; appendix: 1-2, main: 3-5, rounded to 6
+		assertArrayEquals(new Integer[]{null, 9, null, 7}, ChunkedConverter.initialPageNumbers(docs, layouts));
+	}
+
+	@Test
+	public void testInitialPageNumbersSimplex() throws IOException {
+		List<OBFLChunk> docs = new ArrayList<>();
+		List<ChunkedConverter.Layout> layouts = new ArrayList<>();
+		for (int i=0; i<3; i++) {
+			docs.add(OBFLChunk.load(write(i + ".obfl", obfl("<sequence master=\"main\" initial-page-number=\"1\"/>"))));
+			layouts.add(ChunkedConverter.Layout.read(write(i + ".pef", pef(false, 5))));
+		}
+		assertArrayEquals(new Integer[]{null, 6, 11}, ChunkedConverter.initialPageNumbers(docs, layouts));
+	}
+
+	/**
+	 * Compares a chunked and an unchunked conversion of the same document. The document
+	 * has two volumes in both cases, but the volume break is at different places. Since the
+	 * layout is simplex, the body pages are the same regardless of where the volume break is.
+	 */
+	@Test
+	public void testChunkedMatchesUnchunked() throws Exception {
+		File input = write("input.xml", dtbook(8, 1));
+		Map<String, String> params = new HashMap<>();
+		params.put("duplex", "false");
+		params.put("volume-toc", "false");
+		params.put(SystemKeys.OUTPUT_FORMAT.getKey(), SystemKeys.PEF_FORMAT.getKey());
+		FilterLocale locale = FilterLocale.parse("sv-SE");
+
+		File unchunked = new File(tmp, "unchunked.pef");
+		Convert.run(input, unchunked, locale, new HashMap<>(params));
+		File chunked = new File(tmp, "chunked.pef");
+		new ChunkedConverter(2, 2, "level1").run(input, chunked, locale, new HashMap<>(params));
+
+		List<List<List<String>>> expected = volumes(unchunked);
+		List<List<List<String>>> actual = volumes(chunked);
+		assertEquals(2, expected.size());
+		assertEquals(expected.size(), actual.size());
+		// the first section of each volume is the cover, which includes the volume number and the number of volumes
+		for (int i=0; i<expected.size(); i++) {
+			assertEquals(expected.get(i).get(0), actual.get(i).get(0));
+		}
+		assertEquals(body(expected), body(actual));
+	}
+
+	private static String dtbook(int chapters, long seed) {
+		Random r = new Random(seed);
+		String[] words = "the quick brown fox jumps over the lazy dog while reading a braille book".split(" ");
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		sb.append("<dtbook xmlns=\"http://www.daisy.org/z3986/2005/dtbook/\" version=\"2005-3\" xml:lang=\"sv\">");
+		sb.append("<head><meta name=\"dc:Title\" content=\"Test\"/><meta name=\"dc:Identifier\" content=\"chunked-test\"/><meta name=\"dc:Language\" content=\"sv\"/></head>");
+		sb.append("<book><frontmatter><doctitle>Test</doctitle></frontmatter><bodymatter>");
+		for (int c=1; c<=chapters; c++) {
+			sb.append("<level1><h1>Chapter ").append(c).append("</h1>");
+			for (int p=0; p<24; p++) {
+				sb.append("<p>");
+				for (int w=0; w<40; w++) {
+					sb.append(words[r.nextInt(words.length)]).append(' ');
+				}
+				sb.append("end.</p>");
+			}
+			sb.append("</level1>");
+		}
+		sb.append("</bodymatter></book></dtbook>");
+		return sb.toString();
+	}
+
+	/**
+	 * Gets the text of the pages of each section of each volume.
+	 */
+	private static List<List<List<String>>> volumes(File pef) throws Exception {
+		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		Document doc = dbf.newDocumentBuilder().parse(pef);
+		List<List<List<String>>> ret = new ArrayList<>();
+		NodeList volumes = doc.getElementsByTagNameNS(PEF_NS, "volume");
+		for (int v=0; v<volumes.getLength(); v++) {
+			List<List<String>> sections = new ArrayList<>();
+			NodeList sl = ((Element)volumes.item(v)).getElementsByTagNameNS(PEF_NS, "section");
+			for (int s=0; s<sl.getLength(); s++) {
+				List<String> pages = new ArrayList<>();
+				NodeList pl = ((Element)sl.item(s)).getElementsByTagNameNS(PEF_NS, "page");
+				for (int p=0; p<pl.getLength(); p++) {
+					pages.add(pl.item(p).getTextContent());
+				}
+				sections.add(pages);
+			}
+			ret.add(sections);
+		}
+		return ret;
+	}
+
+	private static List<String> body(List<List<List<String>>> volumes) {
+		List<String> ret = new ArrayList<>();
+		for (List<List<String>> v : volumes) {
+			for (List<String> s : v.subList(1, v.size())) {
+				ret.addAll(s);
+			}
+		}
+		assertTrue(ret.size()>50);
+		return ret;
+	}
+
+}
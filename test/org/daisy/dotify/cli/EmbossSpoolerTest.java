@@ -0,0 +1,279 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.print.PrintException;
+
+import org.daisy.dotify.common.io.FileIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class EmbossSpoolerTest {
+	private static final String EMBOSSER = "org_daisy.GenericEmbosserProvider.EmbosserType.NONE";
+	private static final String PAPER = "org_daisy.ISO216PaperProvider.PaperSize.A4";
+	private static final long TIMEOUT = 20000;
+	private File tmp;
+	private File pef;
+	private EmbossSpooler spooler;
+	private Thread thread;
+
+	@Before
+	public void setUp() throws IOException {
+		tmp = Files.createTempDirectory("spooler").toFile();
+		pef = new File(tmp, "book.pef");
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		sb.append("<pef xmlns=\"http://www.daisy.org/ns/2008/pef\" version=\"2008-1\"><head><meta xmlns:dc=\"http://purl.org/dc/elements/1.1/\">");
+		sb.append("<dc:format>application/x-pef+xml</dc:format><dc:identifier>spooler-test</dc:identifier></meta></head><body>");
+		sb.append("<volume cols=\"20\" rows=\"10\" rowgap=\"0\" duplex=\"false\"><section>");
+		for (int i=0; i<3; i++) {
+			sb.append("<page><row>\u2801\u2803\u2809</row><row>\u280F\u2811</row></page>");
+		}
+		sb.append("</section></volume></body></pef>");
+		Files.write(pef.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+		spooler = new EmbossSpooler();
+		assertTrue(spooler.setQueue(new File(tmp, "queue")));
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		stopSpooler();
+		FileIO.deleteRecursive(tmp);
+	}
+
+	private void startSpooler() {
+		thread = new Thread(()->{
+			try {
+				spooler.start(new File(tmp, "spooler.lock"));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void stopSpooler() throws InterruptedException {
+		if (thread!=null) {
+			thread.interrupt();
+			thread.join(TIMEOUT);
+			thread = null;
+		}
+	}
+
+	private File dir(String name) {
+		File ret = new File(tmp, name);
+		ret.mkdirs();
+		return ret;
+	}
+
+	private EmbossJob newJob(File dir, int copies) throws IOException {
+		Properties props = new Properties();
+		props.setProperty(EmbossJob.KEY_SOURCE, pef.getAbsolutePath());
+		props.setProperty(EmbossJob.KEY_DIR, dir.getAbsolutePath());
+		props.setProperty(EmbossJob.KEY_EMBOSSER, EMBOSSER);
+		props.setProperty(EmbossJob.KEY_PAPER, PAPER);
+		props.setProperty(EmbossJob.KEY_COPIES, String.valueOf(copies));
+		return EmbossJob.create(spooler.getJobsFolder(), props);
+	}
+
+	private EmbossJob reload(EmbossJob job) throws IOException {
+		return EmbossJob.load(new File(spooler.getJobsFolder(), job.getId() + EmbossJob.SUFFIX));
+	}
+
+	private EmbossJob awaitFinal(EmbossJob job) throws IOException, InterruptedException {
+		long start = System.currentTimeMillis();
+		EmbossJob ret = reload(job);
+		while (!ret.getState().isFinal()) {
+			if (System.currentTimeMillis()-start>TIMEOUT) {
+				throw new AssertionError("Job " + job.getId() + " is still " + ret.getState());
+			}
+			Thread.sleep(50);
+			ret = reload(job);
+		}
+		return ret;
+	}
+
+	private static String[] list(File dir) {
+		String[] ret = dir.list();
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	private byte[] expectedOutput() throws Exception {
+		// renders the same job without the spooler, for comparison
+		File dir = dir("expected");
+		EmbossJob job = newJob(dir, 1);
+		spooler.transmit(spooler.render(job), job.newDevice());
+		byte[] ret = Files.readAllBytes(new File(dir, job.getId() + "_1.prn").toPath());
+		assertTrue(ret.length>0);
+		return ret;
+	}
+
+	@Test
+	public void testJobProperties() throws IOException {
+		EmbossJob job = newJob(dir("out"), 3);
+		assertEquals(EmbossJob.State.QUEUED, job.getState());
+		assertEquals(3, job.getCopies());
+		assertEquals("dir:" + dir("out").getAbsolutePath(), job.getDeviceKey());
+		job.setState(EmbossJob.State.TRANSMITTING, "1 of 3");
+		EmbossJob loaded = reload(job);
+		assertEquals(job.getId(), loaded.getId());
+		assertEquals(EmbossJob.State.TRANSMITTING, loaded.getState());
+		assertEquals("1 of 3", loaded.getMessage());
+		assertEquals(pef.getAbsolutePath(), loaded.get(EmbossJob.KEY_SOURCE));
+		assertFalse(EmbossJob.State.TRANSMITTING.isFinal());
+		assertTrue(EmbossJob.State.DONE.isFinal());
+		assertTrue(EmbossJob.State.FAILED.isFinal());
+		assertTrue(EmbossJob.State.CANCELLED.isFinal());
+	}
+
+	@Test
+	public void testLifecycle() throws Exception {
+		File out = dir("out");
+		EmbossJob job = newJob(out, 2);
+		assertEquals(EmbossJob.State.QUEUED, job.getState());
+		EmbossSpooler.Rendered r = spooler.render(job);
+		assertNotNull(r);
+		assertEquals(EmbossJob.State.READY, reload(job).getState());
+		assertEquals(0, out.list().length);
+		spooler.transmit(r, job.newDevice());
+		EmbossJob done = reload(job);
+		assertEquals(EmbossJob.State.DONE, done.getState());
+		// the throughput of the file device
+		assertFalse("".equals(done.getMessage()));
+		// the generic embosser doesn't support copies, so the job is transmitted twice
+		assertArrayEquals(new String[]{job.getId() + "_1.prn", job.getId() + "_2.prn"}, list(out));
+		assertArrayEquals(Files.readAllBytes(new File(out, job.getId() + "_1.prn").toPath()), Files.readAllBytes(new File(out, job.getId() + "_2.prn").toPath()));
+		assertEquals(0, new File(tmp, "queue/spool").list().length);
+	}
+
+	@Test
+	public void testSpooler() throws Exception {
+		byte[] expected = expectedOutput();
+		File out = dir("out");
+		EmbossJob job = newJob(out, 1);
+		startSpooler();
+		EmbossJob done = awaitFinal(job);
+		assertEquals(EmbossJob.State.DONE, done.getState());
+		assertArrayEquals(new String[]{job.getId() + "_1.prn"}, list(out));
+		assertArrayEquals(expected, Files.readAllBytes(new File(out, job.getId() + "_1.prn").toPath()));
+	}
+
+	@Test
+	public void testRestartInProgress() throws Exception {
+		File out = dir("out");
+		EmbossJob transmitting = newJob(out, 1);
+		transmitting.setState(EmbossJob.State.TRANSMITTING, "1 of 1");
+		EmbossJob rendering = newJob(out, 1);
+		rendering.setState(EmbossJob.State.RENDERING, "");
+		EmbossJob done = newJob(out, 1);
+		done.setState(EmbossJob.State.DONE, "");
+		// left behind by the previous spooler
+		File stale = new File(tmp, "queue/spool/" + transmitting.getId() + ".prn");
+		Files.write(stale.toPath(), new byte[]{1, 2, 3});
+		startSpooler();
+		assertEquals(EmbossJob.State.DONE, awaitFinal(transmitting).getState());
+		assertEquals(EmbossJob.State.DONE, awaitFinal(rendering).getState());
+		assertFalse(stale.exists());
+		// the job that was already done isn't embossed again
+		assertArrayEquals(new String[]{transmitting.getId() + "_1.prn", rendering.getId() + "_1.prn"}, list(out));
+	}
+
+	@Test
+	public void testCancelBeforeRender() throws Exception {
+		File out = dir("out");
+		EmbossJob cancelled = newJob(out, 1);
+		EmbossJob other = newJob(out, 1);
+		spooler.cancel(cancelled.getId());
+		startSpooler();
+		assertEquals(EmbossJob.State.CANCELLED, awaitFinal(cancelled).getState());
+		assertEquals(EmbossJob.State.DONE, awaitFinal(other).getState());
+		assertArrayEquals(new String[]{other.getId() + "_1.prn"}, list(out));
+		assertFalse(new File(spooler.getJobsFolder(), cancelled.getId() + ".cancel").exists());
+	}
+
+	@Test
+	public void testCancelRendered() throws Exception {
+		File out = dir("out");
+		EmbossJob job = newJob(out, 1);
+		spooler.cancel(job.getId());
+		assertNull(spooler.render(job));
+		assertEquals(EmbossJob.State.CANCELLED, reload(job).getState());
+		assertEquals(0, new File(tmp, "queue/spool").list().length);
+	}
+
+	@Test
+	public void testCancelBetweenCopies() throws Exception {
+		File out = dir("out");
+		EmbossJob job = newJob(out, 3);
+		EmbossSpooler.Rendered r = spooler.render(job);
+		ChannelFileDevice device = (ChannelFileDevice)job.newDevice();
+		spooler.transmit(r, f->{
+			device.transmit(f);
+			try {
+				// cancelled while the first copy is transmitted
+				spooler.cancel(job.getId());
+			} catch (IOException e) {
+				throw new PrintException(e);
+			}
+		});
+		assertEquals(EmbossJob.State.CANCELLED, reload(job).getState());
+		assertArrayEquals(new String[]{job.getId() + "_1.prn"}, list(out));
+		assertEquals(0, new File(tmp, "queue/spool").list().length);
+	}
+
+	@Test
+	public void testTwoDevices() throws Exception {
+		byte[] expected = expectedOutput();
+		File out1 = dir("out1");
+		File out2 = dir("out2");
+		EmbossJob a = newJob(out1, 1);
+		EmbossJob b = newJob(out2, 2);
+		EmbossJob c = newJob(out1, 1);
+		startSpooler();
+		for (EmbossJob job : Arrays.asList(a, b, c)) {
+			assertEquals(EmbossJob.State.DONE, awaitFinal(job).getState());
+		}
+		assertArrayEquals(new String[]{a.getId() + "_1.prn", c.getId() + "_1.prn"}, list(out1));
+		assertArrayEquals(new String[]{b.getId() + "_1.prn", b.getId() + "_2.prn"}, list(out2));
+		for (File dir : Arrays.asList(out1, out2)) {
+			for (File f : dir.listFiles()) {
+				assertArrayEquals(f.getName(), expected, Files.readAllBytes(f.toPath()));
+			}
+		}
+	}
+
+	@Test
+	public void testFailedJob() throws Exception {
+		File out = dir("out");
+		EmbossJob job = newJob(out, 1);
+		Properties props = new Properties();
+		props.setProperty(EmbossJob.KEY_SOURCE, pef.getAbsolutePath());
+		props.setProperty(EmbossJob.KEY_DIR, out.getAbsolutePath());
+		props.setProperty(EmbossJob.KEY_EMBOSSER, EMBOSSER);
+		props.setProperty(EmbossJob.KEY_PAPER, "unknown");
+		EmbossJob failed = EmbossJob.create(spooler.getJobsFolder(), props);
+		startSpooler();
+		EmbossJob f = awaitFinal(failed);
+		assertEquals(EmbossJob.State.FAILED, f.getState());
+		assertEquals("Unknown paper: unknown", f.getMessage());
+		// doesn't stop the other jobs on the device
+		assertEquals(EmbossJob.State.DONE, awaitFinal(job).getState());
+	}
+
+}
@@ -0,0 +1,181 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.daisy.braille.utils.pef.Range;
+import org.daisy.dotify.api.embosser.Embosser;
+import org.daisy.dotify.api.embosser.EmbosserFeatures;
+import org.daisy.dotify.api.paper.SheetPaperFormat;
+import org.daisy.dotify.api.paper.SheetPaperFormat.Orientation;
+import org.daisy.dotify.common.io.FileIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FanOutEmbosserTest {
+	private static final int[] PAGES = {10, 4, 8, 2, 6};
+	private File tmp;
+	private File pef;
+
+	@Before
+	public void setUp() throws IOException {
+		tmp = Files.createTempDirectory("fan-out").toFile();
+		pef = new File(tmp, "book.pef");
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		sb.append("<pef xmlns=\"http://www.daisy.org/ns/2008/pef\" version=\"2008-1\"><head><meta xmlns:dc=\"http://purl.org/dc/elements/1.1/\">");
+		sb.append("<dc:format>application/x-pef+xml</dc:format><dc:identifier>fan-out-test</dc:identifier></meta></head><body>");
+		for (int v=0; v<PAGES.length; v++) {
+			sb.append("<volume cols=\"20\" rows=\"10\" rowgap=\"0\" duplex=\"true\"><section>");
+			for (int i=0; i<PAGES[v]; i++) {
+				// each page has a unique number of cells
+				sb.append("<page><row>");
+				for (int j=0; j<=v; j++) {
+					sb.append('\u2801');
+				}
+				sb.append("</row></page>");
+			}
+			sb.append("</section></volume>");
+		}
+		sb.append("</body></pef>");
+		Files.write(pef.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@After
+	public void tearDown() {
+		FileIO.deleteRecursive(tmp);
+	}
+
+	private static Embosser newEmbosser() {
+		EmbossCatalogs catalogs = EmbossCatalogs.getInstance();
+		Embosser ret = catalogs.getEmbosserCatalog().get("org_daisy.GenericEmbosserProvider.EmbosserType.NONE");
+		ret.setFeature(EmbosserFeatures.PAGE_FORMAT, new SheetPaperFormat(
+				catalogs.getPaperCatalog().get("org_daisy.ISO216PaperProvider.PaperSize.A4").asSheetPaper(), Orientation.DEFAULT));
+		return ret;
+	}
+
+	private File dir(String name) {
+		File ret = new File(tmp, name);
+		ret.mkdirs();
+		return ret;
+	}
+
+	private static List<Integer> volumes(FanOutEmbosser.Target t) {
+		List<Integer> ret = new ArrayList<>();
+		for (VolumeRenderer.Volume v : t.getVolumes()) {
+			ret.add(v.getVolume());
+		}
+		return ret;
+	}
+
+	@Test
+	public void testPlan() throws IOException {
+		FanOutEmbosser fo = new FanOutEmbosser(newEmbosser(), Arrays.asList("a", "b"), null);
+		List<FanOutEmbosser.Target> targets = fo.plan(pef, new Range(1), dir("render"));
+		// largest first: 10 to a, 8 to b, 6 to b, 4 to a, 2 to a, since a is first of the two with 14 pages
+		assertEquals(Arrays.asList(1, 2, 4), volumes(targets.get(0)));
+		assertEquals(16, targets.get(0).getPageCount());
+		assertEquals(Arrays.asList(3, 5), volumes(targets.get(1)));
+		assertEquals(14, targets.get(1).getPageCount());
+	}
+
+	@Test
+	public void testPlanThreeDevices() throws IOException {
+		FanOutEmbosser fo = new FanOutEmbosser(newEmbosser(), Arrays.asList("a", "b", "c"), null);
+		List<FanOutEmbosser.Target> targets = fo.plan(pef, new Range(1), dir("render"));
+		// 10 to a, 8 to b, 6 to c, 4 to c, 2 to b
+		assertEquals(Arrays.asList(1), volumes(targets.get(0)));
+		assertEquals(Arrays.asList(3, 4), volumes(targets.get(1)));
+		assertEquals(Arrays.asList(2, 5), volumes(targets.get(2)));
+		assertEquals(10, targets.get(0).getPageCount());
+		assertEquals(10, targets.get(1).getPageCount());
+		assertEquals(10, targets.get(2).getPageCount());
+	}
+
+	@Test
+	public void testPlanRange() throws IOException {
+		FanOutEmbosser fo = new FanOutEmbosser(newEmbosser(), Arrays.asList("a", "b"), null);
+		// pages 9-13 are the last two pages of volume 1 and the first three pages of volume 2
+		List<FanOutEmbosser.Target> targets = fo.plan(pef, new Range(9, 13), dir("render"));
+		assertEquals(Arrays.asList(2), volumes(targets.get(0)));
+		assertEquals(Arrays.asList(1), volumes(targets.get(1)));
+		assertEquals(new Range(9, 10).toString(), targets.get(1).getVolumes().get(0).getPages().toString());
+		assertEquals(3, targets.get(0).getPageCount());
+		assertEquals(2, targets.get(1).getPageCount());
+	}
+
+	@Test
+	public void testEmbossToFolders() throws IOException {
+		File a = dir("a");
+		File b = dir("b");
+		String devA = FanOutEmbosser.DIR_PREFIX + a.getAbsolutePath();
+		String devB = FanOutEmbosser.DIR_PREFIX + b.getAbsolutePath();
+		FanOutEmbosser fo = new FanOutEmbosser(newEmbosser(), Arrays.asList(devA, devB), null);
+		ByteArrayOutputStream progress = new ByteArrayOutputStream();
+		List<FanOutEmbosser.Target> targets = fo.emboss(pef, new Range(1), 2, new PrintStream(progress, true, "UTF-8"));
+		assertTrue(FanOutEmbosser.isDone(targets));
+		// two copies of each volume, in volume order
+		assertEquals(6, a.list().length);
+		assertEquals(4, b.list().length);
+		assertEquals(Arrays.asList(1, 1, 2, 2, 4, 4), volumeOfFiles(a));
+		assertEquals(Arrays.asList(3, 3, 5, 5), volumeOfFiles(b));
+
+		ByteArrayOutputStream sheet = new ByteArrayOutputStream();
+		FanOutEmbosser.writeCollationSheet(new PrintStream(sheet, true, "UTF-8"), pef, 2, targets);
+		String expected = String.join(System.lineSeparator(),
+				"Source: " + pef.getAbsolutePath(),
+				"Copies: 2",
+				"Device: " + devA + " (3 volume(s), 16 pages)",
+				"\tvolume 1\tpages 1-10\tdone",
+				"\tvolume 2\tpages 11-14\tdone",
+				"\tvolume 4\tpages 23-24\tdone",
+				"Device: " + devB + " (2 volume(s), 14 pages)",
+				"\tvolume 3\tpages 15-22\tdone",
+				"\tvolume 5\tpages 25-30\tdone", "");
+		assertEquals(expected, sheet.toString("UTF-8"));
+	}
+
+	@Test
+	public void testMissingDevice() throws IOException {
+		File a = dir("a");
+		String devA = FanOutEmbosser.DIR_PREFIX + a.getAbsolutePath();
+		String missing = FanOutEmbosser.DIR_PREFIX + new File(tmp, "missing").getAbsolutePath();
+		FanOutEmbosser fo = new FanOutEmbosser(newEmbosser(), Arrays.asList(devA, missing), null);
+		List<FanOutEmbosser.Target> targets = fo.emboss(pef, new Range(1), 1, new PrintStream(new ByteArrayOutputStream()));
+		assertFalse(FanOutEmbosser.isDone(targets));
+		assertEquals(3, a.list().length);
+		ByteArrayOutputStream sheet = new ByteArrayOutputStream();
+		FanOutEmbosser.writeCollationSheet(new PrintStream(sheet, true, "UTF-8"), pef, 1, targets);
+		String s = sheet.toString("UTF-8");
+		assertTrue(s, s.contains("\tvolume 3\tpages 15-22\tFAILED: Not a directory: "));
+		assertTrue(s, s.contains("\tvolume 4\tpages 23-24\tdone"));
+	}
+
+	/**
+	 * Gets the volume number of each file in the folder, in the order they were written,
+	 * from the length of the rows.
+	 */
+	private static List<Integer> volumeOfFiles(File dir) throws IOException {
+		List<Integer> ret = new ArrayList<>();
+		for (int i=1; i<=dir.list().length; i++) {
+			String data = new String(Files.readAllBytes(new File(dir, "job_" + i + ".prn").toPath()), StandardCharsets.US_ASCII);
+			String row = data.trim().split("[\\r\\n\\f]+")[0].trim();
+			ret.add(row.length());
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,134 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.daisy.dotify.api.factory.FactoryProperties;
+import org.daisy.dotify.api.table.BrailleConverter;
+import org.daisy.dotify.api.table.TableCatalog;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FastBrailleConverterTest {
+
+	/**
+	 * Maps each cell to its offset in hexadecimal, that is, to one or two characters.
+	 */
+	private static class HexConverter implements BrailleConverter {
+		@Override
+		public String toBraille(String text) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String toText(String braille) {
+			StringBuilder sb = new StringBuilder();
+			for (char c : braille.toCharArray()) {
+				if (c<0x2800 || c>0x28FF) {
+					throw new IllegalArgumentException("Not braille: " + c);
+				}
+				sb.append(Integer.toHexString(c-0x2800));
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public Charset getPreferredCharset() {
+			return StandardCharsets.US_ASCII;
+		}
+
+		@Override
+		public boolean supportsEightDot() {
+			return true;
+		}
+	}
+
+	private static String allCells() {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<256; i++) {
+			sb.append((char)(0x2800+i));
+		}
+		return sb.toString();
+	}
+
+	private static void assertSameAsConverter(String message, BrailleConverter bc, FastBrailleConverter fbc, String braille) throws IOException {
+		String expected;
+		try {
+			expected = bc.toText(braille);
+		} catch (RuntimeException e) {
+			try {
+				fbc.toText(braille);
+				fail(message + ": expected " + e);
+			} catch (RuntimeException e2) {
+				// expected
+			}
+			return;
+		}
+		assertEquals(message, expected, fbc.toText(braille));
+		StringWriter w = new StringWriter();
+		fbc.write(braille, w);
+		assertEquals(message, expected, w.toString());
+		StringBuilder sb = new StringBuilder("x");
+		fbc.append(braille, sb);
+		assertEquals(message, "x" + expected, sb.toString());
+	}
+
+	@Test
+	public void testAllCellsAllTables() throws IOException {
+		TableCatalog tc = TableCatalog.newInstance();
+		assertFalse(tc.list().isEmpty());
+		for (FactoryProperties p : tc.list()) {
+			BrailleConverter bc = tc.newTable(p.getIdentifier()).newBrailleConverter();
+			FastBrailleConverter fbc = new FastBrailleConverter(bc);
+			for (int i=0; i<256; i++) {
+				String cell = String.valueOf((char)(0x2800+i));
+				assertSameAsConverter(p.getIdentifier() + ", cell " + i, bc, fbc, cell);
+			}
+			String cells = allCells();
+			assertSameAsConverter(p.getIdentifier() + ", all cells", bc, fbc, cells);
+			assertSameAsConverter(p.getIdentifier() + ", six dot cells", bc, fbc, cells.substring(0, 64));
+		}
+	}
+
+	@Test
+	public void testMultiCharacterFallback() throws IOException {
+		BrailleConverter bc = new HexConverter();
+		FastBrailleConverter fbc = new FastBrailleConverter(bc);
+		for (int i=0; i<256; i++) {
+			String cell = String.valueOf((char)(0x2800+i));
+			assertSameAsConverter("cell " + i, bc, fbc, cell);
+		}
+		assertSameAsConverter("all cells", bc, fbc, allCells());
+		assertEquals("1f", fbc.toText("\u2801\u280F"));
+		assertEquals("1ff", fbc.toText("\u2801\u28FF"));
+	}
+
+	@Test
+	public void testNonBrailleInput() throws IOException {
+		BrailleConverter bc = new HexConverter();
+		FastBrailleConverter fbc = new FastBrailleConverter(bc);
+		assertSameAsConverter("non braille", bc, fbc, "\u2801a");
+		assertEquals("", fbc.toText(""));
+	}
+
+	@Test
+	public void testLongInput() {
+		FastBrailleConverter fbc = new FastBrailleConverter(new HexConverter());
+		StringBuilder in = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i=0; i<1000; i++) {
+			in.append('\u2803');
+			expected.append('3');
+		}
+		// larger than the initial buffer
+		assertEquals(expected.toString(), fbc.toText(in));
+		assertEquals("3", fbc.toText("\u2803"));
+	}
+
+}
@@ -0,0 +1,124 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class MappedFileReaderTest {
+	// one, two, three and four byte characters, the last one is a surrogate pair
+	private static final String TEXT = "a\u00E5\u2800b\uD83D\uDE00\n\u00E4\u283F\uD834\uDD1Ecd\u00F6\n";
+	private File tmp;
+
+	@Before
+	public void setUp() throws IOException {
+		tmp = File.createTempFile("mapped", ".txt");
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<20; i++) {
+			sb.append(TEXT);
+		}
+		Files.write(tmp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@After
+	public void tearDown() {
+		tmp.delete();
+	}
+
+	private String expected() throws IOException {
+		return new String(Files.readAllBytes(tmp.toPath()), StandardCharsets.UTF_8);
+	}
+
+	private static String read(MappedFileReader r, int len) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[len+2];
+		int n;
+		while ((n = r.read(buf, 1, len))!=-1) {
+			assertTrue(n>0 && n<=len);
+			sb.append(buf, 1, n);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testWindowBoundaries() throws IOException {
+		String expected = expected();
+		// with these window sizes, each of the multi-byte characters is split between two windows somewhere in the file
+		for (int windowSize=4; windowSize<=TEXT.length()*3; windowSize++) {
+			for (int len : new int[]{1, 2, 3, 5, 4096}) {
+				try (MappedFileReader r = new MappedFileReader(tmp, windowSize, null)) {
+					assertEquals("Window size " + windowSize + ", length " + len, expected, read(r, len));
+					assertFalse(r.ready());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testReadSingleCharacters() throws IOException {
+		// Reader.read() reads into a buffer of length 1, which can't hold a surrogate pair
+		StringBuilder sb = new StringBuilder();
+		try (MappedFileReader r = new MappedFileReader(tmp, 5, null)) {
+			int c;
+			while ((c = r.read())!=-1) {
+				sb.append((char)c);
+			}
+			assertEquals(-1, r.read());
+		}
+		assertEquals(expected(), sb.toString());
+	}
+
+	@Test
+	public void testReadLines() throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader r = new BufferedReader(new MappedFileReader(tmp, 7, null))) {
+			String line;
+			while ((line = r.readLine())!=null) {
+				lines.add(line);
+			}
+		}
+		assertEquals(Files.readAllLines(tmp.toPath(), StandardCharsets.UTF_8), lines);
+	}
+
+	@Test
+	public void testProgress() throws IOException {
+		List<Long> positions = new ArrayList<>();
+		long size = tmp.length();
+		try (MappedFileReader r = new MappedFileReader(tmp, 64, (p, s)->{
+			assertEquals(size, s);
+			positions.add(p);
+		})) {
+			read(r, 4096);
+		}
+		assertEquals(Long.valueOf(0), positions.get(0));
+		assertEquals(Long.valueOf(size), positions.get(positions.size()-1));
+		assertTrue(positions.size()>size/64);
+	}
+
+	@Test
+	public void testEmptyFile() throws IOException {
+		Files.write(tmp.toPath(), new byte[0]);
+		try (MappedFileReader r = new MappedFileReader(tmp, 4, null)) {
+			assertEquals(-1, r.read(new char[4], 0, 4));
+			assertFalse(r.ready());
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testWindowTooSmall() throws IOException {
+		new MappedFileReader(tmp, 3, null).close();
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class OBFLChunkTest {
+	private static final String OBFL =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<obfl xmlns=\"http://www.daisy.org/ns/2011/obfl\" version=\"2011-1\" xml:lang=\"en\">"
+			+ "<layout-master name=\"main\" page-width=\"10\" page-height=\"10\" duplex=\"true\"><default-template><header/><footer/></default-template></layout-master>"
+			+ "<volume-template sheets-in-volume-max=\"40\" use-when=\"(= $volume 1)\">"
+			+ "<pre-content><sequence master=\"main\"><block><evaluate expression=\"(format &quot;{0} of {1}&quot; $volume $volumes)\"/></block></sequence></pre-content>"
+			+ "</volume-template>"
+			+ "<sequence master=\"main\" initial-page-number=\"1\"><block>A</block></sequence>"
+			+ "<sequence master=\"main\" page-number-counter=\"x\"><block>B</block></sequence>"
+			+ "<sequence master=\"main\"><block>C</block></sequence>"
+			+ "</obfl>";
+	private File tmp;
+
+	@Before
+	public void setUp() throws IOException {
+		tmp = Files.createTempDirectory("obfl-chunk").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		for (File f : tmp.listFiles()) {
+			f.delete();
+		}
+		tmp.delete();
+	}
+
+	private OBFLChunk load(String obfl) throws IOException {
+		File f = new File(tmp, "in.obfl");
+		Files.write(f.toPath(), obfl.getBytes(StandardCharsets.UTF_8));
+		return OBFLChunk.load(f);
+	}
+
+	private String read(File f) throws IOException {
+		return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testAdjustExpression() {
+		Set<String> volume = new HashSet<>(Arrays.asList("volume", "started-volume-number"));
+		Set<String> volumes = new HashSet<>(Arrays.asList("volumes"));
+		assertEquals("(= (+ $volume 2) 1)", OBFLChunk.adjustExpression("(= $volume 1)", volume, volumes, 2, 5));
+		assertEquals("(format \"{0} of {1}\" (+ $volume 2) 5)", OBFLChunk.adjustExpression("(format \"{0} of {1}\" $volume $volumes)", volume, volumes, 2, 5));
+		assertEquals("(+ $started-volume-number 3)", OBFLChunk.adjustExpression("$started-volume-number", volume, volumes, 3, 5));
+		assertEquals("(= $volume 1)", OBFLChunk.adjustExpression("(= $volume 1)", volume, volumes, 0, 5));
+		assertEquals("(= (% $page 2) 0)", OBFLChunk.adjustExpression("(= (% $page 2) 0)", volume, volumes, 2, 5));
+		assertEquals("$volume-x", OBFLChunk.adjustExpression("$volume-x", volume, volumes, 2, 5));
+	}
+
+	@Test
+	public void testSequences() throws IOException {
+		OBFLChunk c = load(OBFL);
+		assertEquals(3, c.getSequenceCount());
+		assertEquals("main", c.getMaster(0));
+		assertEquals(Integer.valueOf(1), c.getInitialPageNumber(0));
+		assertNull(c.getInitialPageNumber(2));
+		assertFalse(c.hasPageNumberCounter(0));
+		assertTrue(c.hasPageNumberCounter(1));
+		assertEquals(40, c.getSheetsInVolumeMax());
+		assertFalse(c.hasVolumeTransition());
+	}
+
+	@Test
+	public void testWrite() throws IOException {
+		File out = new File(tmp, "out.obfl");
+		OBFLChunk in = load(OBFL);
+		in.write(out, 17, 2, 4, in);
+		OBFLChunk c = OBFLChunk.load(out);
+		assertEquals(3, c.getSequenceCount());
+		assertEquals(Integer.valueOf(17), c.getInitialPageNumber(0));
+		assertNull(c.getInitialPageNumber(2));
+		String obfl = read(out);
+		assertTrue(obfl.contains("use-when=\"(= (+ $volume 2) 1)\""));
+		assertTrue(obfl.contains("(+ $volume 2) 4)"));
+	}
+
+	@Test
+	public void testWriteWithTemplates() throws IOException {
+		OBFLChunk templates = load(OBFL);
+		OBFLChunk in = load(OBFL.replace("(= $volume 1)", "(= $v 1)").replace("<volume-template ", "<volume-template volume-number-variable=\"v\" "));
+		File out = new File(tmp, "out.obfl");
+		in.write(out, null, 1, 2, templates);
+		String obfl = read(out);
+		assertFalse(obfl.contains("volume-number-variable"));
+		assertTrue(obfl.contains("use-when=\"(= (+ $volume 1) 1)\""));
+		assertEquals(obfl.indexOf("<volume-template"), obfl.lastIndexOf("<volume-template"));
+		assertTrue(obfl.indexOf("<volume-template")<obfl.indexOf("<block>A"));
+	}
+
+	@Test
+	public void testWriteLayout() throws IOException {
+		File out = new File(tmp, "layout.obfl");
+		load(OBFL).writeLayout(out);
+		String obfl = read(out);
+		assertFalse(obfl.contains("pre-content"));
+		assertFalse(obfl.contains("evaluate"));
+		assertTrue(obfl.contains("sheets-in-volume-max=\"100000\""));
+		assertEquals(3, OBFLChunk.load(out).getSequenceCount());
+	}
+
+}
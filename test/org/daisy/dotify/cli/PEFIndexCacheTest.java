@@ -0,0 +1,190 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.daisy.braille.utils.pef.PEFBook;
+import org.daisy.braille.utils.pef.PEFBookLoader;
+import org.daisy.dotify.common.io.FileIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+@SuppressWarnings("javadoc")
+public class PEFIndexCacheTest {
+	private File tmp;
+	private File a;
+	private File b;
+	private File bad;
+	private CountingLoader loader;
+	private PrintStream progress;
+
+	/**
+	 * Keeps track of the files that are loaded.
+	 */
+	private static class CountingLoader extends PEFBookLoader {
+		private final List<String> loaded = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public PEFBook load(File f) throws XPathExpressionException, ParserConfigurationException, SAXException, IOException {
+			loaded.add(f.getName());
+			return super.load(f);
+		}
+
+		private List<String> reset() {
+			List<String> ret = new ArrayList<>(loaded);
+			Collections.sort(ret);
+			loaded.clear();
+			return ret;
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		tmp = Files.createTempDirectory("index").toFile();
+		a = write("a.pef", pef("alpha"));
+		b = write("b.pef", pef("beta"));
+		bad = write("bad.pef", "not a pef-file");
+		loader = new CountingLoader();
+		progress = new PrintStream(new ByteArrayOutputStream());
+	}
+
+	@After
+	public void tearDown() {
+		FileIO.deleteRecursive(tmp);
+	}
+
+	private File write(String name, String content) throws IOException {
+		File f = new File(tmp, name);
+		Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return f;
+	}
+
+	private static String pef(String title) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<pef xmlns=\"http://www.daisy.org/ns/2008/pef\" version=\"2008-1\">"
+				+ "<head><meta xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+				+ "<dc:format>application/x-pef+xml</dc:format><dc:identifier>" + title + "</dc:identifier><dc:title>" + title + "</dc:title></meta></head>"
+				+ "<body><volume cols=\"20\" rows=\"10\" rowgap=\"0\" duplex=\"true\"><section><page><row/></page></section></volume></body></pef>";
+	}
+
+	private int matches(PEFIndexCache cache, String word) {
+		return cache.newSearchIndex().containsAll(word).size();
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		PEFIndexCache cache = new PEFIndexCache(new File(tmp, "cache.idx"));
+		cache.update(Arrays.asList(a, b, bad), loader, 2, progress);
+		assertEquals(Arrays.asList("a.pef", "b.pef", "bad.pef"), loader.reset());
+		assertEquals(3, cache.getLoaded());
+		assertEquals(0, cache.getRemoved());
+		assertEquals(3, cache.size());
+		assertEquals(1, matches(cache, "alpha"));
+		assertEquals(1, matches(cache, "beta"));
+		SortedMap<String, String> failures = cache.getFailures();
+		assertEquals(1, failures.size());
+		assertTrue(failures.containsKey(bad.getAbsolutePath()));
+
+		// nothing has changed, including the failed file
+		cache.update(Arrays.asList(a, b, bad), loader, 2, progress);
+		assertEquals(Collections.emptyList(), loader.reset());
+		assertEquals(0, cache.getLoaded());
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getFailures().size());
+	}
+
+	@Test
+	public void testModified() throws Exception {
+		PEFIndexCache cache = new PEFIndexCache(new File(tmp, "cache.idx"));
+		cache.update(Arrays.asList(a, b), loader, 1, progress);
+		loader.reset();
+		long modified = a.lastModified();
+		write(a.getName(), pef("gamma"));
+		assertTrue(a.setLastModified(modified + 2000));
+		cache.update(Arrays.asList(a, b), loader, 1, progress);
+		assertEquals(Arrays.asList("a.pef"), loader.reset());
+		assertEquals(1, cache.getLoaded());
+		assertEquals(0, matches(cache, "alpha"));
+		assertEquals(1, matches(cache, "gamma"));
+
+		// the same size, but a different time
+		assertTrue(b.setLastModified(b.lastModified() + 2000));
+		cache.update(Arrays.asList(a, b), loader, 1, progress);
+		assertEquals(Arrays.asList("b.pef"), loader.reset());
+	}
+
+	@Test
+	public void testDeleted() throws Exception {
+		PEFIndexCache cache = new PEFIndexCache(new File(tmp, "cache.idx"));
+		cache.update(Arrays.asList(a, b, bad), loader, 2, progress);
+		assertTrue(b.delete());
+		assertTrue(bad.delete());
+		cache.update(Arrays.asList(a), loader, 2, progress);
+		assertEquals(0, cache.getLoaded());
+		assertEquals(2, cache.getRemoved());
+		assertEquals(1, cache.size());
+		assertEquals(0, matches(cache, "beta"));
+		assertTrue(cache.getFailures().isEmpty());
+	}
+
+	@Test
+	public void testFailedFileIsLoadedWhenModified() throws Exception {
+		PEFIndexCache cache = new PEFIndexCache(new File(tmp, "cache.idx"));
+		cache.update(Arrays.asList(bad), loader, 1, progress);
+		assertEquals(1, cache.getFailures().size());
+		loader.reset();
+		long modified = bad.lastModified();
+		write(bad.getName(), pef("delta"));
+		assertTrue(bad.setLastModified(modified + 2000));
+		cache.update(Arrays.asList(bad), loader, 1, progress);
+		assertEquals(Arrays.asList("bad.pef"), loader.reset());
+		assertTrue(cache.getFailures().isEmpty());
+		assertEquals(1, matches(cache, "delta"));
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		File f = new File(new File(tmp, "sub"), "cache.idx");
+		PEFIndexCache cache = new PEFIndexCache(f);
+		cache.update(Arrays.asList(a, b, bad), loader, 2, progress);
+		cache.write();
+		assertTrue(f.isFile());
+		loader.reset();
+
+		PEFIndexCache copy = new PEFIndexCache(f);
+		copy.read();
+		assertEquals(3, copy.size());
+		copy.update(Arrays.asList(a, b, bad), loader, 2, progress);
+		assertEquals(Collections.emptyList(), loader.reset());
+		assertEquals(1, matches(copy, "alpha"));
+		assertEquals(cache.getFailures(), copy.getFailures());
+	}
+
+	@Test
+	public void testReadInvalid() throws Exception {
+		File f = write("cache.idx", "not an index");
+		PEFIndexCache cache = new PEFIndexCache(f);
+		cache.read();
+		assertEquals(0, cache.size());
+		cache.update(Arrays.asList(a), loader, 1, progress);
+		assertEquals(1, cache.getLoaded());
+	}
+
+}
@@ -0,0 +1,97 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ParallelTranslatorTest {
+	private static final String[] WORDS = {
+			"the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "braille", "reading",
+			"Knowledge", "is", "power", "1984", "and", "7.5", "percent", "e-mail", "(parentheses)", "\"quoted\""
+	};
+
+	private static String text(int lines, long seed) {
+		Random r = new Random(seed);
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<lines; i++) {
+			// lines of different lengths, so that the translators use buffers of different sizes
+			int words = 1 + r.nextInt(60);
+			for (int w=0; w<words; w++) {
+				sb.append(WORDS[r.nextInt(WORDS.length)]).append(' ');
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String translate(String locale, String mode, String text) throws Exception {
+		BrailleTranslator t = BrailleTranslatorFactoryMaker.newInstance().newTranslator(locale, mode);
+		StringWriter out = new StringWriter();
+		try (BufferedReader in = new BufferedReader(new StringReader(text))) {
+			String line;
+			while ((line=in.readLine())!=null) {
+				TranslateCLI.translate(t, null, line, out);
+				out.write(System.lineSeparator());
+			}
+		}
+		return out.toString();
+	}
+
+	private static String translate(String locale, String mode, String text, int threads, int blockSize) throws Exception {
+		TranslatorPool pool = new TranslatorPool(BrailleTranslatorFactoryMaker.newInstance(), 1, 0, 60000);
+		try {
+			StringWriter out = new StringWriter();
+			new ParallelTranslator(threads, blockSize, pool, locale, mode, null, null).run(new BufferedReader(new StringReader(text)), out, true);
+			return out.toString();
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testLiblouis() throws Exception {
+		String text = text(400, 1);
+		assertEquals(translate("en-US", "grade:1", text), translate("en-US", "grade:1", text, 8, 3));
+		assertEquals(translate("en-US", "grade:2", text), translate("en-US", "grade:2", text, 8, 1));
+	}
+
+	@Test
+	public void testLiblouisConcurrentModes() throws Exception {
+		String text = text(200, 2);
+		String expected1 = translate("en-US", "grade:1", text);
+		String expected2 = translate("en-US", "grade:2", text);
+		String[] actual = new String[2];
+		Exception[] failure = new Exception[1];
+		// two parallel translators with different modes use the same liblouis buffers
+		Thread t = new Thread(()->{
+			try {
+				actual[1] = translate("en-US", "grade:2", text, 4, 2);
+			} catch (Exception e) {
+				failure[0] = e;
+			}
+		});
+		t.start();
+		actual[0] = translate("en-US", "grade:1", text, 4, 2);
+		t.join();
+		if (failure[0]!=null) {
+			throw failure[0];
+		}
+		assertEquals(expected1, actual[0]);
+		assertEquals(expected2, actual[1]);
+	}
+
+	@Test
+	public void testOrder() throws Exception {
+		String text = text(400, 3);
+		assertEquals(translate("sv-SE", "uncontracted", text), translate("sv-SE", "uncontracted", text, 8, 3));
+	}
+
+}
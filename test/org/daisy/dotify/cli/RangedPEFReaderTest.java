@@ -0,0 +1,198 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.daisy.braille.utils.pef.PEFConverterFacade;
+import org.daisy.braille.utils.pef.PEFHandler;
+import org.daisy.braille.utils.pef.Range;
+import org.daisy.dotify.api.embosser.Embosser;
+import org.daisy.dotify.api.embosser.EmbosserCatalog;
+import org.daisy.dotify.common.io.FileIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+@SuppressWarnings("javadoc")
+public class RangedPEFReaderTest {
+	private static final String NONE = "org_daisy.GenericEmbosserProvider.EmbosserType.NONE";
+	private static final String[] RANGES = {
+			"1-", "1-1", "1-2", "2-3", "3-4", "4-7", "5-9", "6-6", "7-8", "8-8", "8-12",
+			"9-", "10-14", "13-13", "14-16", "15-19", "16-", "19-19", "20-", "30-40"
+	};
+	private File tmp;
+	private File pef;
+
+	@Before
+	public void setUp() throws IOException {
+		tmp = Files.createTempDirectory("ranged").toFile();
+		pef = new File(tmp, "book.pef");
+		Files.write(pef.toPath(), book().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@After
+	public void tearDown() {
+		FileIO.deleteRecursive(tmp);
+	}
+
+	/**
+	 * Creates a book with duplex and simplex sections, some of which override the
+	 * duplex attribute of the volume. The pages are numbered like this:
+	 * volume 1: 1-3, 5-6; volume 2: 7, 9, 11-13; volume 3: 15, 17, 19.
+	 */
+	private static String book() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		sb.append("<pef xmlns=\"http://www.daisy.org/ns/2008/pef\" version=\"2008-1\">");
+		sb.append("<head><meta xmlns:dc=\"http://purl.org/dc/elements/1.1/\">");
+		sb.append("<dc:format>application/x-pef+xml</dc:format><dc:identifier>ranged</dc:identifier></meta></head><body>");
+		int[] page = {0};
+		sb.append(volume("true", section(null, 3, page), section(null, 2, page)));
+		sb.append(volume("false", section(null, 2, page), section("true", 3, page)));
+		sb.append(volume("true", section("false", 2, page), section(null, 1, page)));
+		return sb.append("</body></pef>").toString();
+	}
+
+	private static String volume(String duplex, String ... sections) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<volume cols=\"20\" rows=\"10\" rowgap=\"0\" duplex=\"").append(duplex).append("\">");
+		for (String s : sections) {
+			sb.append(s);
+		}
+		return sb.append("</volume>").toString();
+	}
+
+	private static String section(String duplex, int pages, int[] page) {
+		StringBuilder sb = new StringBuilder("<section");
+		if (duplex!=null) {
+			sb.append(" duplex=\"").append(duplex).append("\"");
+		}
+		sb.append(">");
+		for (int i=0; i<pages; i++) {
+			page[0]++;
+			// a unique row on each page
+			sb.append("<page><row>").append((char)(0x2800+page[0])).append((char)(0x2800+page[0]*3)).append("</row><row/></page>");
+		}
+		return sb.append("</section>").toString();
+	}
+
+	private static Map<String, String> settings(String range) {
+		Map<String, String> p = new HashMap<>();
+		p.put(PEFConverterFacade.KEY_EMBOSSER, NONE);
+		p.put(PEFConverterFacade.KEY_TABLE, "org.daisy.braille.impl.table.DefaultTableProvider.TableType.EN_US");
+		p.put(PEFConverterFacade.KEY_BREAKS, "unix");
+		p.put(PEFConverterFacade.KEY_PADDING, "both");
+		p.put(PEFConverterFacade.KEY_RANGE, range);
+		return p;
+	}
+
+	@Test
+	public void testConvertMatchesFacade() throws Exception {
+		PEFConverterFacade facade = new PEFConverterFacade(EmbosserCatalog.newInstance());
+		for (String range : RANGES) {
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			facade.parsePefFile(pef, expected, null, settings(range));
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			PEFParser.convert(pef, actual, settings(range));
+			assertArrayEquals("Range " + range, expected.toByteArray(), actual.toByteArray());
+		}
+	}
+
+	@Test
+	public void testPageCount() throws Exception {
+		assertEquals(13, parse("1-"));
+		assertEquals(1, parse("1-1"));
+		assertEquals(2, parse("2-4"));
+		assertEquals(4, parse("5-9"));
+		assertEquals(0, parse("8-8"));
+		assertEquals(3, parse("10-14"));
+		assertEquals(3, parse("14-"));
+		assertEquals(0, parse("20-"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testMissingInput() throws Exception {
+		PEFParser.convert(new File(tmp, "missing.pef"), new ByteArrayOutputStream(), settings("1-"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnknownOption() throws Exception {
+		Map<String, String> p = settings("1-");
+		p.put("unknown", "value");
+		PEFParser.convert(pef, new ByteArrayOutputStream(), p);
+	}
+
+	/**
+	 * Checks that the elements are ended in the reverse order of being started,
+	 * and records the elements that are ended.
+	 */
+	private static class BalanceHandler extends DefaultHandler {
+		private final Deque<String> open = new ArrayDeque<>();
+		private final List<String> ended = new ArrayList<>();
+		private boolean endDocument = false;
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes atts) {
+			assertFalse(endDocument);
+			open.push(localName);
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			assertFalse(endDocument);
+			assertEquals(open.pop(), localName);
+			ended.add(localName);
+		}
+
+		@Override
+		public void endDocument() {
+			assertTrue("Open elements: " + open, open.isEmpty());
+			endDocument = true;
+		}
+	}
+
+	@Test
+	public void testStopInVolumeIsBalanced() throws Exception {
+		// page 13 is in the middle of the second section of volume 2
+		BalanceHandler h = new BalanceHandler();
+		assertEquals(2, new RangedPEFReader(Range.parseRange("10-12")).parse(pef, h));
+		assertTrue(h.endDocument);
+		List<String> last = h.ended.subList(h.ended.size()-5, h.ended.size());
+		assertEquals(Arrays.asList("page", "section", "volume", "body", "pef"), last);
+		h = new BalanceHandler();
+		assertEquals(1, new RangedPEFReader(Range.parseRange("1-1")).parse(pef, h));
+		assertTrue(h.endDocument);
+	}
+
+	@Test
+	public void testReadAllIsBalanced() throws Exception {
+		BalanceHandler h = new BalanceHandler();
+		assertEquals(13, new RangedPEFReader(null).parse(pef, h));
+		assertTrue(h.endDocument);
+	}
+
+	private int parse(String range) throws Exception {
+		Range r = Range.parseRange(range);
+		Embosser emb = EmbosserCatalog.newInstance().newEmbosser(NONE);
+		PEFHandler ph = new PEFHandler.Builder(emb.newEmbosserWriter(new ByteArrayOutputStream())).range(r).build();
+		return new RangedPEFReader(r).parse(pef, ph);
+	}
+
+}
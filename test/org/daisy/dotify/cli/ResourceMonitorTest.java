@@ -0,0 +1,107 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ResourceMonitorTest {
+	private static final long TIMEOUT_MS = 10000;
+
+	@Test
+	public void testNoLimits() {
+		ResourceMonitor rm = new ResourceMonitor(0, 0);
+		try {
+			assertFalse(rm.hasLimits());
+			ResourceMonitor.Measurement m = rm.begin();
+			byte[][] data = allocate(10);
+			ResourceMonitor.Usage u = m.end();
+			assertEquals(10, data.length);
+			assertNull(m.getExceeded());
+			assertTrue(u.getGcCount()>=0);
+			assertTrue(u.getGcMillis()>=0);
+			assertFalse(Thread.currentThread().isInterrupted());
+		} finally {
+			rm.close();
+		}
+	}
+
+	@Test
+	public void testCpuLimitExceeded() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadCpuTimeSupported());
+		ResourceMonitor rm = new ResourceMonitor(50*1000*1000L, 0);
+		try {
+			assertTrue(rm.hasLimits());
+			ResourceMonitor.Measurement m = rm.begin();
+			long start = System.currentTimeMillis();
+			long x = 0;
+			while (!Thread.currentThread().isInterrupted() && System.currentTimeMillis()-start<TIMEOUT_MS) {
+				x += x*31+1;
+			}
+			assertTrue("Not interrupted " + x, Thread.currentThread().isInterrupted());
+			ResourceMonitor.Usage u = m.end();
+			assertNotNull(m.getExceeded());
+			assertTrue(m.getExceeded().startsWith("CPU time limit exceeded"));
+			assertTrue(u.getCpuNanos()>50*1000*1000L);
+			// the interrupt is cleared when the measurement ends
+			assertFalse(Thread.currentThread().isInterrupted());
+		} finally {
+			rm.close();
+		}
+	}
+
+	@Test
+	public void testAllocationLimitExceeded() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		ResourceMonitor rm = new ResourceMonitor(0, 10*1024*1024L);
+		try {
+			ResourceMonitor.Measurement m = rm.begin();
+			long start = System.currentTimeMillis();
+			while (!Thread.currentThread().isInterrupted() && System.currentTimeMillis()-start<TIMEOUT_MS) {
+				allocate(1);
+			}
+			ResourceMonitor.Usage u = m.end();
+			assertNotNull(m.getExceeded());
+			assertTrue(m.getExceeded().startsWith("Allocation limit exceeded"));
+			assertTrue(u.getAllocatedBytes()>10*1024*1024L);
+			assertFalse(Thread.currentThread().isInterrupted());
+		} finally {
+			rm.close();
+		}
+	}
+
+	@Test
+	public void testWithinLimits() {
+		ResourceMonitor rm = new ResourceMonitor(60*1000*1000*1000L, 1024*1024*1024L);
+		try {
+			ResourceMonitor.Measurement m = rm.begin();
+			allocate(1);
+			ResourceMonitor.Usage u = m.end();
+			assertNull(m.getExceeded());
+			assertFalse(Thread.currentThread().isInterrupted());
+			if (u.getAllocatedBytes()>=0) {
+				assertTrue(u.getAllocatedBytes()>=1024*1024);
+			}
+		} finally {
+			rm.close();
+		}
+	}
+
+	private static byte[][] allocate(int mb) {
+		byte[][] ret = new byte[mb][];
+		for (int i=0; i<mb; i++) {
+			ret[i] = new byte[1024*1024];
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,184 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.BrailleTranslatorResult;
+import org.daisy.dotify.api.translator.TextAttribute;
+import org.daisy.dotify.api.translator.Translatable;
+import org.daisy.dotify.api.translator.TranslatableWithContext;
+import org.daisy.dotify.api.translator.TranslationException;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TranslationCacheTest {
+
+	/**
+	 * Records the translated segments and returns the text in upper case.
+	 */
+	private static class RecordingTranslator implements BrailleTranslator {
+		private final List<String> translated = new ArrayList<>();
+
+		@Override
+		public BrailleTranslatorResult translate(Translatable input) throws TranslationException {
+			translated.add(input.getText());
+			return new Result(input.getText().toUpperCase());
+		}
+
+		@Override
+		public BrailleTranslatorResult translate(TranslatableWithContext input) throws TranslationException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getTranslatorMode() {
+			return "test";
+		}
+	}
+
+	private static class Result implements BrailleTranslatorResult {
+		private final String text;
+		private boolean consumed = false;
+
+		private Result(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public String nextTranslatedRow(int limit, boolean force, boolean wholeWordsOnly) {
+			return getTranslatedRemainder();
+		}
+
+		@Override
+		public String getTranslatedRemainder() {
+			String ret = consumed ? "" : text;
+			consumed = true;
+			return ret;
+		}
+
+		@Override
+		public int countRemaining() {
+			return consumed ? 0 : text.length();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !consumed;
+		}
+
+		@Override
+		public boolean supportsMetric(String metric) {
+			return false;
+		}
+
+		@Override
+		public double getMetric(String metric) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public BrailleTranslatorResult copy() {
+			Result ret = new Result(text);
+			ret.consumed = consumed;
+			return ret;
+		}
+	}
+
+	private static final TextAttribute ATTRIBUTE = new TextAttribute() {
+		@Override
+		public Iterator<TextAttribute> iterator() {
+			return Collections.emptyIterator();
+		}
+
+		@Override
+		public int getWidth() {
+			return 3;
+		}
+
+		@Override
+		public String getDictionaryIdentifier() {
+			return "em";
+		}
+
+		@Override
+		public boolean hasChildren() {
+			return false;
+		}
+	};
+
+	private static String translate(BrailleTranslator t, String text) throws TranslationException {
+		return t.translate(Translatable.text(text).build()).getTranslatedRemainder();
+	}
+
+	@Test
+	public void testHitReturnsUnconsumedCopy() throws TranslationException {
+		RecordingTranslator rt = new RecordingTranslator();
+		TranslationCache cache = new TranslationCache(10);
+		BrailleTranslator t = cache.decorate(rt, "en");
+		assertEquals("ABC", translate(t, "abc"));
+		assertEquals("ABC", translate(t, "abc"));
+		assertEquals("ABC", translate(t, "abc"));
+		assertEquals(1, rt.translated.size());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws TranslationException {
+		RecordingTranslator rt = new RecordingTranslator();
+		TranslationCache cache = new TranslationCache(2);
+		BrailleTranslator t = cache.decorate(rt, "en");
+		translate(t, "a");
+		translate(t, "b");
+		// a is now more recently used than b
+		translate(t, "a");
+		// evicts b
+		translate(t, "c");
+		translate(t, "a");
+		translate(t, "b");
+		assertEquals(Arrays.asList("a", "b", "c", "b"), rt.translated);
+		assertEquals(2, cache.getHits());
+		assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void testKeyIncludesLocaleAndOptions() throws TranslationException {
+		RecordingTranslator rt = new RecordingTranslator();
+		TranslationCache cache = new TranslationCache(10);
+		BrailleTranslator en = cache.decorate(rt, "en");
+		BrailleTranslator sv = cache.decorate(rt, "sv");
+		translate(en, "a");
+		translate(sv, "a");
+		en.translate(Translatable.text("a").hyphenate(true).build());
+		en.translate(Translatable.text("a").markCapitalLetters(false).build());
+		en.translate(Translatable.text("a").locale("fr").build());
+		translate(en, "a");
+		assertEquals(5, rt.translated.size());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testSegmentsWithAttributesBypassCache() throws TranslationException {
+		RecordingTranslator rt = new RecordingTranslator();
+		TranslationCache cache = new TranslationCache(10);
+		BrailleTranslator t = cache.decorate(rt, "en");
+		Translatable input = Translatable.text("abc").attributes(ATTRIBUTE).build();
+		assertEquals("ABC", t.translate(input).getTranslatedRemainder());
+		assertEquals("ABC", t.translate(input).getTranslatedRemainder());
+		assertEquals(2, rt.translated.size());
+		assertEquals(0, cache.getHits());
+		assertEquals(0, cache.getMisses());
+		// doesn't affect the cached entry for the same text without attributes
+		translate(t, "abc");
+		translate(t, "abc");
+		assertEquals(3, rt.translated.size());
+		assertEquals(1, cache.getHits());
+	}
+
+}
@@ -0,0 +1,154 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.daisy.dotify.api.table.TableCatalog;
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
+import org.daisy.dotify.api.translator.Translatable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+@SuppressWarnings("javadoc")
+public class TranslationServerTest {
+	private static final String TABLE = "org.daisy.braille.impl.table.DefaultTableProvider.TableType.EN_US";
+	private HttpServer server;
+	private String base;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new TranslationServer().start("127.0.0.1", 0, 8, 0, "en-US", "grade:1");
+		base = "http://127.0.0.1:" + server.getAddress().getPort() + "/translate";
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	/**
+	 * Provides the status and the body of a response.
+	 */
+	private static class Response {
+		private final int status;
+		private final String body;
+
+		private Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	private static Response request(String method, String url, byte[] body) throws IOException {
+		HttpURLConnection c = (HttpURLConnection)new URL(url).openConnection();
+		try {
+			c.setRequestMethod(method);
+			if (body!=null) {
+				c.setDoOutput(true);
+				try (OutputStream os = c.getOutputStream()) {
+					os.write(body);
+				}
+			}
+			int status = c.getResponseCode();
+			try (InputStream is = status<400 ? c.getInputStream() : c.getErrorStream()) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buf = new byte[4096];
+				int len;
+				while (is!=null && (len = is.read(buf))!=-1) {
+					bytes.write(buf, 0, len);
+				}
+				return new Response(status, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+			}
+		} finally {
+			c.disconnect();
+		}
+	}
+
+	private static Response post(String url, String text) throws IOException {
+		return request("POST", url, text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String translate(String locale, String mode, String text) throws Exception {
+		BrailleTranslator t = BrailleTranslatorFactoryMaker.newInstance().newTranslator(locale, mode);
+		return t.translate(Translatable.text(text).build()).getTranslatedRemainder();
+	}
+
+	@Test
+	public void testGetAndPost() throws Exception {
+		String text = "The quick brown fox";
+		Response r = request("GET", base + "?text=" + URLEncoder.encode(text, "UTF-8"), null);
+		assertEquals(200, r.status);
+		assertEquals(translate("en-US", "grade:1", text), r.body);
+		r = post(base + "?locale=sv-SE&mode=uncontracted", "En liten text");
+		assertEquals(200, r.status);
+		assertEquals(translate("sv-SE", "uncontracted", "En liten text"), r.body);
+	}
+
+	@Test
+	public void testTable() throws Exception {
+		Response r = post(base + "?table=" + URLEncoder.encode(TABLE, "UTF-8"), "braille");
+		assertEquals(200, r.status);
+		String expected = new FastBrailleConverter(TableCatalog.newInstance().newTable(TABLE).newBrailleConverter()).toText(translate("en-US", "grade:1", "braille"));
+		assertEquals(expected, r.body);
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		assertEquals(405, request("PUT", base, new byte[]{1}).status);
+		assertEquals(413, request("POST", base, new byte[1024*1024+1]).status);
+		assertEquals(400, post(base + "?locale=xx-XX", "text").status);
+	}
+
+	/**
+	 * The default locale is translated with liblouis, which cannot be used on several
+	 * threads at the same time. Concurrent requests must still get the correct braille.
+	 */
+	@Test
+	public void testConcurrentLiblouisRequests() throws Exception {
+		List<String> texts = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<40; i++) {
+			sb.append("word").append(i).append(i%3==0 ? ", and more words " : " ");
+			texts.add(sb.toString());
+			expected.add(translate("en-US", i%2==0 ? "grade:1" : "grade:2", sb.toString()));
+		}
+		ExecutorService es = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<Response>> responses = new ArrayList<>();
+			for (int i=0; i<200; i++) {
+				int index = i%texts.size();
+				String url = base + (index%2==0 ? "" : "?mode=grade:2");
+				responses.add(es.submit(()->post(url, texts.get(index))));
+			}
+			for (int i=0; i<responses.size(); i++) {
+				Response r = responses.get(i).get();
+				assertEquals(r.body, 200, r.status);
+				assertEquals(expected.get(i%texts.size()), r.body);
+			}
+		} finally {
+			es.shutdownNow();
+		}
+		Response status = request("GET", "http://127.0.0.1:" + server.getAddress().getPort() + "/status", null);
+		assertTrue(status.body, status.body.startsWith("Translator pool"));
+	}
+
+}
@@ -0,0 +1,31 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TranslatorGuardTest {
+	private final BrailleTranslatorFactoryMaker factory = BrailleTranslatorFactoryMaker.newInstance();
+
+	@Test
+	public void testMode() {
+		assertFalse(TranslatorGuard.isThreadSafe(factory, "en-US", "grade:1"));
+		assertFalse(TranslatorGuard.isThreadSafe(factory, "en-US", "uncontracted"));
+		assertTrue(TranslatorGuard.isThreadSafe(factory, "en-US", "bypass"));
+		assertTrue(TranslatorGuard.isThreadSafe(factory, "sv-SE", "uncontracted"));
+		// unsupported
+		assertTrue(TranslatorGuard.isThreadSafe(factory, "xx-XX", "uncontracted"));
+	}
+
+	@Test
+	public void testLocale() {
+		assertFalse(TranslatorGuard.isThreadSafe(factory, "en-US"));
+		assertFalse(TranslatorGuard.isThreadSafe(factory, "en_us"));
+		assertTrue(TranslatorGuard.isThreadSafe(factory, "sv-SE"));
+		assertTrue(TranslatorGuard.isThreadSafe(factory, "xx-XX"));
+	}
+
+}
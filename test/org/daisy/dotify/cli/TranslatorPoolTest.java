@@ -0,0 +1,256 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.daisy.dotify.api.translator.BrailleTranslator;
+import org.daisy.dotify.api.translator.BrailleTranslatorFactoryMaker;
+import org.daisy.dotify.api.translator.BrailleTranslatorResult;
+import org.daisy.dotify.api.translator.Translatable;
+import org.daisy.dotify.api.translator.TranslatableWithContext;
+import org.daisy.dotify.api.translator.TranslatorConfigurationException;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TranslatorPoolTest {
+
+	/**
+	 * Creates translators that do nothing, and counts them.
+	 */
+	private static class CountingFactory extends BrailleTranslatorFactoryMaker {
+		private final AtomicInteger created = new AtomicInteger(0);
+
+		@Override
+		public BrailleTranslator newTranslator(String locale, String mode) throws TranslatorConfigurationException {
+			if ("unknown".equals(locale)) {
+				throw new TranslatorConfigurationException("No translator for " + locale);
+			}
+			created.incrementAndGet();
+			return new BrailleTranslator() {
+				@Override
+				public BrailleTranslatorResult translate(Translatable input) {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public BrailleTranslatorResult translate(TranslatableWithContext input) {
+					throw new UnsupportedOperationException();
+				}
+
+				@Override
+				public String getTranslatorMode() {
+					return mode;
+				}
+			};
+		}
+	}
+
+	@Test
+	public void testBorrowAndReturn() throws Exception {
+		CountingFactory f = new CountingFactory();
+		TranslatorPool pool = new TranslatorPool(f, 2, 0, 60000);
+		try {
+			BrailleTranslator t1;
+			try (TranslatorPool.Lease l = pool.borrow("sv", "m")) {
+				t1 = l.get();
+			}
+			// the returned translator is reused
+			try (TranslatorPool.Lease l1 = pool.borrow("sv", "m"); TranslatorPool.Lease l2 = pool.borrow("sv", "m")) {
+				assertSame(t1, l1.get());
+				assertNotSame(t1, l2.get());
+			}
+			assertEquals(2, f.created.get());
+			// a different mode has its own translators
+			try (TranslatorPool.Lease l = pool.borrow("sv", "other")) {
+				assertNotSame(t1, l.get());
+			}
+			assertEquals(3, f.created.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testMaxIdle() throws Exception {
+		CountingFactory f = new CountingFactory();
+		TranslatorPool pool = new TranslatorPool(f, 1, 0, 60000);
+		try {
+			BrailleTranslator t1, t2;
+			try (TranslatorPool.Lease l1 = pool.borrow("sv", "m"); TranslatorPool.Lease l2 = pool.borrow("sv", "m")) {
+				t1 = l1.get();
+				t2 = l2.get();
+			}
+			// l2 is closed first, so t2 is kept and t1 is discarded
+			try (TranslatorPool.Lease l1 = pool.borrow("sv", "m"); TranslatorPool.Lease l2 = pool.borrow("sv", "m")) {
+				assertSame(t2, l1.get());
+				assertNotSame(t1, l2.get());
+			}
+			assertEquals(3, f.created.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testClosedLease() throws Exception {
+		TranslatorPool pool = new TranslatorPool(new CountingFactory(), 1, 0, 60000);
+		try {
+			TranslatorPool.Lease l = pool.borrow("sv", "m");
+			l.close();
+			try {
+				l.get();
+				fail();
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testWarmUp() throws Exception {
+		CountingFactory f = new CountingFactory();
+		TranslatorPool pool = new TranslatorPool(f, 2, 0, 60000);
+		try {
+			pool.warmUp("sv", "m", 3);
+			// limited by the maximum number of idle translators
+			assertEquals(2, f.created.get());
+			pool.warmUp("sv", "m", 2);
+			assertEquals(2, f.created.get());
+			try (TranslatorPool.Lease l1 = pool.borrow("sv", "m"); TranslatorPool.Lease l2 = pool.borrow("sv", "m")) {
+				// both are taken from the idle translators
+				assertNotSame(l1.get(), l2.get());
+			}
+			assertEquals(2, f.created.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testIdleEviction() throws Exception {
+		CountingFactory f = new CountingFactory();
+		TranslatorPool pool = new TranslatorPool(f, 2, 0, 50);
+		try {
+			pool.warmUp("sv", "m", 2);
+			assertEquals(0, pool.evictIdle());
+			Thread.sleep(200);
+			// evicted by the background thread
+			assertEquals(0, pool.evictIdle());
+			try (TranslatorPool.Lease l = pool.borrow("sv", "m")) {
+				assertNotNull(l.get());
+			}
+			assertEquals(3, f.created.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testTimedBorrow() throws Exception {
+		CountingFactory f = new CountingFactory();
+		TranslatorPool pool = new TranslatorPool(f, 2, 1, 60000);
+		try {
+			try (TranslatorPool.Lease l1 = pool.borrow("sv", "m")) {
+				assertNotNull(l1.get());
+				long start = System.nanoTime();
+				assertNull(pool.borrow("sv", "m", 50, TimeUnit.MILLISECONDS));
+				assertTrue(System.nanoTime()-start>=TimeUnit.MILLISECONDS.toNanos(50));
+				// other keys aren't affected
+				try (TranslatorPool.Lease l2 = pool.borrow("sv", "other", 50, TimeUnit.MILLISECONDS)) {
+					assertNotNull(l2);
+				}
+			}
+			try (TranslatorPool.Lease l1 = pool.borrow("sv", "m", 50, TimeUnit.MILLISECONDS)) {
+				assertNotNull(l1);
+			}
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testBorrowWaitsForReturn() throws Exception {
+		CountingFactory f = new CountingFactory();
+		TranslatorPool pool = new TranslatorPool(f, 2, 2, 60000);
+		pool.setMaxActive("sv", "m", 1);
+		try {
+			TranslatorPool.Lease l1 = pool.borrow("sv", "m");
+			CountDownLatch started = new CountDownLatch(1);
+			AtomicReference<BrailleTranslator> result = new AtomicReference<>();
+			Thread t = new Thread(()->{
+				started.countDown();
+				try (TranslatorPool.Lease l2 = pool.borrow("sv", "m")) {
+					result.set(l2.get());
+				} catch (TranslatorConfigurationException | InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			t.start();
+			started.await();
+			t.join(100);
+			// still waiting
+			assertNull(result.get());
+			BrailleTranslator expected = l1.get();
+			l1.close();
+			t.join(10000);
+			assertSame(expected, result.get());
+			assertEquals(1, f.created.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testFailedCreationReleasesSlot() throws Exception {
+		TranslatorPool pool = new TranslatorPool(new CountingFactory(), 1, 1, 60000);
+		try {
+			for (int i=0; i<2; i++) {
+				try {
+					pool.borrow("unknown", "m", 50, TimeUnit.MILLISECONDS);
+					fail();
+				} catch (TranslatorConfigurationException e) {
+					// expected, and doesn't count as borrowed
+				}
+			}
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testLiblouisIsLentOneAtATime() throws Exception {
+		TranslatorPool pool = new TranslatorPool(BrailleTranslatorFactoryMaker.newInstance(), 2, 0, 60000);
+		try {
+			assertFalse(pool.isThreadSafe("en-US", "grade:1"));
+			assertTrue(pool.isThreadSafe("sv-SE", "uncontracted"));
+			try (TranslatorPool.Lease l1 = pool.borrow("en-US", "grade:1")) {
+				assertNotNull(l1.get());
+				// liblouis translators share state, regardless of mode
+				assertNull(pool.borrow("en-US", "grade:2", 50, TimeUnit.MILLISECONDS));
+				// other translators aren't affected
+				try (TranslatorPool.Lease l2 = pool.borrow("sv-SE", "uncontracted", 50, TimeUnit.MILLISECONDS)) {
+					assertNotNull(l2);
+				}
+			}
+			try (TranslatorPool.Lease l1 = pool.borrow("en-US", "grade:2", 50, TimeUnit.MILLISECONDS)) {
+				assertNotNull(l1);
+			}
+		} finally {
+			pool.close();
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.daisy.dotify.common.io.FileIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ValidationCacheTest {
+	private static final String PEF = "application/x-pef+xml";
+	private File tmp;
+	private File dir;
+	private File a;
+	private File b;
+
+	@Before
+	public void setUp() throws IOException {
+		tmp = Files.createTempDirectory("validation").toFile();
+		dir = new File(tmp, "cache");
+		a = write("a.pef", "alpha");
+		b = write("b.pef", "beta");
+	}
+
+	@After
+	public void tearDown() {
+		FileIO.deleteRecursive(tmp);
+	}
+
+	private File write(String name, String content) throws IOException {
+		File f = new File(tmp, name);
+		Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return f;
+	}
+
+	private ValidationCache newCache() {
+		return new ValidationCache(dir, ValidationCache.DEFAULT_MAX_ENTRIES, ValidationCache.DEFAULT_MAX_AGE);
+	}
+
+	@Test
+	public void testKeyIsSha256() throws Exception {
+		ValidationCache cache = newCache();
+		String key = cache.key(a, PEF, "org.example.Validator", "1.0");
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		md.update("alpha".getBytes(StandardCharsets.UTF_8));
+		md.update(("|" + PEF + "|org.example.Validator|1.0").getBytes(StandardCharsets.UTF_8));
+		assertEquals(String.format("%064x", new BigInteger(1, md.digest())), key);
+		assertEquals(key, cache.key(write("copy.pef", "alpha"), PEF, "org.example.Validator", "1.0"));
+	}
+
+	@Test
+	public void testKeyDependsOnContentAndValidator() throws Exception {
+		ValidationCache cache = newCache();
+		String key = cache.key(a, PEF, "org.example.Validator", "1.0");
+		assertNotEquals(key, cache.key(b, PEF, "org.example.Validator", "1.0"));
+		assertNotEquals(key, cache.key(a, "text/xml", "org.example.Validator", "1.0"));
+		assertNotEquals(key, cache.key(a, PEF, "org.example.OtherValidator", "1.0"));
+		assertNotEquals(key, cache.key(a, PEF, "org.example.Validator", "1.1"));
+		assertNotEquals(key, cache.key(a, PEF, "org.example.Validator", null));
+		assertEquals(cache.key(a, PEF, getClass().getName(), null), cache.key(a, PEF, getClass()));
+	}
+
+	@Test
+	public void testAddAndContains() throws Exception {
+		ValidationCache cache = newCache();
+		String key = cache.key(a, PEF, "org.example.Validator", "1.0");
+		assertFalse(cache.contains(key));
+		cache.add(key);
+		assertTrue(cache.contains(key));
+		// persists between instances
+		assertTrue(newCache().contains(key));
+		assertFalse(newCache().contains(cache.key(b, PEF, "org.example.Validator", "1.0")));
+	}
+
+	@Test
+	public void testNewVersionInvalidates() throws Exception {
+		ValidationCache cache = newCache();
+		cache.add(cache.key(a, PEF, "org.example.Validator", "1.0"));
+		assertTrue(cache.contains(cache.key(a, PEF, "org.example.Validator", "1.0")));
+		assertFalse(cache.contains(cache.key(a, PEF, "org.example.Validator", "2.0")));
+	}
+
+	@Test
+	public void testChangedContentInvalidates() throws Exception {
+		ValidationCache cache = newCache();
+		cache.add(cache.key(a, PEF, "org.example.Validator", "1.0"));
+		Files.write(a.toPath(), "changed".getBytes(StandardCharsets.UTF_8));
+		assertFalse(cache.contains(cache.key(a, PEF, "org.example.Validator", "1.0")));
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		ValidationCache cache = newCache();
+		String key = cache.key(a, PEF, "org.example.Validator", "1.0");
+		cache.add(key);
+		File entry = new File(dir, key);
+		long now = System.currentTimeMillis();
+		assertTrue(entry.setLastModified(now - ValidationCache.DEFAULT_MAX_AGE + TimeUnit.DAYS.toMillis(1)));
+		assertTrue(cache.contains(key));
+		// contains touches the entry
+		assertTrue(entry.lastModified()>=now - TimeUnit.MINUTES.toMillis(1));
+		assertTrue(entry.setLastModified(now - ValidationCache.DEFAULT_MAX_AGE - TimeUnit.DAYS.toMillis(1)));
+		assertFalse(cache.contains(key));
+		assertFalse(entry.exists());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() throws Exception {
+		ValidationCache cache = newCache();
+		long now = System.currentTimeMillis();
+		String[] keys = new String[ValidationCache.DEFAULT_MAX_ENTRIES];
+		for (int i=0; i<keys.length; i++) {
+			keys[i] = cache.key(a, PEF, "org.example.Validator", String.valueOf(i));
+			cache.add(keys[i]);
+			// older entries have lower numbers
+			assertTrue(new File(dir, keys[i]).setLastModified(now - TimeUnit.MINUTES.toMillis(keys.length - i)));
+		}
+		assertEquals(ValidationCache.DEFAULT_MAX_ENTRIES, dir.listFiles().length);
+		// using the oldest entry makes the second oldest the least recently used
+		assertTrue(cache.contains(keys[0]));
+		String extra = cache.key(b, PEF, "org.example.Validator", "1.0");
+		cache.add(extra);
+		assertEquals(ValidationCache.DEFAULT_MAX_ENTRIES, dir.listFiles().length);
+		assertTrue(cache.contains(extra));
+		assertTrue(cache.contains(keys[0]));
+		assertFalse(cache.contains(keys[1]));
+		assertTrue(cache.contains(keys[2]));
+	}
+
+}
@@ -0,0 +1,129 @@
+package org.daisy.dotify.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ValidationPolicyTest {
+
+	@Test
+	public void testParseModes() {
+		assertEquals(ValidationPolicy.Mode.FULL, ValidationPolicy.parse(null, null).getMode());
+		assertEquals(ValidationPolicy.Mode.FULL, ValidationPolicy.parse("", null).getMode());
+		assertEquals(ValidationPolicy.Mode.OFF, ValidationPolicy.parse("off", null).getMode());
+		assertEquals(ValidationPolicy.Mode.SAMPLED, ValidationPolicy.parse("Sampled", "3").getMode());
+		assertEquals(ValidationPolicy.Mode.ASYNC, ValidationPolicy.parse("ASYNC", null).getMode());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParseUnknownMode() {
+		ValidationPolicy.parse("sometimes", null);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParseIllegalSample() {
+		ValidationPolicy.parse("sampled", "half");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParseNegativePercentage() {
+		ValidationPolicy.parse("sampled", "-5%");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParsePercentageOver100() {
+		ValidationPolicy.parse("sampled", "101%");
+	}
+
+	@Test
+	public void testParseDefaultSample() {
+		assertEquals("sampled (1 of every 10 files)", ValidationPolicy.parse("sampled", null).toString());
+		assertEquals("sampled (1 of every 10 files)", ValidationPolicy.parse("sampled", "").toString());
+		assertEquals(Arrays.asList(0, 10, 20), run(ValidationPolicy.parse("sampled", null), 25, new AtomicInteger()));
+	}
+
+	@Test
+	public void testParseSample() {
+		assertEquals("sampled (1 of every 3 files)", ValidationPolicy.parse("sampled", "3").toString());
+		assertEquals("sampled (1 of every 1 files)", ValidationPolicy.parse("sampled", "0").toString());
+		assertEquals("sampled (25.0% of the files)", ValidationPolicy.parse("sampled", "25%").toString());
+		// the sample is ignored in other modes
+		assertEquals("full", ValidationPolicy.parse("full", "half").toString());
+	}
+
+	private static List<Integer> run(ValidationPolicy vp, int files, AtomicInteger onValid) {
+		List<Integer> validated = Collections.synchronizedList(new ArrayList<>());
+		for (int i=0; i<files; i++) {
+			int index = i;
+			vp.validate(new File(i + ".pef"), ()->{
+				validated.add(index);
+				return true;
+			}, onValid::incrementAndGet);
+		}
+		vp.await();
+		return validated;
+	}
+
+	@Test
+	public void testSampledEveryNth() {
+		AtomicInteger onValid = new AtomicInteger();
+		assertEquals(Arrays.asList(0, 3, 6), run(ValidationPolicy.parse("sampled", "3"), 9, onValid));
+		// files that aren't validated are treated as valid
+		assertEquals(9, onValid.get());
+	}
+
+	@Test
+	public void testSampledPercentage() {
+		assertEquals(0, run(ValidationPolicy.parse("sampled", "0%"), 20, new AtomicInteger()).size());
+		assertEquals(20, run(ValidationPolicy.parse("sampled", "100%"), 20, new AtomicInteger()).size());
+	}
+
+	@Test
+	public void testOff() {
+		AtomicInteger onValid = new AtomicInteger();
+		assertEquals(0, run(ValidationPolicy.parse("off", null), 5, onValid).size());
+		assertEquals(5, onValid.get());
+	}
+
+	@Test
+	public void testAsync() {
+		List<String> threads = Collections.synchronizedList(new ArrayList<>());
+		ValidationPolicy vp = ValidationPolicy.parse("async", null);
+		AtomicInteger onValid = new AtomicInteger();
+		for (int i=0; i<5; i++) {
+			vp.validate(new File(i + ".pef"), ()->{
+				threads.add(Thread.currentThread().getName());
+				return true;
+			}, onValid::incrementAndGet);
+		}
+		vp.await();
+		assertEquals(5, threads.size());
+		assertEquals(5, onValid.get());
+		for (String t : threads) {
+			assertTrue(t, t.startsWith("dotify-validation-"));
+		}
+	}
+
+	@Test
+	public void testInvalid() {
+		ValidationPolicy vp = ValidationPolicy.parse("full", null);
+		AtomicInteger onValid = new AtomicInteger();
+		vp.validate(new File("a.pef"), ()->true, onValid::incrementAndGet);
+		vp.validate(new File("b.pef"), ()->false, onValid::incrementAndGet);
+		vp.validate(new File("c.pef"), ()->{
+			throw new Exception("Cannot validate");
+		}, onValid::incrementAndGet);
+		assertEquals(1, onValid.get());
+		assertEquals(Arrays.asList(new File("b.pef"), new File("c.pef")), vp.getInvalid());
+	}
+
+}